@@ -0,0 +1,355 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.notenik.*;
+
+  import java.io.*;
+  import java.util.*;
+  import java.util.function.*;
+
+/**
+ A small index of a collection that is not currently open, used when
+ searching all collections. For each note file, the index records the
+ file's modification time and length, the note's title, and a Bloom filter
+ of the trigrams found in its title, tags, link and body. The index is saved
+ between sessions, so that a repeat search need only re-read the notes that
+ have changed, and need only parse the notes that might contain the search
+ string.
+ */
+public class CollectionSearchIndex {
+
+  /** Folder within the user's home folder in which indexes are saved. */
+  public static final String  INDEX_FOLDER_NAME = ".notenik-search";
+  public static final String  INDEX_EXT = ".idx";
+
+  private static final int    FORMAT_VERSION = 1;
+
+  /** Size of each note's Bloom filter, in 64-bit words. */
+  public static final int     BLOOM_WORDS = 64;
+  private static final int    BLOOM_BITS = BLOOM_WORDS * 64;
+
+  private     File                folder;
+  private     File                indexFile;
+  private     TreeMap<String, IndexEntry> entries
+      = new TreeMap<String, IndexEntry>();
+  private     boolean             changed = false;
+
+  /**
+   Create an index for the given collection folder. The index starts out
+   empty; call load to pick up the last saved copy.
+
+   @param folder The folder containing the collection.
+  */
+  public CollectionSearchIndex(File folder) {
+    this.folder = folder;
+    File indexFolder = new File(System.getProperty("user.home"),
+        INDEX_FOLDER_NAME);
+    String key = Integer.toHexString(folder.getAbsolutePath().hashCode());
+    indexFile = new File(indexFolder, folder.getName() + "-" + key + INDEX_EXT);
+  }
+
+  /**
+   Load the last saved copy of the index, if there is one. A missing or
+   unreadable index is simply rebuilt by the next refresh.
+  */
+  public void load() {
+    entries.clear();
+    changed = true;
+    if (! indexFile.exists()) {
+      return;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(indexFile)));
+      if (in.readInt() == FORMAT_VERSION
+          && in.readUTF().equals(folder.getAbsolutePath())) {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          IndexEntry entry = new IndexEntry();
+          String fileName = in.readUTF();
+          entry.lastModified = in.readLong();
+          entry.length = in.readLong();
+          entry.title = in.readUTF();
+          for (int j = 0; j < BLOOM_WORDS; j++) {
+            entry.bloom[j] = in.readLong();
+          }
+          entries.put(fileName, entry);
+        }
+        changed = false;
+      }
+    } catch (IOException e) {
+      entries.clear();
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // Nothing more to do
+        }
+      }
+    }
+  }
+
+  /**
+   Bring the index up to date with the collection folder, re-reading only
+   those notes whose files have changed since they were last indexed.
+
+   @param io        The reader to use for the collection's notes.
+   @param cancelled Tells us when to give up early.
+
+   @return The notes read during the refresh, keyed by file name, so that
+           they need not be read again to be searched.
+  */
+  public Map<String, Note> refresh(NoteIO io, BooleanSupplier cancelled) {
+    HashMap<String, Note> fresh = new HashMap<String, Note>();
+    String[] fileNames = folder.list();
+    if (fileNames == null) {
+      return fresh;
+    }
+    HashSet<String> present = new HashSet<String>();
+    for (String fileName : fileNames) {
+      if (cancelled.getAsBoolean()) {
+        return fresh;
+      }
+      File noteFile = new File(folder, fileName);
+      if (NoteIO.isInterestedIn(noteFile)) {
+        present.add(fileName);
+        IndexEntry entry = entries.get(fileName);
+        if (entry == null
+            || entry.lastModified != noteFile.lastModified()
+            || entry.length != noteFile.length()) {
+          try {
+            Note note = io.getNote(noteFile, "");
+            if (note != null) {
+              entries.put(fileName, indexNote(note, noteFile));
+              fresh.put(fileName, note);
+              changed = true;
+            }
+          } catch (IOException e) {
+            entries.remove(fileName);
+          }
+        }
+      }
+    }
+    if (entries.keySet().retainAll(present)) {
+      changed = true;
+    }
+    return fresh;
+  }
+
+  /**
+   Save the index, if it has changed since it was loaded.
+  */
+  public void save() {
+    if (! changed) {
+      return;
+    }
+    File indexFolder = indexFile.getParentFile();
+    if (! indexFolder.exists()) {
+      indexFolder.mkdirs();
+    }
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(indexFile)));
+      out.writeInt(FORMAT_VERSION);
+      out.writeUTF(folder.getAbsolutePath());
+      out.writeInt(entries.size());
+      for (Map.Entry<String, IndexEntry> mapEntry : entries.entrySet()) {
+        IndexEntry entry = mapEntry.getValue();
+        out.writeUTF(mapEntry.getKey());
+        out.writeLong(entry.lastModified);
+        out.writeLong(entry.length);
+        out.writeUTF(entry.title);
+        for (int j = 0; j < BLOOM_WORDS; j++) {
+          out.writeLong(entry.bloom[j]);
+        }
+      }
+      changed = false;
+    } catch (IOException e) {
+      // The index will simply be rebuilt next time
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          // Nothing more to do
+        }
+      }
+    }
+  }
+
+  /**
+   Return the names of the note files that might contain the given string.
+   Files whose Bloom filters lack any of the string's trigrams are skipped.
+
+   @param findString The string being searched for.
+   @param regex      Is the find string a regular expression? If so, every
+                     file is a candidate.
+
+   @return The candidate file names, in alphabetical order.
+  */
+  public List<String> getCandidates(String findString, boolean regex) {
+    ArrayList<String> candidates = new ArrayList<String>();
+    long[] grams = null;
+    if (! regex) {
+      grams = collectGrams(findString);
+    }
+    for (Map.Entry<String, IndexEntry> mapEntry : entries.entrySet()) {
+      if (grams == null || mapEntry.getValue().mightContain(grams)) {
+        candidates.add(mapEntry.getKey());
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   Return the position of each note within the collection, taking the
+   notes in the alphabetical order of their file names, as the index does.
+
+   @return The position of each note, by file name.
+  */
+  public Map<String, Integer> getPositions() {
+    HashMap<String, Integer> positions
+        = new HashMap<String, Integer>(entries.size() * 2);
+    int position = 0;
+    for (String fileName : entries.keySet()) {
+      positions.put(fileName, position);
+      position++;
+    }
+    return positions;
+  }
+
+  /**
+   Return the title of the note stored in the given file.
+
+   @param fileName The name of the note's file.
+
+   @return The title, or an empty string if the file is not indexed.
+  */
+  public String getTitle(String fileName) {
+    IndexEntry entry = entries.get(fileName);
+    if (entry == null) {
+      return "";
+    } else {
+      return entry.title;
+    }
+  }
+
+  public File getFolder() {
+    return folder;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   Build the index entry for one note.
+  */
+  private static IndexEntry indexNote(Note note, File noteFile) {
+    IndexEntry entry = new IndexEntry();
+    entry.lastModified = noteFile.lastModified();
+    entry.length = noteFile.length();
+    entry.title = note.getTitle();
+    entry.addGrams(note.getTitle());
+    entry.addGrams(note.getTagsAsString());
+    entry.addGrams(note.getLinkAsString());
+    entry.addGrams(note.getBody());
+    return entry;
+  }
+
+  /**
+   Break a search string down into case-folded trigrams.
+
+   @return The trigrams, or null if the string is too short to have any.
+  */
+  private static long[] collectGrams(String findString) {
+    if (findString == null
+        || findString.length() < NoteSearchIndex.GRAM_LENGTH) {
+      return null;
+    }
+    long[] grams
+        = new long[findString.length() - NoteSearchIndex.GRAM_LENGTH + 1];
+    long gram = 0;
+    for (int i = 0; i < findString.length(); i++) {
+      gram = ((gram << 16) | NoteSearchIndex.fold(findString.charAt(i)))
+          & 0xFFFFFFFFFFFFL;
+      if (i >= NoteSearchIndex.GRAM_LENGTH - 1) {
+        grams[i - NoteSearchIndex.GRAM_LENGTH + 1] = gram;
+      }
+    }
+    return grams;
+  }
+
+  /**
+   The indexed information for one note file.
+  */
+  private static class IndexEntry {
+
+    long        lastModified = 0;
+    long        length = 0;
+    String      title = "";
+    long[]      bloom = new long[BLOOM_WORDS];
+
+    void addGrams(String text) {
+      if (text == null) {
+        return;
+      }
+      long gram = 0;
+      for (int i = 0; i < text.length(); i++) {
+        gram = ((gram << 16) | NoteSearchIndex.fold(text.charAt(i)))
+            & 0xFFFFFFFFFFFFL;
+        if (i >= NoteSearchIndex.GRAM_LENGTH - 1) {
+          setBit(hash1(gram));
+          setBit(hash2(gram));
+        }
+      }
+    }
+
+    boolean mightContain(long[] grams) {
+      for (long gram : grams) {
+        if ((! testBit(hash1(gram))) || (! testBit(hash2(gram)))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void setBit(int bit) {
+      bloom[bit >>> 6] |= (1L << (bit & 63));
+    }
+
+    private boolean testBit(int bit) {
+      return ((bloom[bit >>> 6] & (1L << (bit & 63))) != 0);
+    }
+
+    private static int hash1(long gram) {
+      long h = gram * 0x9E3779B97F4A7C15L;
+      return (int) ((h >>> 32) & (BLOOM_BITS - 1));
+    }
+
+    private static int hash2(long gram) {
+      long h = (gram ^ (gram >>> 21)) * 0xC2B2AE3D27D4EB4FL;
+      return (int) ((h >>> 40) & (BLOOM_BITS - 1));
+    }
+
+  }
+
+}
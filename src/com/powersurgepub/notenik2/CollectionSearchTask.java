@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.files.*;
+  import com.powersurgepub.psutils2.logging.*;
+  import com.powersurgepub.psutils2.notenik.*;
+  import com.powersurgepub.psutils2.records.*;
+
+  import java.io.*;
+  import java.util.*;
+  import java.util.concurrent.*;
+  import java.util.concurrent.atomic.*;
+
+  import javafx.application.*;
+  import javafx.concurrent.*;
+
+/**
+ A background task that searches every collection on the recent files list,
+ reading each collection's folder directly rather than opening it. The
+ collections are searched in parallel, on a small pool of threads, and the
+ hits from each collection are passed to the results window together, as
+ soon as that collection has been searched. Each collection's
+ CollectionSearchIndex is used to skip the notes that can't contain the
+ search string, and is saved again for next time.
+
+ The value returned is the number of notes found.
+ */
+public class CollectionSearchTask
+    extends Task<Integer> {
+
+  /** Maximum number of collections to be searched at once. */
+  public static final int   MAX_THREADS = 4;
+
+  private     List<FileSpec>      collections;
+  private     RecordDefinition    recDef;
+  private     NoteSearcher        searcher;
+  private     SearchResultsWindow resultsWindow;
+
+  private     ConcurrentLinkedQueue<List<SearchResult>> found
+      = new ConcurrentLinkedQueue<List<SearchResult>>();
+  private     AtomicInteger       searched = new AtomicInteger(0);
+  private     int                 hits = 0;
+
+  /**
+   Prepare a new search.
+
+   @param collections   The collections to be searched.
+   @param recDef        A record definition to be used for reading notes.
+                        Each collection gets its own copy.
+   @param searcher      The search to be made. Each worker uses a copy.
+   @param resultsWindow The window to receive the results.
+  */
+  public CollectionSearchTask(
+      List<FileSpec> collections,
+      RecordDefinition recDef,
+      NoteSearcher searcher,
+      SearchResultsWindow resultsWindow) {
+
+    this.collections = collections;
+    this.recDef = recDef;
+    this.searcher = searcher;
+    this.resultsWindow = resultsWindow;
+  }
+
+  @Override
+  protected Integer call() throws Exception {
+
+    int size = collections.size();
+    int workers = Math.max(1, Math.min(size,
+        Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors())));
+    ExecutorService executor = Executors.newFixedThreadPool(workers, r -> {
+      Thread thread = new Thread(r, "Collection search");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    for (int i = 0; i < size; i++) {
+      final int collectionIndex = i;
+      executor.submit(() -> searchCollection(collectionIndex));
+    }
+    executor.shutdown();
+
+    updateProgress(0, size);
+    while (! executor.isTerminated()) {
+      if (isCancelled()) {
+        executor.shutdownNow();
+        break;
+      }
+      executor.awaitTermination(NoteSearchTask.PUBLISH_INTERVAL,
+          TimeUnit.MILLISECONDS);
+      publish();
+      updateProgress(searched.get(), size);
+    }
+    publish();
+    updateProgress(searched.get(), size);
+    return hits;
+  }
+
+  /**
+   Search one collection, bringing its index up to date along the way.
+
+   @param collectionIndex The position of the collection in our list.
+  */
+  private void searchCollection(int collectionIndex) {
+    FileSpec collection = collections.get(collectionIndex);
+    File folder = collection.getFolder();
+    try {
+      if (folder != null && NoteCollectionModel.goodFolder(folder)) {
+        NoteIO io = new NoteIO(folder, NoteParms.DEFINED_TYPE,
+            new RecordDefinition(recDef));
+        CollectionSearchIndex index = new CollectionSearchIndex(folder);
+        index.load();
+        Map<String, Note> fresh = index.refresh(io, () -> isCancelled());
+        index.save();
+
+        NoteSearcher collectionSearcher = searcher.copy();
+        ArrayList<SearchResult> group = new ArrayList<SearchResult>();
+        Map<String, Integer> positions = index.getPositions();
+        for (String fileName : index.getCandidates(
+            searcher.getFindString(), ! searcher.isLiteral())) {
+          if (isCancelled() || Thread.currentThread().isInterrupted()) {
+            return;
+          }
+          Note note = fresh.get(fileName);
+          if (note == null) {
+            note = io.getNote(new File(folder, fileName), "");
+          }
+          SearchResult result = collectionSearcher.search(note, 
+              positions.get(fileName));
+          if (result != null) {
+            result.setCollection(collection, collectionIndex);
+            group.add(result);
+          }
+        }
+        if (group.size() > 0) {
+          found.add(group);
+        }
+      }
+    } catch (IOException e) {
+      Logger.getShared().recordEvent(LogEvent.MEDIUM,
+          "Trouble searching collection " + folder.toString()
+            + ": " + e.toString(),
+          false);
+    } finally {
+      searched.incrementAndGet();
+    }
+  }
+
+  /**
+   Send the hits from any collections searched since the last batch to the
+   results window.
+  */
+  private void publish() {
+    if (found.isEmpty() || isCancelled()) {
+      return;
+    }
+    ArrayList<SearchResult> batch = new ArrayList<SearchResult>();
+    List<SearchResult> group = found.poll();
+    while (group != null) {
+      batch.addAll(group);
+      group = found.poll();
+    }
+    hits = hits + batch.size();
+    Platform.runLater(() -> resultsWindow.addResults(this, batch));
+  }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.notenik.*;
+  import com.powersurgepub.psutils2.values.*;
+
+  import java.time.*;
+  import java.time.format.*;
+  import java.util.*;
+
+/**
+ An index of the open, recurring notes in a collection, ordered by date.
+ Each note's date is converted once, when the note is indexed, to a count
+ of days since the epoch, so that the notes falling due before a given day
+ can be found without looking at any others. Notes without a complete
+ yyyy-mm-dd date are left out.
+
+ As with the TagIndex, the notes returned are candidates: the caller should
+ confirm each note's date before acting on it.
+ */
+public class DateIndex {
+
+  /** The open, recurring notes falling due on each day. */
+  private     TreeMap<Long, Set<Note>>    notesByDay
+      = new TreeMap<Long, Set<Note>>();
+
+  /** The day on which each indexed note falls due. */
+  private     IdentityHashMap<Note, Long> noteDays
+      = new IdentityHashMap<Note, Long>();
+
+  private     StringDate                  workDate = new StringDate();
+
+  public DateIndex() {
+
+  }
+
+  /**
+   Empty the index.
+  */
+  public void clear() {
+    notesByDay.clear();
+    noteDays.clear();
+  }
+
+  /**
+   Add a note to the index if it is open and recurring, or re-index it if
+   it is already present.
+
+   @param note The note to be indexed.
+  */
+  public void add(Note note) {
+    if (note == null) {
+      return;
+    }
+    remove(note);
+    boolean done = (note.hasStatus() && note.getStatus().isDone());
+    if (note.hasDate() && note.hasRecurs() && (! done)) {
+      long day = getEpochDay(note);
+      if (day != Long.MIN_VALUE) {
+        Set<Note> notes = notesByDay.get(day);
+        if (notes == null) {
+          notes = Collections.newSetFromMap(new IdentityHashMap<Note, Boolean>());
+          notesByDay.put(day, notes);
+        }
+        notes.add(note);
+        noteDays.put(note, day);
+      }
+    }
+  }
+
+  /**
+   Re-index a note whose date, status or recurrence may have changed.
+
+   @param note The note that was modified.
+  */
+  public void update(Note note) {
+    add(note);
+  }
+
+  /**
+   Remove a note from the index.
+
+   @param note The note to be removed.
+  */
+  public void remove(Note note) {
+    if (note == null) {
+      return;
+    }
+    Long day = noteDays.remove(note);
+    if (day != null) {
+      Set<Note> notes = notesByDay.get(day);
+      if (notes != null) {
+        notes.remove(note);
+        if (notes.isEmpty()) {
+          notesByDay.remove(day);
+        }
+      }
+    }
+  }
+
+  /**
+   Return the number of notes in the index.
+
+   @return The number of open, recurring notes indexed.
+  */
+  public int size() {
+    return noteDays.size();
+  }
+
+  /**
+   Find the open, recurring notes falling due before the given day.
+
+   @param day The day of interest, as a count of days since the epoch.
+
+   @return The notes falling due before that day, earliest first.
+  */
+  public List<Note> getDueBefore(long day) {
+    ArrayList<Note> due = new ArrayList<Note>();
+    for (Set<Note> notes : notesByDay.headMap(day, false).values()) {
+      due.addAll(notes);
+    }
+    return due;
+  }
+
+  /**
+   Convert a note's date to a count of days since the epoch.
+
+   @param note The note whose date is wanted.
+
+   @return The day, or Long.MIN_VALUE if the note does not have a complete
+           yyyy-mm-dd date.
+  */
+  public long getEpochDay(Note note) {
+    workDate.set(note.getDateAsString());
+    String ymd = workDate.getYMD();
+    if (ymd == null || ymd.length() != 10) {
+      return Long.MIN_VALUE;
+    }
+    try {
+      return LocalDate.parse(ymd).toEpochDay();
+    } catch (DateTimeParseException e) {
+      return Long.MIN_VALUE;
+    }
+  }
+
+  /**
+   Calculate the first date on or after a target day that can be reached
+   from a starting day by repeatedly adding a fixed number of days.
+
+   @param day      The starting day, as a count of days since the epoch.
+   @param interval The number of days between occurrences.
+   @param target   The day to be reached.
+
+   @return The first occurrence on or after the target day, or the
+           starting day itself if it is already there.
+  */
+  public static long catchUp(long day, int interval, long target) {
+    if (day >= target || interval < 1) {
+      return day;
+    }
+    long steps = (target - day + interval - 1) / interval;
+    return day + (steps * interval);
+  }
+
+  /**
+   Format a count of days since the epoch as a yyyy-mm-dd date.
+
+   @param day The day to be formatted.
+
+   @return The date as a string.
+  */
+  public static String toYMD(long day) {
+    return LocalDate.ofEpochDay(day).toString();
+  }
+
+}
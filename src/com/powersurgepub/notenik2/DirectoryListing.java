@@ -0,0 +1,185 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import java.io.*;
+  import java.nio.file.*;
+  import java.util.*;
+
+/**
+ The names of the entries in one folder, read with a single directory
+ listing, together with an index of the trigrams in each name so that the
+ names most like a missing one can be suggested in its place.
+
+ Similarity is measured as the proportion of trigrams two names have in
+ common, ignoring case, with the start and end of each name counted as
+ characters so that names sharing a beginning or an ending score higher.
+ */
+public class DirectoryListing {
+
+  /** Least similarity for a name to be worth suggesting. */
+  public static final double  MIN_SIMILARITY = 0.4;
+
+  private static final char   START = '\u0002';
+  private static final char   END   = '\u0003';
+
+  private     File                folder;
+  private     boolean             readable = false;
+  private     ArrayList<String>   names = new ArrayList<String>();
+  private     HashSet<String>     nameSet = new HashSet<String>();
+
+  /** The trigrams found in each name, indexed by position in names. */
+  private     ArrayList<String[]> nameGrams = new ArrayList<String[]>();
+
+  /** The positions of the names containing each trigram. */
+  private     HashMap<String, ArrayList<Integer>> postings
+      = new HashMap<String, ArrayList<Integer>>();
+
+  /**
+   List the given folder.
+
+   @param folder The folder to be listed.
+  */
+  public DirectoryListing(File folder) {
+    this.folder = folder;
+    if (folder == null) {
+      return;
+    }
+    try (DirectoryStream<Path> stream
+        = Files.newDirectoryStream(folder.toPath())) {
+      for (Path entry : stream) {
+        add(entry.getFileName().toString());
+      }
+      readable = true;
+    } catch (IOException | InvalidPathException e) {
+      // Leave the listing empty
+    }
+  }
+
+  private void add(String name) {
+    int position = names.size();
+    names.add(name);
+    nameSet.add(name);
+    String[] grams = getGrams(name);
+    nameGrams.add(grams);
+    for (String gram : grams) {
+      ArrayList<Integer> positions = postings.get(gram);
+      if (positions == null) {
+        positions = new ArrayList<Integer>();
+        postings.put(gram, positions);
+      }
+      positions.add(position);
+    }
+  }
+
+  /**
+   Was the folder found and listed?
+
+   @return True if the folder could be read.
+  */
+  public boolean isReadable() {
+    return readable;
+  }
+
+  /**
+   Is there an entry in the folder with exactly this name?
+
+   @param name The name of the file or folder.
+
+   @return True if the folder has such an entry.
+  */
+  public boolean contains(String name) {
+    return nameSet.contains(name);
+  }
+
+  /**
+   Find the names in the folder most like the given one.
+
+   @param name The name that was not found.
+   @param max  The most names to be returned.
+
+   @return The similar names, most similar first, leaving out the name
+           itself.
+  */
+  public List<String> suggest(String name, int max) {
+    String[] grams = getGrams(name);
+    int[] shared = new int[names.size()];
+    for (String gram : grams) {
+      ArrayList<Integer> positions = postings.get(gram);
+      if (positions != null) {
+        for (int position : positions) {
+          shared[position]++;
+        }
+      }
+    }
+    ArrayList<Integer> candidates = new ArrayList<Integer>();
+    double[] similarity = new double[names.size()];
+    for (int i = 0; i < shared.length; i++) {
+      if (shared[i] > 0 && (! names.get(i).equals(name))) {
+        similarity[i] = (2.0 * shared[i])
+            / (grams.length + nameGrams.get(i).length);
+        if (similarity[i] >= MIN_SIMILARITY) {
+          candidates.add(i);
+        }
+      }
+    }
+    Collections.sort(candidates,
+        (a, b) -> Double.compare(similarity[b], similarity[a]));
+    ArrayList<String> suggestions = new ArrayList<String>();
+    for (int i = 0; i < candidates.size() && i < max; i++) {
+      suggestions.add(names.get(candidates.get(i)));
+    }
+    return suggestions;
+  }
+
+  /**
+   Find the name in the folder most like the given one.
+
+   @param name The name that was not found.
+
+   @return The most similar name, or null if none is similar enough.
+  */
+  public String suggest(String name) {
+    List<String> suggestions = suggest(name, 1);
+    if (suggestions.isEmpty()) {
+      return null;
+    } else {
+      return suggestions.get(0);
+    }
+  }
+
+  public File getFolder() {
+    return folder;
+  }
+
+  public int size() {
+    return names.size();
+  }
+
+  /**
+   Return the distinct trigrams in a name, ignoring case.
+  */
+  private static String[] getGrams(String name) {
+    String padded = START + name.toLowerCase() + END;
+    LinkedHashSet<String> grams = new LinkedHashSet<String>();
+    for (int i = 0; i + 3 <= padded.length(); i++) {
+      grams.add(padded.substring(i, i + 3));
+    }
+    return grams.toArray(new String[grams.size()]);
+  }
+
+}
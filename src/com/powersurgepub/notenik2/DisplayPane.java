@@ -100,8 +100,8 @@ public class DisplayPane {
   }
   
   public void displayBody(String body) {
-    // Display Body, if there is any
-    webPane.appendMarkdown(body);
+    // Display Body, if there is any, rendered only if it has changed
+    webPane.appendLine(RenderCache.getShared().markdownToHtml(body));
   }
   
   /**
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.notenik.*;
+
+  import java.io.*;
+  import java.util.*;
+
+/**
+ A record, kept in the destination folder of an incremental Notenik export,
+ of each note written there by the last export: its file name, which
+ serves as its key, a digest of its contents and its last modified date.
+ The next export need only write the notes whose digests have changed,
+ and can delete the files for notes that are no longer exported.
+
+ Only files named in the manifest are ever deleted, so other files in the
+ destination folder are left alone.
+ */
+public class ExportManifest {
+
+  public static final String  MANIFEST_FILE_NAME = ".notenik-export-manifest";
+
+  private static final int    FORMAT_VERSION = 1;
+
+  private     File                folder;
+  private     File                manifestFile;
+  private     HashMap<String, Entry> entries = new HashMap<String, Entry>();
+  private     HashSet<String>     exported = new HashSet<String>();
+
+  /**
+   Prepare a manifest for the given destination folder. The manifest
+   starts out empty; call load to pick up the one left by the last export.
+
+   @param folder The folder to which notes are being exported.
+  */
+  public ExportManifest(File folder) {
+    this.folder = folder;
+    manifestFile = new File(folder, MANIFEST_FILE_NAME);
+  }
+
+  /**
+   Load the manifest left by the last export, if there is one. Without
+   one, every note will be written.
+  */
+  public void load() {
+    entries.clear();
+    exported.clear();
+    if (! manifestFile.exists()) {
+      return;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(manifestFile)));
+      if (in.readInt() == FORMAT_VERSION) {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          String fileName = in.readUTF();
+          Entry entry = new Entry();
+          entry.hash = in.readUTF();
+          entry.lastModified = in.readLong();
+          entries.put(fileName, entry);
+        }
+      }
+    } catch (IOException e) {
+      entries.clear();
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // Nothing more to do
+        }
+      }
+    }
+  }
+
+  /**
+   Does the destination already hold this version of a note?
+
+   @param fileName The file name of the note.
+   @param hash     The digest of the note's contents.
+
+   @return True if the note was written by the last export with the same
+           contents, and its file is still there.
+  */
+  public boolean isUnchanged(String fileName, String hash) {
+    Entry entry = entries.get(fileName);
+    return (entry != null
+        && entry.hash.equals(hash)
+        && new File(folder, fileName).exists());
+  }
+
+  /**
+   Record that a note is part of this export, whether it was written this
+   time or left as it was.
+
+   @param fileName     The file name of the note.
+   @param hash         The digest of the note's contents.
+   @param lastModified The note's last modified date, in milliseconds.
+  */
+  public void exported(String fileName, String hash, long lastModified) {
+    Entry entry = new Entry();
+    entry.hash = hash;
+    entry.lastModified = lastModified;
+    entries.put(fileName, entry);
+    exported.add(fileName);
+  }
+
+  /**
+   Delete the files for the notes written by an earlier export but not
+   part of this one, and drop them from the manifest.
+
+   @return The number of files deleted.
+  */
+  public int deleteNotExported() {
+    int deleted = 0;
+    Iterator<String> iterator = entries.keySet().iterator();
+    while (iterator.hasNext()) {
+      String fileName = iterator.next();
+      if (! exported.contains(fileName)) {
+        File file = new File(folder, fileName);
+        if (file.delete() || (! file.exists())) {
+          iterator.remove();
+          deleted++;
+        }
+      }
+    }
+    return deleted;
+  }
+
+  /**
+   Save the manifest in the destination folder.
+
+   @throws IOException If the manifest could not be written.
+  */
+  public void save() throws IOException {
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(manifestFile)));
+    try {
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(entries.size());
+      for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+        out.writeUTF(mapEntry.getKey());
+        out.writeUTF(mapEntry.getValue().hash);
+        out.writeLong(mapEntry.getValue().lastModified);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   Return a digest of the contents of a note, taken from the names and
+   values of all its fields.
+
+   @param note The note as it is to be exported.
+
+   @return The digest, as a string.
+  */
+  public static String getHash(Note note) {
+    return NoteDigest.of(note);
+  }
+
+  public File getFolder() {
+    return folder;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   What the manifest records about one note.
+  */
+  static class Entry {
+
+    String      hash = "";
+    long        lastModified = 0;
+
+  }
+
+}
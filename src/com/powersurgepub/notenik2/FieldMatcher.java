@@ -0,0 +1,294 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import java.util.regex.*;
+
+/**
+ A precompiled matcher for a literal search string, using the
+ Boyer-Moore-Horspool algorithm. The matcher works directly on any
+ CharSequence, without copying it, and may be reused for any number of
+ fields and notes. When the search is not case-sensitive, both the pattern
+ and the text are folded to a single case as they are compared.
+
+ A matcher may instead be compiled from a regular expression, in which
+ case a single java.util.regex.Matcher is reset for each field. A matcher
+ holds state, and so should not be shared between threads.
+ */
+public class FieldMatcher {
+
+  /** Size of the shift table. Characters are hashed into it. */
+  private static final int    TABLE_SIZE = 256;
+  private static final int    TABLE_MASK = TABLE_SIZE - 1;
+
+  private     String              findString;
+  private     boolean             caseSensitive;
+  private     boolean             regex = false;
+
+  /** The compiled regular expression, if any, and its reusable matcher. */
+  private     Pattern             regexPattern = null;
+  private     Matcher             regexMatcher = null;
+
+  /** The pattern, folded if the search is not case-sensitive. */
+  private     char[]              pattern;
+
+  /** Distance to shift the pattern, keyed by the hash of the last char. */
+  private     int[]               shift = new int[TABLE_SIZE];
+
+  /** Offsets of the most recent match, or -1. */
+  private     int                 matchStart = -1;
+  private     int                 matchEnd = -1;
+
+  /**
+   Compile a new matcher.
+
+   @param findString    The string to be searched for.
+   @param caseSensitive Should we do a case-sensitive comparison?
+  */
+  public FieldMatcher(String findString, boolean caseSensitive) {
+    this(findString, caseSensitive, false);
+  }
+
+  /**
+   Compile a new matcher.
+
+   @param findString    The string to be searched for.
+   @param caseSensitive Should we do a case-sensitive comparison?
+   @param regex         Is the find string a regular expression?
+
+   @throws PatternSyntaxException If the regular expression is invalid.
+  */
+  public FieldMatcher(String findString, boolean caseSensitive, boolean regex) {
+    this.findString = findString;
+    this.regex = regex;
+    if (regex) {
+      int flags = 0;
+      if (! caseSensitive) {
+        flags = Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+      }
+      regexPattern = Pattern.compile(findString, flags);
+      regexMatcher = regexPattern.matcher("");
+    }
+    this.caseSensitive = caseSensitive;
+    int length = findString.length();
+    pattern = new char[length];
+    for (int i = 0; i < length; i++) {
+      pattern[i] = fold(findString.charAt(i));
+    }
+
+    // Characters sharing a hash slot keep the smallest shift, which is
+    // always safe.
+    for (int i = 0; i < TABLE_SIZE; i++) {
+      shift[i] = length;
+    }
+    for (int i = 0; i < length - 1; i++) {
+      shift[pattern[i] & TABLE_MASK] = length - 1 - i;
+    }
+  }
+
+  /**
+   Look for the pattern within the given text, starting at the beginning.
+
+   @param text The text to be searched. May be null.
+
+   @return The offset of the first match, or -1 if no match.
+  */
+  public int find(CharSequence text) {
+    return find(text, 0);
+  }
+
+  /**
+   Look for the pattern within the given text.
+
+   @param text The text to be searched. May be null.
+   @param from The offset at which to start looking.
+
+   @return The offset of the next match, or -1 if no match.
+  */
+  public int find(CharSequence text, int from) {
+    matchStart = -1;
+    matchEnd = -1;
+    if (regex) {
+      return findRegex(text, from);
+    }
+    int length = pattern.length;
+    if (text == null || length == 0) {
+      return -1;
+    }
+    int last = length - 1;
+    int end = text.length() - length;
+    int i = Math.max(from, 0);
+    while (i <= end) {
+      char c = fold(text.charAt(i + last));
+      if (c == pattern[last]) {
+        int j = last - 1;
+        while (j >= 0 && fold(text.charAt(i + j)) == pattern[j]) {
+          j--;
+        }
+        if (j < 0) {
+          matchStart = i;
+          matchEnd = i + length;
+          return i;
+        }
+      }
+      i = i + shift[c & TABLE_MASK];
+    }
+    return -1;
+  }
+
+  /**
+   Look for the regular expression within the given text.
+  */
+  private int findRegex(CharSequence text, int from) {
+    if (text == null) {
+      return -1;
+    }
+    int start = Math.max(from, 0);
+    if (start > text.length()) {
+      return -1;
+    }
+    regexMatcher.reset(text);
+    if (regexMatcher.find(start)) {
+      matchStart = regexMatcher.start();
+      matchEnd = regexMatcher.end();
+    }
+    return matchStart;
+  }
+
+  /**
+   Replace every match within the given text.
+
+   @param text        The text to be modified. May be null.
+   @param replacement The replacement text. For a regular expression, this
+                      may refer to captured groups as $1, $2, etc.
+
+   @return The modified text, or null if no match was found.
+  */
+  public String replaceAll(String text, String replacement) {
+    if (find(text, 0) < 0) {
+      return null;
+    }
+    if (regex) {
+      return regexMatcher.replaceAll(replacement);
+    }
+    StringBuilder work = new StringBuilder(text.length());
+    int from = 0;
+    while (matchStart >= 0) {
+      work.append(text, from, matchStart);
+      work.append(replacement);
+      from = matchEnd;
+      find(text, from);
+    }
+    work.append(text, from, text.length());
+    return work.toString();
+  }
+
+  /**
+   Replace the text matched by the most recent successful find.
+
+   @param text        The text that was searched.
+   @param start       The start of the match.
+   @param end         The end of the match.
+   @param replacement The replacement text.
+
+   @return The modified text.
+  */
+  public String replaceMatch(String text, int start, int end, String replacement) {
+    String replaced = replacement;
+    if (regex) {
+      // Let ^, $, \b and lookarounds see the text outside the region, so
+      // the match is judged just as it was when it was found
+      Matcher one = regexPattern.matcher(text);
+      one.region(start, text.length());
+      one.useAnchoringBounds(false);
+      one.useTransparentBounds(true);
+      if (one.lookingAt()) {
+        StringBuffer buffer = new StringBuffer();
+        one.appendReplacement(buffer, replacement);
+        replaced = buffer.substring(start);
+        end = one.end();
+      }
+    }
+    StringBuilder work = new StringBuilder(
+        text.length() - (end - start) + replaced.length());
+    work.append(text, 0, start);
+    work.append(replaced);
+    work.append(text, end, text.length());
+    return work.toString();
+  }
+
+  /**
+   Does the text contain the pattern?
+
+   @param text The text to be searched. May be null.
+
+   @return True if the pattern was found.
+  */
+  public boolean matches(CharSequence text) {
+    return (find(text, 0) >= 0);
+  }
+
+  /**
+   Return the offset of the most recent match.
+
+   @return The offset of the most recent match, or -1 if the most recent
+           search failed.
+  */
+  public int getMatchStart() {
+    return matchStart;
+  }
+
+  /**
+   Return the offset just past the most recent match.
+
+   @return The end of the most recent match, or -1 if no match.
+  */
+  public int getMatchEnd() {
+    return matchEnd;
+  }
+
+  /**
+   Return the length of the string being searched for. For a regular
+   expression, use getMatchEnd instead.
+
+   @return The length of the find string.
+  */
+  public int length() {
+    return pattern.length;
+  }
+
+  public String getFindString() {
+    return findString;
+  }
+
+  public boolean isCaseSensitive() {
+    return caseSensitive;
+  }
+
+  public boolean isRegex() {
+    return regex;
+  }
+
+  private char fold(char c) {
+    if (caseSensitive) {
+      return c;
+    } else {
+      return NoteSearchIndex.fold(c);
+    }
+  }
+
+}
@@ -45,6 +45,9 @@ public class FileInfoWindow
   
   public static final String      WINDOW_TITLE = "File Info";
   
+  /** Most similar files to be listed. */
+  public static final int         MAX_SIMILAR = 10;
+  
   private     FXUtils             fxUtils;
   private     Stage               fileInfoStage;
   private     Scene               fileInfoScene;
@@ -195,27 +198,11 @@ public class FileInfoWindow
         fileExistsLabel.setText("File exists.");
       }
       files.add(file);
-      String fileNameStr = file.getName();
-      int minMatch = fileNameStr.length() - 15;
-      if (minMatch > 5) {
-        String[] dirEntries = folder.list();
-        for (int i = 0; i < dirEntries.length; i++) {
-          String dirEntry = dirEntries[i];
-          if (! dirEntry.equals(fileNameStr)) {
-            int j = 0;
-            while (j < minMatch
-                && j < dirEntry.length()
-                && j < fileNameStr.length()
-                && fileNameStr.charAt(j) == dirEntry.charAt(j)) {
-              j++;
-            }
-            if (j >= minMatch) {
-              File similarFile = new File(folder, dirEntry);
-              files.add(similarFile);
-            }
-          } // end if not the same file
-        } // end for each dir entry
-      } // end if we have enough of a file name to match
+      DirectoryListing listing = new DirectoryListing(folder);
+      for (String similarName : listing.suggest(file.getName(), MAX_SIMILAR)) {
+        File similarFile = new File(folder, similarName);
+        files.add(similarFile);
+      } // end for each similar name
     } // end if folder exists
     // filesTable = files.getTable();
     // filesTable.getSelectionModel().clearSelection();
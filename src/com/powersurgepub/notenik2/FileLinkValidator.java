@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.notenik.*;
+
+  import java.io.*;
+  import java.util.*;
+
+  import javafx.concurrent.*;
+
+/**
+ A background task that checks the links from notes to local files and
+ folders: file links, attachments and links to other collections. The
+ links are grouped by the folder containing their targets, and each folder
+ is listed just once, rather than each target being looked up in turn.
+ For every target that can't be found, the most similar name in its folder
+ is offered as a suggestion.
+
+ The value returned is the list of broken links.
+ */
+public class FileLinkValidator
+    extends Task<List<FileLinkValidator.FileLink>> {
+
+  /**
+   A link from a note to a local file or folder.
+  */
+  public static class FileLink {
+
+    private     Note        note;
+    private     File        file;
+    private     String      suggestion = null;
+
+    public FileLink(Note note, File file) {
+      this.note = note;
+      this.file = file;
+    }
+
+    public Note getNote() {
+      return note;
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    /**
+     Return the most similar name found in the target's folder.
+
+     @return The suggested file or folder, or null if there is none.
+    */
+    public File getSuggestion() {
+      if (suggestion == null) {
+        return null;
+      } else {
+        return new File(file.getParentFile(), suggestion);
+      }
+    }
+  }
+
+  private     List<FileLink>      links;
+
+  /**
+   Prepare to check the given links.
+
+   @param links The links to be checked.
+  */
+  public FileLinkValidator(List<FileLink> links) {
+    this.links = links;
+  }
+
+  @Override
+  protected List<FileLink> call() throws Exception {
+
+    // Group the links by folder
+    LinkedHashMap<File, List<FileLink>> folders
+        = new LinkedHashMap<File, List<FileLink>>();
+    for (FileLink link : links) {
+      File folder = link.getFile().getAbsoluteFile().getParentFile();
+      List<FileLink> linksInFolder = folders.get(folder);
+      if (linksInFolder == null) {
+        linksInFolder = new ArrayList<FileLink>();
+        folders.put(folder, linksInFolder);
+      }
+      linksInFolder.add(link);
+    }
+
+    ArrayList<FileLink> broken = new ArrayList<FileLink>();
+    int listed = 0;
+    updateProgress(0, folders.size());
+    for (Map.Entry<File, List<FileLink>> mapEntry : folders.entrySet()) {
+      if (isCancelled()) {
+        break;
+      }
+      DirectoryListing listing = new DirectoryListing(mapEntry.getKey());
+      for (FileLink link : mapEntry.getValue()) {
+        String name = link.getFile().getName();
+        // The file system may ignore case, so double-check a miss
+        if ((! listing.contains(name)) && (! link.getFile().exists())) {
+          link.suggestion = listing.suggest(name);
+          broken.add(link);
+        }
+      }
+      listed++;
+      updateProgress(listed, folders.size());
+    }
+    return broken;
+  }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import java.io.*;
+  import java.util.*;
+  import java.util.concurrent.*;
+
+/**
+ The results of the last link validation for a collection, saved between
+ sessions. For each link the cache records whether it was valid, when it
+ was checked, and the ETag and Last-Modified values returned by the server.
+ A link checked within the time to live is not checked again; an older one
+ is checked with a conditional request, so that an unchanged page costs
+ the server no more than a 304 response.
+
+ The cache is safe to use from several threads at once.
+ */
+public class LinkCache {
+
+  /** Folder within the user's home folder in which caches are saved. */
+  public static final String  CACHE_FOLDER_NAME = ".notenik-links";
+  public static final String  CACHE_EXT = ".links";
+
+  /** Preference key for the time to live, in hours. */
+  public static final String  TTL_HOURS_KEY = "link-check-ttl-hours";
+  public static final int     DEFAULT_TTL_HOURS = 7 * 24;
+
+  private static final int    FORMAT_VERSION = 1;
+
+  private     File                folder;
+  private     File                cacheFile;
+  private     long                timeToLive;
+  private     ConcurrentHashMap<String, Entry> entries
+      = new ConcurrentHashMap<String, Entry>();
+  private     volatile boolean    changed = false;
+
+  /**
+   Create a cache for the given collection folder. The cache starts out
+   empty; call load to pick up the last saved copy.
+
+   @param folder   The folder containing the collection.
+   @param ttlHours The number of hours for which a result remains good.
+  */
+  public LinkCache(File folder, int ttlHours) {
+    this.folder = folder;
+    timeToLive = ttlHours * 60L * 60L * 1000L;
+    File cacheFolder = new File(System.getProperty("user.home"),
+        CACHE_FOLDER_NAME);
+    String key = Integer.toHexString(folder.getAbsolutePath().hashCode());
+    cacheFile = new File(cacheFolder, folder.getName() + "-" + key + CACHE_EXT);
+  }
+
+  /**
+   Load the last saved copy of the cache, if there is one. A missing or
+   unreadable cache simply means that every link will be checked.
+  */
+  public void load() {
+    entries.clear();
+    changed = false;
+    if (! cacheFile.exists()) {
+      return;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(cacheFile)));
+      if (in.readInt() == FORMAT_VERSION
+          && in.readUTF().equals(folder.getAbsolutePath())) {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          String url = in.readUTF();
+          Entry entry = new Entry();
+          entry.result = in.readInt();
+          entry.checked = in.readLong();
+          entry.etag = in.readUTF();
+          entry.lastModified = in.readUTF();
+          entries.put(url, entry);
+        }
+      }
+    } catch (IOException e) {
+      entries.clear();
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // Nothing more to do
+        }
+      }
+    }
+  }
+
+  /**
+   Save the cache, if it has changed since it was loaded. Entries that
+   have expired several times over are dropped along the way. Only one
+   save runs at a time; results recorded while a save is under way leave
+   the cache marked as changed, to be picked up by the next one.
+  */
+  public synchronized void save() {
+    if (! changed) {
+      return;
+    }
+    changed = false;
+    File cacheFolder = cacheFile.getParentFile();
+    if (! cacheFolder.exists()) {
+      cacheFolder.mkdirs();
+    }
+    long cutoff = System.currentTimeMillis() - (timeToLive * 4);
+    TreeMap<String, Entry> toSave = new TreeMap<String, Entry>();
+    for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+      if (mapEntry.getValue().checked >= cutoff) {
+        toSave.put(mapEntry.getKey(), mapEntry.getValue());
+      }
+    }
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(cacheFile)));
+      out.writeInt(FORMAT_VERSION);
+      out.writeUTF(folder.getAbsolutePath());
+      out.writeInt(toSave.size());
+      for (Map.Entry<String, Entry> mapEntry : toSave.entrySet()) {
+        Entry entry = mapEntry.getValue();
+        out.writeUTF(mapEntry.getKey());
+        out.writeInt(entry.result);
+        out.writeLong(entry.checked);
+        out.writeUTF(entry.etag);
+        out.writeUTF(entry.lastModified);
+      }
+    } catch (IOException e) {
+      // The links will simply be checked again next time
+      changed = true;
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          // Nothing more to do
+        }
+      }
+    }
+  }
+
+  /**
+   Return the last result for a link.
+
+   @param url The link.
+
+   @return The cached entry, or null if the link has not been checked.
+  */
+  Entry get(String url) {
+    return entries.get(url);
+  }
+
+  /**
+   Is the cached result recent enough to be used without checking again?
+
+   @param entry The cached entry, or null.
+
+   @return True if the entry was recorded within the time to live.
+  */
+  boolean isFresh(Entry entry) {
+    return (entry != null
+        && System.currentTimeMillis() - entry.checked < timeToLive);
+  }
+
+  /**
+   Record the result of a check.
+
+   @param url          The link that was checked.
+   @param result       LinkValidator.VALID or LinkValidator.INVALID.
+   @param etag         The ETag returned by the server, or null.
+   @param lastModified The Last-Modified value returned by the server,
+                       or null.
+  */
+  void put(String url, int result, String etag, String lastModified) {
+    Entry entry = new Entry();
+    entry.result = result;
+    entry.checked = System.currentTimeMillis();
+    if (etag != null) {
+      entry.etag = etag;
+    }
+    if (lastModified != null) {
+      entry.lastModified = lastModified;
+    }
+    entries.put(url, entry);
+    changed = true;
+  }
+
+  public File getFolder() {
+    return folder;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   The cached result for one link.
+  */
+  static class Entry {
+
+    int         result = LinkValidator.VALID;
+    long        checked = 0;
+    String      etag = "";
+    String      lastModified = "";
+
+  }
+
+}
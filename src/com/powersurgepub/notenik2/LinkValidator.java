@@ -0,0 +1,572 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.notenik.*;
+
+  import java.io.*;
+  import java.net.*;
+  import java.util.*;
+  import java.util.concurrent.*;
+  import java.util.concurrent.atomic.*;
+
+  import javafx.animation.*;
+  import javafx.util.Duration;
+
+/**
+ Checks the links in a list of notes, using a fixed pool of threads so that
+ no more than a set number of connections are open at once, and no more
+ than a few of those to any one host. The links for each host wait their
+ turn in a queue of their own, so that a collection full of links to one
+ site neither floods that site nor ties up the pool.
+
+ Each web link is first checked with a HEAD request; if the server refuses
+ that, a GET is tried instead. Redirects are followed, up to a limit, and
+ response bodies are drained so that the connections can be reused. A
+ server that reports it is too busy (429 or 503) leaves the link's status
+ unknown, rather than marking it as invalid.
+
+ If a LinkCache is supplied, links checked recently are not checked again,
+ and older ones are checked with conditional requests. Either way, a link
+ shared by several notes is checked only once, and the result passed along
+ for each of them.
+
+ The checks need not come from a note: check may be called directly with
+ any address, which makes it easy to exercise the validator against a
+ local server.
+ */
+public class LinkValidator {
+
+  /** The link could be reached. */
+  public static final int     VALID   = 0;
+  /** The link is broken. */
+  public static final int     INVALID = 1;
+  /** The server was too busy to say. */
+  public static final int     UNKNOWN = 2;
+
+  public static final int     MAX_CONNECTIONS = 16;
+  public static final int     MAX_PER_HOST = 2;
+  public static final int     CONNECT_TIMEOUT = 10 * 1000;
+  public static final int     READ_TIMEOUT = 20 * 1000;
+  public static final int     MAX_REDIRECTS = 5;
+
+  private static final int    NO_RESPONSE = -1;
+  private static final int    UNREACHABLE = -2;
+
+  /** Most we will read of a response body to allow reuse of a connection. */
+  public static final int     DRAIN_LIMIT = 64 * 1024;
+
+  public static final String  USER_AGENT
+      = Notenik.PROGRAM_NAME + "/" + Notenik.PROGRAM_VERSION;
+
+  /** Interval between reports to the listener, in milliseconds. */
+  public static final long    PUBLISH_INTERVAL = 100;
+
+  /**
+   Receives the results of the checks, on the FX thread. Results are
+   gathered up and reported several times a second, rather than one by
+   one, so that validating thousands of links does not flood the FX
+   thread with events.
+  */
+  public interface LinkListener {
+
+    /**
+     More links have been checked.
+
+     @param checked The number of notes whose links were checked since the
+                    last report.
+     @param invalid Those notes whose links were found to be invalid.
+    */
+    void linksChecked(int checked, List<Note> invalid);
+
+    /**
+     Every link has now been checked and reported.
+    */
+    void validationComplete();
+  }
+
+  private     int                 maxConnections;
+  private     int                 maxPerHost;
+  private     int                 connectTimeout;
+  private     int                 readTimeout;
+
+  private     LinkCache           cache = null;
+
+  private     ExecutorService     executor = null;
+  private     Timeline            publisher = null;
+  private     HashMap<String, HostQueue> hosts
+      = new HashMap<String, HostQueue>();
+  private     volatile boolean    cancelled = false;
+
+  /**
+   Prepare a validator with the standard limits.
+  */
+  public LinkValidator() {
+    this(MAX_CONNECTIONS, MAX_PER_HOST, CONNECT_TIMEOUT, READ_TIMEOUT);
+  }
+
+  /**
+   Prepare a validator with the given limits.
+
+   @param maxConnections Most links to be checked at once.
+   @param maxPerHost     Most links to be checked at once on any one host.
+   @param connectTimeout Milliseconds to wait for a connection.
+   @param readTimeout    Milliseconds to wait for a response.
+  */
+  public LinkValidator(
+      int maxConnections,
+      int maxPerHost,
+      int connectTimeout,
+      int readTimeout) {
+
+    this.maxConnections = maxConnections;
+    this.maxPerHost = maxPerHost;
+    this.connectTimeout = connectTimeout;
+    this.readTimeout = readTimeout;
+  }
+
+  /**
+   Supply a cache of earlier results, to be consulted and kept up to date.
+
+   @param cache The cache for the collection being validated, or null.
+  */
+  public void setCache(LinkCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   Start checking the links for the given notes. Returns immediately; the
+   results are passed to the listener, on the FX thread, as they arrive.
+   Must be called on the FX thread.
+
+   @param notes    The notes whose links are to be checked.
+   @param listener The listener to receive the results.
+  */
+  public void validate(List<Note> notes, LinkListener listener) {
+    cancel();
+    cancelled = false;
+    ExecutorService pool = Executors.newFixedThreadPool(maxConnections, r -> {
+      Thread thread = new Thread(r, "Link validation");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor = pool;
+    synchronized (hosts) {
+      hosts.clear();
+    }
+
+    // Group the notes by link, so that each link is checked only once
+    LinkedHashMap<String, List<Note>> owners
+        = new LinkedHashMap<String, List<Note>>();
+    for (Note note : notes) {
+      String address = note.getURLasString();
+      List<Note> notesForLink = owners.get(address);
+      if (notesForLink == null) {
+        notesForLink = new ArrayList<Note>(1);
+        owners.put(address, notesForLink);
+      }
+      notesForLink.add(note);
+    }
+
+    // Results wait here until the next report to the listener
+    ConcurrentLinkedQueue<Outcome> outcomes
+        = new ConcurrentLinkedQueue<Outcome>();
+    AtomicInteger remaining = new AtomicInteger(owners.size());
+    publisher = new Timeline(new KeyFrame(Duration.millis(PUBLISH_INTERVAL),
+        e -> publish(outcomes, remaining, listener)));
+    publisher.setCycleCount(Animation.INDEFINITE);
+
+    if (owners.isEmpty()) {
+      pool.shutdown();
+    }
+    for (Map.Entry<String, List<Note>> mapEntry : owners.entrySet()) {
+      String address = mapEntry.getKey();
+      List<Note> notesForLink = mapEntry.getValue();
+      LinkCache.Entry cached = null;
+      if (cache != null) {
+        cached = cache.get(address);
+      }
+      if (cache != null && cache.isFresh(cached)) {
+        outcomes.add(new Outcome(notesForLink, cached.result));
+        finished(remaining, pool);
+      } else {
+        LinkCache.Entry conditions = cached;
+        Runnable job = () -> {
+          int result = check(address, conditions);
+          if (! cancelled) {
+            outcomes.add(new Outcome(notesForLink, result));
+          }
+          finished(remaining, pool);
+        };
+        enqueue(pool, getHost(address), job);
+      }
+    }
+    publisher.play();
+  }
+
+  /**
+   Stop checking links. Checks already under way are abandoned, but the
+   results gathered so far are saved. Must be called on the FX thread.
+  */
+  public void cancel() {
+    cancelled = true;
+    if (publisher != null) {
+      publisher.stop();
+      publisher = null;
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+      if (cache != null) {
+        cache.save();
+      }
+    }
+  }
+
+  /**
+   Pass the results gathered since the last report to the listener, and
+   stop reporting once every link has been checked. Runs on the FX thread.
+  */
+  private void publish(
+      ConcurrentLinkedQueue<Outcome> outcomes,
+      AtomicInteger remaining,
+      LinkListener listener) {
+
+    if (cancelled) {
+      return;
+    }
+    boolean allChecked = (remaining.get() == 0);
+    int checked = 0;
+    ArrayList<Note> invalid = new ArrayList<Note>();
+    Outcome outcome = outcomes.poll();
+    while (outcome != null) {
+      checked = checked + outcome.notes.size();
+      if (outcome.result == INVALID) {
+        invalid.addAll(outcome.notes);
+      }
+      outcome = outcomes.poll();
+    }
+    if (checked > 0) {
+      listener.linksChecked(checked, invalid);
+    }
+    if (allChecked) {
+      publisher.stop();
+      publisher = null;
+      listener.validationComplete();
+    }
+  }
+
+  /**
+   Note that one more link has been checked. Once they all have been, save
+   the cache and let the pool's threads go.
+  */
+  private void finished(AtomicInteger remaining, ExecutorService pool) {
+    if (remaining.decrementAndGet() == 0) {
+      if (cache != null) {
+        cache.save();
+      }
+      pool.shutdown();
+    }
+  }
+
+  /**
+   Check a single link. May be called on any thread.
+
+   @param address The link to be checked.
+
+   @return VALID, INVALID or UNKNOWN.
+  */
+  public int check(String address) {
+    LinkCache.Entry cached = null;
+    if (cache != null) {
+      cached = cache.get(address);
+    }
+    return check(address, cached);
+  }
+
+  /**
+   Check a single link, using the results of the last check, if any, to
+   make a conditional request.
+  */
+  private int check(String address, LinkCache.Entry cached) {
+    URL url;
+    try {
+      url = new URL(address);
+    } catch (MalformedURLException e) {
+      return INVALID;
+    }
+    String protocol = url.getProtocol().toLowerCase();
+    if (protocol.equals("file")) {
+      try {
+        return new File(url.toURI()).exists() ? VALID : INVALID;
+      } catch (URISyntaxException | IllegalArgumentException e) {
+        return new File(url.getPath()).exists() ? VALID : INVALID;
+      }
+    } else if (protocol.equals("http") || protocol.equals("https")) {
+      return checkWebLink(address, url, cached);
+    } else {
+      // Nothing we can check, such as a mailto link
+      return VALID;
+    }
+  }
+
+  /**
+   Check a web link, following any redirects, and record the result in the
+   cache, if we have one.
+  */
+  private int checkWebLink(String address, URL url, LinkCache.Entry cached) {
+    int result = INVALID;
+    String etag = null;
+    String lastModified = null;
+    boolean decided = false;
+    for (int redirects = 0;
+        redirects <= MAX_REDIRECTS && (! decided);
+        redirects++) {
+      if (cancelled) {
+        return UNKNOWN;
+      }
+      // Validators from the cache only apply to the original link
+      LinkCache.Entry conditions = null;
+      if (redirects == 0) {
+        conditions = cached;
+      }
+      Response response = request(url, "HEAD", conditions);
+      if (response.code == NO_RESPONSE
+          || response.code == HttpURLConnection.HTTP_BAD_REQUEST
+          || response.code == HttpURLConnection.HTTP_FORBIDDEN
+          || response.code == HttpURLConnection.HTTP_BAD_METHOD
+          || response.code == HttpURLConnection.HTTP_NOT_IMPLEMENTED) {
+        response = request(url, "GET", conditions);
+      }
+      if (redirects == 0) {
+        etag = response.etag;
+        lastModified = response.lastModified;
+      }
+      decided = true;
+      if (response.code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        result = VALID;
+        if (etag == null && cached != null) {
+          etag = cached.etag;
+        }
+        if (lastModified == null && cached != null) {
+          lastModified = cached.lastModified;
+        }
+      } else if (response.code >= 200 && response.code < 300) {
+        result = VALID;
+      } else if (response.code >= 300 && response.code < 400) {
+        if (response.location == null) {
+          result = VALID;
+        } else {
+          try {
+            url = new URL(url, response.location);
+            decided = false;
+          } catch (MalformedURLException e) {
+            result = INVALID;
+          }
+        }
+      } else if (response.code == 429
+          || response.code == HttpURLConnection.HTTP_UNAVAILABLE) {
+        result = UNKNOWN;
+      } else {
+        result = INVALID;
+      }
+    }
+    if (cache != null && result != UNKNOWN && (! cancelled)) {
+      cache.put(address, result, etag, lastModified);
+    }
+    return result;
+  }
+
+  /**
+   Send a single request, without following redirects.
+
+   @param url        The link to be requested.
+   @param method     HEAD or GET.
+   @param conditions The results of the last check, used to make the request
+                     conditional, or null.
+
+   @return The response, with a code of NO_RESPONSE if the request failed,
+           or UNREACHABLE if the host could not be found or did not answer
+           in time, in which case there is no point in trying again.
+  */
+  private Response request(URL url, String method, LinkCache.Entry conditions) {
+    Response response = new Response();
+    HttpURLConnection connection = null;
+    try {
+      connection = (HttpURLConnection)url.openConnection();
+      connection.setRequestMethod(method);
+      connection.setInstanceFollowRedirects(false);
+      connection.setConnectTimeout(connectTimeout);
+      connection.setReadTimeout(readTimeout);
+      connection.setRequestProperty("User-Agent", USER_AGENT);
+      if (conditions != null && conditions.result == VALID) {
+        if (conditions.etag.length() > 0) {
+          connection.setRequestProperty("If-None-Match", conditions.etag);
+        }
+        if (conditions.lastModified.length() > 0) {
+          connection.setRequestProperty("If-Modified-Since",
+              conditions.lastModified);
+        }
+      }
+      response.code = connection.getResponseCode();
+      response.location = connection.getHeaderField("Location");
+      response.etag = connection.getHeaderField("ETag");
+      response.lastModified = connection.getHeaderField("Last-Modified");
+      InputStream in;
+      if (response.code >= 400) {
+        in = connection.getErrorStream();
+      } else {
+        in = connection.getInputStream();
+      }
+      if (in != null && (! drain(in))) {
+        connection.disconnect();
+      }
+    } catch (UnknownHostException | SocketTimeoutException e) {
+      response.code = UNREACHABLE;
+      if (connection != null) {
+        connection.disconnect();
+      }
+    } catch (IOException e) {
+      response.code = NO_RESPONSE;
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+    return response;
+  }
+
+  /**
+   Read and discard a response body, so that its connection can be kept
+   alive for the next request to the same host.
+
+   @return True if the body was completely read; false if it was too long.
+  */
+  private boolean drain(InputStream in) throws IOException {
+    byte[] buffer = new byte[8192];
+    int total = 0;
+    try {
+      int count = in.read(buffer);
+      while (count >= 0) {
+        total = total + count;
+        if (total > DRAIN_LIMIT) {
+          return false;
+        }
+        count = in.read(buffer);
+      }
+      return true;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   Start a job now if its host has a free slot, or queue it until one of
+   the host's earlier jobs is finished.
+  */
+  private void enqueue(ExecutorService pool, String host, Runnable job) {
+    HostQueue queue;
+    boolean startNow = false;
+    synchronized (hosts) {
+      queue = hosts.get(host);
+      if (queue == null) {
+        queue = new HostQueue();
+        hosts.put(host, queue);
+      }
+      if (queue.active < maxPerHost) {
+        queue.active++;
+        startNow = true;
+      } else {
+        queue.waiting.add(job);
+      }
+    }
+    if (startNow) {
+      submit(pool, queue, job);
+    }
+  }
+
+  /**
+   Run a job on the pool, then start the next job waiting for the same
+   host, if any.
+  */
+  private void submit(ExecutorService pool, HostQueue queue, Runnable job) {
+    try {
+      pool.submit(() -> {
+        try {
+          job.run();
+        } finally {
+          Runnable next;
+          synchronized (hosts) {
+            next = queue.waiting.poll();
+            if (next == null) {
+              queue.active--;
+            }
+          }
+          if (next != null && (! cancelled)) {
+            submit(pool, queue, next);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // The validation has been cancelled
+    }
+  }
+
+  private static String getHost(String address) {
+    try {
+      String host = new URL(address).getHost();
+      if (host != null) {
+        return host.toLowerCase();
+      }
+    } catch (MalformedURLException e) {
+      // Fall through
+    }
+    return "";
+  }
+
+  /**
+   The links waiting to be checked on one host.
+  */
+  private static class HostQueue {
+    int                   active = 0;
+    ArrayDeque<Runnable>  waiting = new ArrayDeque<Runnable>();
+  }
+
+  /**
+   The result of checking one link, for all the notes sharing it.
+  */
+  private static class Outcome {
+
+    List<Note>            notes;
+    int                   result;
+
+    Outcome(List<Note> notes, int result) {
+      this.notes = notes;
+      this.result = result;
+    }
+  }
+
+  /**
+   The parts of a response we care about.
+  */
+  private static class Response {
+    int                   code = NO_RESPONSE;
+    String                location = null;
+    String                etag = null;
+    String                lastModified = null;
+  }
+
+}
@@ -235,6 +235,7 @@ public class ListWrangler
     } else {
       File listFolder = new File(listsFolder, selectedList);
       notenik.preImport();
+      NoteBulkLoader loader = new NoteBulkLoader(model);
       NoteIO listIO = new NoteIO (
           listFolder,
           NoteParms.DEFINED_TYPE,
@@ -295,7 +296,7 @@ public class ListWrangler
               listNote.setTags(newTags);
             }
 
-            model.add(listNote);
+            loader.stage(listNote);
 
           } catch (IOException e) {
             PSOptionPane.showMessageDialog(addListStage,
@@ -305,7 +306,7 @@ public class ListWrangler
           }
         } // end if this looks like a note
       } // end for each file in the folder
-      notenik.postImport();
+      notenik.postImport(loader);
     } // End if we have a selected list
     setVisible(false);
   }
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.files.*;
+  import com.powersurgepub.psutils2.logging.*;
+  import com.powersurgepub.psutils2.textmerge.*;
+
+  import java.io.*;
+  import java.nio.file.*;
+  import java.nio.file.attribute.*;
+  import java.text.*;
+  import java.util.*;
+  import java.util.concurrent.*;
+
+/**
+ Finds the applications within a folder and its sub-folders: Mac app
+ bundles, along with Java jar files. The folders are walked on the calling
+ thread, without descending into the app bundles found, into hidden or
+ unreadable folders, or through symbolic links; meanwhile the Info.plist
+ for each app is read on a small pool of threads. The results are returned
+ in the order in which the apps were found.
+
+ Nothing here depends on running on a Mac, or on the user interface, so
+ the crawler can be pointed at any folder containing .app bundles.
+ */
+public class MacAppCrawler {
+
+  public static final String  JAR_EXT = ".jar";
+
+  /** Most threads to be used to read app info. */
+  public static final int     MAX_THREADS = 4;
+
+  /**
+   What was found out about one application.
+  */
+  public static class AppInfo {
+
+    private     File        file;
+    private     boolean     macApp;
+    private     String      appName = "";
+    private     String      fileLink = "";
+    private     String      tags = "";
+    private     String      lastModDate = "";
+    private     String      version = "";
+    private     String      minSysVersion = "";
+    private     String      copyright = "";
+
+    public File getFile() {
+      return file;
+    }
+
+    /**
+     Is this a Mac app bundle, rather than a jar file?
+
+     @return True for a Mac app.
+    */
+    public boolean isMacApp() {
+      return macApp;
+    }
+
+    public String getAppName() {
+      return appName;
+    }
+
+    public String getFileLink() {
+      return fileLink;
+    }
+
+    public String getTags() {
+      return tags;
+    }
+
+    public String getLastModDate() {
+      return lastModDate;
+    }
+
+    public String getVersion() {
+      return version;
+    }
+
+    public String getMinSysVersion() {
+      return minSysVersion;
+    }
+
+    public String getCopyright() {
+      return copyright;
+    }
+  }
+
+  private     TextMergeInputMacApps macApps = new TextMergeInputMacApps();
+  private     DateFormat          dateFormatter
+      = new SimpleDateFormat ("yyyy-MM-dd");
+
+  public MacAppCrawler() {
+
+  }
+
+  /**
+   Find the applications within a folder.
+
+   @param top The folder to be searched, along with its sub-folders.
+
+   @return The applications found, in the order found.
+
+   @throws IOException          If the folder could not be walked.
+   @throws InterruptedException If the calling thread was interrupted,
+                                usually because its task was cancelled.
+  */
+  public List<AppInfo> crawl(File top)
+      throws IOException, InterruptedException {
+
+    Path start = top.toPath();
+    ArrayList<Future<AppInfo>> found = new ArrayList<Future<AppInfo>>();
+    int workers = Math.max(1,
+        Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    ExecutorService executor = Executors.newFixedThreadPool(workers, r -> {
+      Thread thread = new Thread(r, "Mac app info");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    try {
+      Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+
+        @Override
+        public FileVisitResult preVisitDirectory(
+            Path dir, BasicFileAttributes attrs) throws IOException {
+          if (Thread.currentThread().isInterrupted()) {
+            return FileVisitResult.TERMINATE;
+          }
+          if (dir.equals(start)) {
+            return FileVisitResult.CONTINUE;
+          }
+          File folder = dir.toFile();
+          if (macApps.isInterestedIn(folder)) {
+            found.add(executor.submit(() -> readApp(folder)));
+            return FileVisitResult.SKIP_SUBTREE;
+          }
+          if (Files.isHidden(dir) || (! Files.isReadable(dir))) {
+            return FileVisitResult.SKIP_SUBTREE;
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(
+            Path path, BasicFileAttributes attrs) {
+          File file = path.toFile();
+          if (macApps.isInterestedIn(file)) {
+            found.add(executor.submit(() -> readApp(file)));
+          }
+          else
+          if (file.getName().endsWith(JAR_EXT)) {
+            found.add(CompletableFuture.completedFuture(
+                readJar(file, attrs.lastModifiedTime().toMillis())));
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path path, IOException e) {
+          return FileVisitResult.CONTINUE;
+        }
+      });
+
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedException();
+      }
+
+      ArrayList<AppInfo> apps = new ArrayList<AppInfo>(found.size());
+      for (Future<AppInfo> future : found) {
+        try {
+          apps.add(future.get());
+        } catch (ExecutionException e) {
+          Logger.getShared().recordEvent(LogEvent.MINOR,
+              "Unable to read app info: " + e.getCause().toString(),
+              false);
+        }
+      }
+      return apps;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   Read the Info.plist for a Mac app.
+  */
+  private AppInfo readApp(File file) {
+    TextMergeMacAppReader appReader = new TextMergeMacAppReader(file);
+    appReader.retrieveMacAppInfo();
+    AppInfo app = new AppInfo();
+    app.file = file;
+    app.macApp = true;
+    app.appName = appReader.getAppName();
+    app.fileLink = appReader.getFileLink();
+    app.tags = appReader.getTags();
+    app.lastModDate = appReader.getLastModDate();
+    app.version = appReader.getVersion();
+    app.minSysVersion = appReader.getMinSysVersion();
+    app.copyright = appReader.getCopyright();
+    return app;
+  }
+
+  /**
+   Describe a jar file, from its name and date.
+  */
+  private AppInfo readJar(File file, long lastModified) {
+    FileName fileName = new FileName(file);
+    AppInfo app = new AppInfo();
+    app.file = file;
+    app.macApp = false;
+    app.appName = fileName.getBase();
+    app.fileLink = fileName.getURLString();
+    app.lastModDate = dateFormatter.format (new Date (lastModified));
+    return app;
+  }
+
+}
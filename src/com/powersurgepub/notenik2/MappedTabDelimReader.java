@@ -0,0 +1,324 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.notenik.*;
+  import com.powersurgepub.psutils2.records.*;
+
+  import java.io.*;
+  import java.nio.*;
+  import java.nio.channels.*;
+  import java.nio.charset.*;
+  import java.nio.file.*;
+  import java.util.*;
+  import java.util.concurrent.*;
+  import java.util.function.*;
+
+/**
+ Reads notes from a large tab-delimited file. The file is split into chunks
+ that end on line boundaries, each chunk is memory-mapped and parsed on a
+ pool of threads, and the resulting notes are handed on in the order in
+ which they appear in the file. The first line holds the column names,
+ which are matched to field names just once.
+
+ The file is taken to be UTF-8. A field wholly enclosed in double quotes
+ has the quotes removed, and any doubled quotes within it reduced to one.
+ A quoted field may contain tabs, but may not span lines.
+ */
+public class MappedTabDelimReader {
+
+  /** Approximate size of each chunk of the file, in bytes. */
+  public static final int     CHUNK_SIZE = 8 * 1024 * 1024;
+
+  /** Most chunks each thread may parse ahead of the consumer. */
+  public static final int     CHUNKS_AHEAD_PER_THREAD = 2;
+
+  private static final byte   LINE_FEED = '\n';
+
+  private     File                file;
+  private     RecordDefinition    recDef;
+
+  /** The field name for each column, or null for a blank column name. */
+  private     String[]            fieldNames = new String[0];
+
+  private     int                 read = 0;
+
+  /**
+   Prepare to read a file.
+
+   @param file   The tab-delimited file to be read.
+   @param recDef The record definition for the notes to be created.
+  */
+  public MappedTabDelimReader(File file, RecordDefinition recDef) {
+    this.file = file;
+    this.recDef = recDef;
+  }
+
+  /**
+   Read the file, passing each note with a title to the consumer, in the
+   order the notes appear in the file. The consumer is only ever called
+   from the calling thread.
+
+   @param notes The consumer to be given each note.
+
+   @return The number of notes passed to the consumer.
+
+   @throws IOException          If the file could not be read.
+   @throws InterruptedException If the calling thread was interrupted.
+  */
+  public int read(Consumer<Note> notes)
+      throws IOException, InterruptedException {
+
+    read = 0;
+    FileChannel channel = FileChannel.open(file.toPath(),
+        StandardOpenOption.READ);
+    ExecutorService executor = null;
+    try {
+      long size = channel.size();
+      long start = readHeader(channel, size);
+      if (start >= size) {
+        return 0;
+      }
+
+      int workers = (int)Math.max(1, Math.min(
+          Runtime.getRuntime().availableProcessors(),
+          size / CHUNK_SIZE));
+      executor = Executors.newFixedThreadPool(workers, r -> {
+        Thread thread = new Thread(r, "Tab-delimited import");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+      ArrayDeque<Future<List<Note>>> pending
+          = new ArrayDeque<Future<List<Note>>>();
+      while (start < size || (! pending.isEmpty())) {
+        while (start < size
+            && pending.size() < workers * CHUNKS_AHEAD_PER_THREAD) {
+          long end = findLineEnd(channel, start + CHUNK_SIZE, size);
+          MappedByteBuffer chunk = channel.map(
+              FileChannel.MapMode.READ_ONLY, start, end - start);
+          pending.add(executor.submit(() -> parseChunk(chunk)));
+          start = end;
+        }
+        try {
+          for (Note note : pending.remove().get()) {
+            notes.accept(note);
+            read++;
+          }
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof IOException) {
+            throw (IOException)cause;
+          } else {
+            throw new IOException(cause);
+          }
+        }
+      }
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+      channel.close();
+    }
+    return read;
+  }
+
+  /**
+   Read the line of column names, and work out the field name for each.
+
+   @return The position of the first byte after the column names.
+  */
+  private long readHeader(FileChannel channel, long size) throws IOException {
+    long end = findLineEnd(channel, 0, size);
+    MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY,
+        0, end);
+    String line = StandardCharsets.UTF_8.decode(header).toString();
+    if (line.length() > 0 && line.charAt(0) == '\uFEFF') {
+      line = line.substring(1);
+    }
+    ArrayList<String> columns = new ArrayList<String>();
+    splitLine(trimLineEnd(line, 0, line.length()), columns);
+    fieldNames = new String[columns.size()];
+    for (int i = 0; i < columns.size(); i++) {
+      String column = columns.get(i).trim();
+      if (column.length() > 0) {
+        DataField field = new DataField(new DataFieldDefinition(column), "");
+        fieldNames[i] = field.getCommonFormOfName();
+      }
+    }
+
+    // Set each field once on this thread, so that any additions to the
+    // record definition are made before the chunks are parsed in parallel
+    Note primer = new Note(recDef);
+    for (String fieldName : fieldNames) {
+      if (fieldName != null) {
+        primer.setField(fieldName, fieldName);
+      }
+    }
+    return end;
+  }
+
+  /**
+   Find the end of the line containing the given position.
+
+   @return The position just after the next line feed at or after the
+           given position, or the size of the file if there is none.
+  */
+  private long findLineEnd(FileChannel channel, long position, long size)
+      throws IOException {
+    if (position >= size) {
+      return size;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(8192);
+    while (position < size) {
+      buffer.clear();
+      int bytesRead = channel.read(buffer, position);
+      if (bytesRead <= 0) {
+        return size;
+      }
+      for (int i = 0; i < bytesRead; i++) {
+        if (buffer.get(i) == LINE_FEED) {
+          return position + i + 1;
+        }
+      }
+      position = position + bytesRead;
+    }
+    return size;
+  }
+
+  /**
+   Parse the lines in one chunk of the file.
+
+   @return The notes with titles, in the order found.
+  */
+  private List<Note> parseChunk(MappedByteBuffer chunk) {
+    CharBuffer chars = StandardCharsets.UTF_8.decode(chunk);
+    String text = chars.toString();
+    ArrayList<Note> chunkNotes = new ArrayList<Note>();
+    ArrayList<String> values = new ArrayList<String>(fieldNames.length);
+    int lineStart = 0;
+    while (lineStart < text.length()) {
+      if (Thread.currentThread().isInterrupted()) {
+        break;
+      }
+      int lineEnd = text.indexOf('\n', lineStart);
+      if (lineEnd < 0) {
+        lineEnd = text.length();
+      }
+      String line = trimLineEnd(text, lineStart, lineEnd);
+      lineStart = lineEnd + 1;
+      if (line.length() == 0) {
+        continue;
+      }
+      values.clear();
+      splitLine(line, values);
+      Note note = new Note(recDef);
+      for (int i = 0; i < values.size() && i < fieldNames.length; i++) {
+        if (fieldNames[i] != null) {
+          note.setField(fieldNames[i], values.get(i));
+        }
+      }
+      if (note.hasTitle()) {
+        chunkNotes.add(note);
+      }
+    }
+    return chunkNotes;
+  }
+
+  /**
+   Return a line without any carriage return at its end.
+  */
+  private static String trimLineEnd(String text, int start, int end) {
+    while (end > start
+        && (text.charAt(end - 1) == '\r' || text.charAt(end - 1) == '\n')) {
+      end--;
+    }
+    return text.substring(start, end);
+  }
+
+  /**
+   Split a line on tabs, removing any enclosing quotes from each value. A
+   tab within a quoted value is part of the value, rather than the end of
+   it. A value that starts with a quote but doesn't end with one before the
+   next tab, or the end of the line, is taken just as it stands.
+  */
+  private static void splitLine(String line, List<String> values) {
+    StringBuilder quoted = new StringBuilder();
+    int start = 0;
+    while (true) {
+      int end = -1;
+      if (start < line.length() && line.charAt(start) == '"') {
+        end = readQuoted(line, start, quoted);
+      }
+      if (end >= 0) {
+        values.add(quoted.toString());
+      } else {
+        end = line.indexOf('\t', start);
+        if (end < 0) {
+          end = line.length();
+        }
+        values.add(line.substring(start, end));
+      }
+      if (end >= line.length()) {
+        break;
+      }
+      start = end + 1;
+    }
+  }
+
+  /**
+   Read a value enclosed in quotes, reducing any doubled quotes within it
+   to one.
+
+   @param line   The line containing the value.
+   @param start  The position of the opening quote.
+   @param quoted Where the value, without its quotes, is to be placed.
+
+   @return The position of the tab after the closing quote, or the length
+           of the line if the value ends the line; or -1 if the value is not
+           wholly enclosed in quotes.
+  */
+  private static int readQuoted(String line, int start, StringBuilder quoted) {
+    quoted.setLength(0);
+    int i = start + 1;
+    while (i < line.length()) {
+      char c = line.charAt(i);
+      if (c != '"') {
+        quoted.append(c);
+        i++;
+      } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+        quoted.append('"');
+        i = i + 2;
+      } else if (i + 1 == line.length() || line.charAt(i + 1) == '\t') {
+        return i + 1;
+      } else {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   Return the number of notes read so far.
+
+   @return The number of notes passed to the consumer.
+  */
+  public int getRead() {
+    return read;
+  }
+
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.notenik.*;
+  import com.powersurgepub.psutils2.tags.*;
+
+  import java.util.*;
+  import java.util.function.*;
+
+  import javafx.collections.*;
+  import javafx.concurrent.*;
+  import javafx.scene.control.*;
+
+/**
+ Applies a change to many notes at once. Unlike a loop that selects each
+ note in turn and then saves the selection, a batch leaves the selection
+ alone, saves only the notes actually changed, and detaches the list and
+ tree from their views until the batch is committed, so that the views
+ are redrawn once rather than once per note.
+
+ A typical use:
+
+ <pre>
+   NoteBatch batch = new NoteBatch(model, searchIndex, noteTable, noteTree);
+   int mods = batch.apply(NoteBatch.changingTags(note -> note.lowerCaseTags()));
+ </pre>
+
+ The caller is responsible for the opInProgress guard, and for selecting
+ and displaying a note once the batch is complete. Whatever note was
+ selected in the list and the tree when the batch began is selected again
+ when it is committed.
+
+ For a long batch, asTask instead returns a Task that can be handed to an
+ OperationRunner. The notes are copied on the FX thread, and the copies
+ then changed on a background thread and staged with a NoteBulkLoader,
+ which writes the changed notes in parallel. The collection itself is
+ left alone, so the caller should open it again once the task is done,
+ just as after an import, rebuilding its sorted list, tags tree and
+ search index once, from the notes then on disk.
+ */
+public class NoteBatch {
+
+  /** Number of notes changed at a time on the FX thread by a long operation. */
+  public static final int     CHUNK_SIZE = 50;
+
+  /**
+   A change to be made to a single note.
+  */
+  public interface NoteMutation {
+
+    /**
+     Make the change.
+
+     @param note The note to be changed.
+
+     @return True if the note was actually modified.
+    */
+    boolean apply(Note note);
+  }
+
+  private     NoteCollectionModel model;
+  private     NoteSearchIndex     searchIndex;
+  private     TableView<SortedNote> noteTable;
+  private     TreeView<TagsNodeValue> noteTree;
+
+  private     ObservableList<SortedNote> detachedItems = null;
+  private     ObservableList<SortedNote> placeholderItems = null;
+  private     TreeItem<TagsNodeValue> detachedRoot = null;
+  private     Note                selectedNote = null;
+  private     TreeItem<TagsNodeValue> selectedNode = null;
+  private     boolean             inProgress = false;
+  private     int                 modified = 0;
+
+  /**
+   Prepare a new batch.
+
+   @param model       The collection to be changed.
+   @param searchIndex The search index to be kept up to date.
+   @param noteTable   The table listing the notes. May be null.
+   @param noteTree    The tree of notes by tag. May be null.
+  */
+  public NoteBatch(
+      NoteCollectionModel model,
+      NoteSearchIndex searchIndex,
+      TableView<SortedNote> noteTable,
+      TreeView<TagsNodeValue> noteTree) {
+
+    this.model = model;
+    this.searchIndex = searchIndex;
+    this.noteTable = noteTable;
+    this.noteTree = noteTree;
+  }
+
+  /**
+   Apply a change to every note in the collection, and commit the batch.
+
+   @param mutation The change to be made.
+
+   @return The number of notes modified.
+  */
+  public int apply(NoteMutation mutation) {
+    ArrayList<Note> notes = new ArrayList<Note>(model.size());
+    for (int workIndex = 0; workIndex < model.size(); workIndex++) {
+      Note workNote = model.get(workIndex);
+      if (workNote != null) {
+        notes.add(workNote);
+      }
+    }
+    return apply(notes, mutation);
+  }
+
+  /**
+   Apply a change to the given notes, and commit the batch.
+
+   @param notes    The notes to be changed.
+   @param mutation The change to be made.
+
+   @return The number of notes modified.
+  */
+  public int apply(Collection<Note> notes, NoteMutation mutation) {
+    modified = 0;
+    begin();
+    try {
+      for (Note note : notes) {
+        modify(note, mutation);
+      }
+    } finally {
+      commit();
+    }
+    return modified;
+  }
+
+  /**
+   Prepare a task that will apply a change to copies of the given notes and
+   write the copies that were changed, in place of the originals. This must
+   be called on the FX thread, where the notes are copied; the task itself
+   must be run on a background thread. The notes in the collection are not
+   changed, so once the task is done the collection should be opened again,
+   to pick up the notes written. If the task is cancelled, the notes already
+   written are kept.
+
+   @param notes    The notes to be changed.
+   @param mutation The change to be made. It must leave each title as it
+                   was, since the changed copy replaces the note with the
+                   same title.
+
+   @return A task whose value is the number of notes written.
+  */
+  public Task<Integer> asTask(List<Note> notes, NoteMutation mutation) {
+    ArrayList<Note> copies = new ArrayList<Note>(notes.size());
+    for (Note note : notes) {
+      copies.add(new Note(note));
+    }
+    NoteBulkLoader loader = new NoteBulkLoader(model);
+    loader.setReader(l -> {
+      int read = 0;
+      for (Note copy : copies) {
+        if (l.isCancelled()) {
+          break;
+        }
+        if (mutation.apply(copy)) {
+          copy.setLastModDateToday();
+          l.stageModified(copy);
+        }
+        read++;
+      }
+      return read;
+    });
+    return loader;
+  }
+
+  /**
+   Start the batch, detaching the list and tree from their views.
+  */
+  public void begin() {
+    if (inProgress) {
+      return;
+    }
+    inProgress = true;
+    if (noteTable != null) {
+      SortedNote selected = noteTable.getSelectionModel().getSelectedItem();
+      if (selected != null) {
+        selectedNote = selected.getNote();
+      }
+      detachedItems = noteTable.getItems();
+      placeholderItems = FXCollections.observableArrayList();
+      noteTable.setItems(placeholderItems);
+    }
+    if (noteTree != null) {
+      selectedNode = noteTree.getSelectionModel().getSelectedItem();
+      detachedRoot = noteTree.getRoot();
+      noteTree.setRoot(null);
+    }
+  }
+
+  /**
+   Apply a change to one note within the batch, saving the note if it was
+   modified.
+
+   @param note     The note to be changed.
+   @param mutation The change to be made.
+
+   @return True if the note was modified.
+  */
+  public boolean modify(Note note, NoteMutation mutation) {
+    String priorTitle = note.getTitle();
+    String priorSortKey = note.getSortKey(model.getSortParm());
+    String priorTags = note.getTagsAsString();
+    boolean changed = mutation.apply(note);
+    if (changed) {
+      model.modify(note, priorTitle, priorSortKey, priorTags);
+      searchIndex.update(note);
+      modified++;
+    }
+    return changed;
+  }
+
+  /**
+   Remove one note from the collection within the batch.
+
+   @param note The note to be removed.
+
+   @return True if the note was removed.
+  */
+  public boolean remove(Note note) {
+    boolean removed = model.remove(note);
+    if (removed) {
+      searchIndex.remove(note);
+      modified++;
+    }
+    return removed;
+  }
+
+  /**
+   End the batch, reattaching the list and tree to their views and
+   restoring their selections. If the model has replaced either one in the
+   meantime, the replacement is kept.
+  */
+  public void commit() {
+    if (! inProgress) {
+      return;
+    }
+    if (noteTable != null && noteTable.getItems() == placeholderItems) {
+      noteTable.setItems(detachedItems);
+    }
+    if (noteTree != null && noteTree.getRoot() == null) {
+      noteTree.setRoot(detachedRoot);
+    }
+    restoreSelection();
+    detachedItems = null;
+    placeholderItems = null;
+    detachedRoot = null;
+    selectedNote = null;
+    selectedNode = null;
+    inProgress = false;
+  }
+
+  /**
+   Select once again whatever was selected when the batch began, if it is
+   still there.
+  */
+  private void restoreSelection() {
+    if (noteTable != null && selectedNote != null) {
+      SortedNote sortedNote = model.getSortedNote(selectedNote);
+      if (sortedNote != null) {
+        noteTable.getSelectionModel().select(sortedNote);
+        noteTable.scrollTo(sortedNote);
+      }
+    }
+    if (noteTree != null && selectedNode != null) {
+      int row = noteTree.getRow(selectedNode);
+      if (row >= 0) {
+        noteTree.getSelectionModel().select(selectedNode);
+        noteTree.scrollTo(row);
+      }
+    }
+  }
+
+  /**
+   Return the number of notes modified or removed by the batch.
+
+   @return The number of notes modified or removed.
+  */
+  public int getModified() {
+    return modified;
+  }
+
+  /**
+   Wrap a change to a note's tags, reporting a modification only if the
+   tags actually changed.
+
+   @param change The change to be made to the tags.
+
+   @return A mutation making the change.
+  */
+  public static NoteMutation changingTags(Consumer<Note> change) {
+    return note -> {
+      String priorTags = note.getTagsAsString();
+      change.accept(note);
+      return (! note.getTagsAsString().equals(priorTags));
+    };
+  }
+
+}
@@ -0,0 +1,466 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.logging.*;
+  import com.powersurgepub.psutils2.notenik.*;
+  import com.powersurgepub.psutils2.records.*;
+
+  import java.io.*;
+  import java.util.*;
+  import java.util.concurrent.*;
+  import java.util.concurrent.atomic.*;
+  import java.util.function.*;
+
+  import javafx.concurrent.*;
+
+/**
+ Loads a large number of imported notes into a collection at once. Adding
+ each note to the collection as it is read means sorting, tagging and
+ saving one note at a time; instead, notes are staged here as they are
+ read, and then, when the import is committed, written to the collection
+ folder on a small pool of threads, each with its own NoteIO. Once the
+ commit is complete the collection should be opened again, so that its
+ sorted list, tags tree and other views are built just once, from the
+ notes then on disk.
+
+ A note is only staged if it has a title, and if no note with the same
+ title is already in the collection, staged or on disk. Alternatively, the
+ loader can be asked to update existing notes: an imported note whose
+ title matches one already in the collection or staged earlier is merged
+ into it, but only if its fields differ, as judged by comparing digests,
+ so that a repeated import rewrites only the notes that have changed.
+
+ The notes in the collection are never changed by the loader: their titles
+ are indexed when the loader is created, on the FX thread, and an existing
+ note to be updated is copied, with the copy being changed and written in
+ its place. The reopened collection then picks up the new version. A
+ batch of changes to existing notes can be written the same way, with each
+ changed copy staged by stageModified.
+
+ As a Task, the loader first runs its reader, if it has one, to stage
+ the notes, and then commits them, returning the number written.
+ */
+public class NoteBulkLoader
+    extends Task<Integer> {
+
+  /** Most threads to be used to write notes. */
+  public static final int     MAX_THREADS = 4;
+
+  private     NoteCollectionModel model;
+  private     File                folder;
+
+  /** The collection's own record definition, changed only on the FX thread. */
+  private     RecordDefinition    liveRecDef;
+
+  /** A copy of the record definition, for the notes read by the loader. */
+  private     RecordDefinition    recDef;
+
+  /** Names of the fields known to be in the collection's record definition. */
+  private     HashSet<String>     registered = new HashSet<String>();
+
+  private     Function<NoteBulkLoader, Integer> reader = null;
+  private     int                 read = 0;
+  private     String              readTrouble = null;
+
+  private     ArrayList<Note>     staged = new ArrayList<Note>();
+  private     HashMap<String, Note> stagedTitles = new HashMap<String, Note>();
+
+  /** Titles of the notes in the collection matched by imported notes. */
+  private     HashSet<String>     matched = new HashSet<String>();
+
+  private     boolean             updateExisting = false;
+
+  /** The notes already in the collection, by lower-case title. */
+  private     HashMap<String, Note> existing;
+
+  private     int                 added = 0;
+  private     int                 updates = 0;
+  private     int                 skipped = 0;
+
+  private     AtomicInteger       written = new AtomicInteger();
+  private     AtomicInteger       failed = new AtomicInteger();
+
+  /**
+   Prepare to load notes into the given collection. This should be called
+   on the FX thread, before the loader is started.
+
+   @param model The open collection into which notes are to be loaded.
+  */
+  public NoteBulkLoader(NoteCollectionModel model) {
+    this.model = model;
+    folder = model.getFolder();
+    liveRecDef = model.getRecDef();
+    recDef = new RecordDefinition(liveRecDef);
+    existing = new HashMap<String, Note>(model.size() * 2);
+    for (int i = 0; i < model.size(); i++) {
+      Note note = model.get(i);
+      if (note != null && note.hasTitle()) {
+        existing.put(note.getTitle().toLowerCase(), note);
+      }
+    }
+  }
+
+  /**
+   Supply the means of reading the notes to be imported, to be run on the
+   background thread before the notes are written. 
+
+   @param reader A function that stages the notes it reads with this 
+                 loader, returning the number read, or -1 if there was 
+                 trouble reading them.
+  */
+  public void setReader(Function<NoteBulkLoader, Integer> reader) {
+    this.reader = reader;
+  }
+
+  /**
+   Return the result of running the reader.
+
+   @return The number of notes read, or -1 if there was trouble reading
+           them.
+  */
+  public int getRead() {
+    return read;
+  }
+
+  /**
+   Record trouble found by the reader, to be reported to the user once the
+   loader is done. May be called from the reader, on the background thread.
+
+   @param readTrouble A description of the trouble.
+  */
+  public void setReadTrouble(String readTrouble) {
+    this.readTrouble = readTrouble;
+  }
+
+  /**
+   Return any trouble found by the reader.
+
+   @return A description of the trouble, or null if there was none.
+  */
+  public String getReadTrouble() {
+    return readTrouble;
+  }
+
+  /**
+   Should imported notes update existing notes with the same titles,
+   rather than being skipped?
+
+   @param updateExisting True to update existing notes.
+  */
+  public void setUpdateExisting(boolean updateExisting) {
+    this.updateExisting = updateExisting;
+  }
+
+  /**
+   Return the record definition for the notes to be staged. This is a copy
+   of the collection's own, taken when the loader was created, so that
+   fields may be added to it on the background thread.
+
+   @return A copy of the record definition for the collection.
+  */
+  public RecordDefinition getRecDef() {
+    return recDef;
+  }
+
+  /**
+   Stage a note to be written when the import is committed.
+
+   @param note The imported note.
+
+   @return True if the note was staged, or merged into a note with the
+           same title; false if it was skipped for lack of a title, or
+           because a note with the same title is already in the
+           collection and existing notes are not being updated.
+  */
+  public boolean stage(Note note) {
+    if ((! note.hasTitle()) || note.getTitle().length() == 0) {
+      skipped++;
+      return false;
+    }
+    String key = note.getTitle().toLowerCase();
+    Note match = stagedTitles.get(key);
+    boolean alreadyStaged = (match != null);
+    if (match == null) {
+      match = existing.get(key);
+    }
+    if (match != null && updateExisting) {
+      merge(note, key, match, alreadyStaged);
+      return true;
+    }
+    if (match != null
+        || new File(folder, note.getFileName()).exists()) {
+      skipped++;
+      return false;
+    }
+    staged.add(note);
+    stagedTitles.put(key, note);
+    added++;
+    return true;
+  }
+
+  /**
+   Stage a changed copy of a note already in the collection, to be written
+   in place of the original when the loader is committed. Used to apply a
+   batch of changes to many notes at once, rather than to import them.
+
+   @param note A copy of a note in the collection, already changed. Its
+               title must be the same as the original's.
+
+   @return True if the note was staged; false if it was not found in the
+           collection, or had already been staged.
+  */
+  public boolean stageModified(Note note) {
+    String key = note.getTitle().toLowerCase();
+    if ((! existing.containsKey(key)) || matched.contains(key)) {
+      skipped++;
+      return false;
+    }
+    matched.add(key);
+    staged.add(note);
+    stagedTitles.put(key, note);
+    updates++;
+    return true;
+  }
+
+  /**
+   Merge an imported note into the matching note, if their fields differ.
+   A note already in the collection is left as it is, and a copy of it
+   changed and staged instead. Each note is counted just once: a note
+   staged as new by this import remains added, however many imported notes
+   are merged into it, and a note in the collection is counted as updated
+   if any imported note changed it, or otherwise as unchanged.
+
+   @param note          The imported note, which is not itself changed.
+   @param key           The lower-case title of the note.
+   @param match         The note with the same title.
+   @param alreadyStaged Was the matching note staged by this import?
+  */
+  private void merge(Note note, String key, Note match, boolean alreadyStaged) {
+    if (! alreadyStaged) {
+      matched.add(key);
+    }
+    Note imported = new Note(note);
+    imported.setTitle(match.getTitle());
+    if (NoteDigest.of(match, imported).equals(NoteDigest.of(imported))) {
+      return;
+    }
+    if (! alreadyStaged) {
+      match = new Note(match);
+      match.setLastModDateToday();
+      staged.add(match);
+      stagedTitles.put(key, match);
+      updates++;
+    }
+    // A copy of an existing note shares the collection's record definition
+    if (! register(imported)) {
+      return;
+    }
+    for (int i = 0; i < imported.getNumberOfFields(); i++) {
+      DataField field = imported.getField(i);
+      if (field != null
+          && field.hasData()
+          && (! field.getCommonFormOfName().equalsIgnoreCase(
+              NoteParms.TITLE_FIELD_NAME))) {
+        match.setField(field.getCommonFormOfName(), field.getData());
+      }
+    }
+  }
+
+  /**
+   Make sure that each of the fields with data in an imported note is in
+   the collection's record definition, adding any that are missing on the
+   FX thread, so that merging the note into a copy of an existing one
+   doesn't change the definition while the FX thread may be reading it.
+
+   @param note The imported note.
+
+   @return True if the fields are all registered; false if the loader was
+           interrupted while waiting for the FX thread.
+  */
+  private boolean register(Note note) {
+    ArrayList<String> unregistered = new ArrayList<String>();
+    for (int i = 0; i < note.getNumberOfFields(); i++) {
+      DataField field = note.getField(i);
+      if (field != null
+          && field.hasData()
+          && registered.add(field.getCommonFormOfName())) {
+        unregistered.add(field.getCommonFormOfName());
+      }
+    }
+    if (unregistered.isEmpty()) {
+      return true;
+    }
+    try {
+      OperationRunner.runAndWait(() -> {
+        Note primer = new Note(liveRecDef);
+        for (String fieldName : unregistered) {
+          if (! liveRecDef.contains(fieldName)) {
+            primer.setField(fieldName, fieldName);
+          }
+        }
+      });
+      return true;
+    } catch (InterruptedException e) {
+      // The import has been cancelled, so the merged note won't be written
+      registered.removeAll(unregistered);
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   Find the note with the given title, either staged earlier in this
+   import or already in the collection.
+
+   @param title The title of the note.
+
+   @return The matching note, or null if there is none.
+  */
+  public Note find(String title) {
+    Note match = stagedTitles.get(title.toLowerCase());
+    if (match == null) {
+      match = existing.get(title.toLowerCase());
+    }
+    return match;
+  }
+
+  /**
+   Return the number of notes staged so far.
+
+   @return The number of notes staged.
+  */
+  public int size() {
+    return staged.size();
+  }
+
+  /**
+   Return the number of new notes staged.
+
+   @return The number of notes to be added to the collection.
+  */
+  public int getAdded() {
+    return added;
+  }
+
+  /**
+   Return the number of notes in the collection updated by imported notes.
+
+   @return The number of existing notes changed by the import.
+  */
+  public int getUpdated() {
+    return updates;
+  }
+
+  /**
+   Return the number of notes in the collection matched by imported notes
+   without being changed by them.
+
+   @return The number of existing notes the import made no difference to.
+  */
+  public int getUnchanged() {
+    return matched.size() - updates;
+  }
+
+  /**
+   Return the number of notes skipped when staged.
+
+   @return The number of notes without titles, or with titles already in
+           use.
+  */
+  public int getSkipped() {
+    return skipped;
+  }
+
+  /**
+   Return the number of notes that could not be written.
+
+   @return The number of notes that failed to be written.
+  */
+  public int getFailed() {
+    return failed.get();
+  }
+
+  /**
+   Read the notes, if there is a reader, then write the staged notes to the
+   collection folder. Notes staged before any trouble reading are still
+   written.
+  */
+  @Override
+  protected Integer call() throws Exception {
+
+    if (reader != null) {
+      updateMessage("Reading Notes to be imported...");
+      read = reader.apply(this);
+    }
+    if (isCancelled()) {
+      return 0;
+    }
+
+    updateMessage("Writing imported Notes...");
+    updateProgress(0, staged.size());
+    if (staged.isEmpty()) {
+      return 0;
+    }
+
+    int workers = Math.max(1, Math.min(staged.size(),
+        Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors())));
+    ExecutorService executor = Executors.newFixedThreadPool(workers, r -> {
+      Thread thread = new Thread(r, "Bulk import");
+      thread.setDaemon(true);
+      return thread;
+    });
+    ThreadLocal<NoteIO> noteIO = ThreadLocal.withInitial(() ->
+        new NoteIO(folder, NoteParms.DEFINED_TYPE,
+            new RecordDefinition(recDef)));
+
+    for (Note note : staged) {
+      executor.submit(() -> {
+        if (isCancelled()) {
+          return;
+        }
+        try {
+          noteIO.get().save(folder, note, false);
+          written.incrementAndGet();
+        } catch (IOException e) {
+          failed.incrementAndGet();
+          Logger.getShared().recordEvent(LogEvent.MEDIUM,
+              "I/O Error while attempting to save imported Note "
+                + note.getTitle(),
+              false);
+        }
+      });
+    }
+    executor.shutdown();
+
+    try {
+      while (! executor.awaitTermination(NoteSearchTask.PUBLISH_INTERVAL,
+          TimeUnit.MILLISECONDS)) {
+        if (isCancelled()) {
+          break;
+        }
+        updateProgress(written.get() + failed.get(), staged.size());
+      }
+    } finally {
+      // Don't let the collection be reopened while notes are being saved
+      OperationRunner.stopAndWait(executor);
+    }
+    updateProgress(written.get() + failed.get(), staged.size());
+    return written.get();
+  }
+
+}
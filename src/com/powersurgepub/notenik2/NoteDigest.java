@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.notenik.*;
+  import com.powersurgepub.psutils2.records.*;
+
+  import java.nio.charset.*;
+  import java.security.*;
+  import java.util.*;
+
+/**
+ Digests of the contents of notes, used to tell whether a note has changed
+ without comparing it field by field with another copy.
+ */
+public class NoteDigest {
+
+  private NoteDigest() {
+  }
+
+  /**
+   Return a digest of the contents of a note, taken from the names and
+   values of all its fields with data.
+
+   @param note The note.
+
+   @return The digest, as a string.
+  */
+  public static String of(Note note) {
+    return of(note, note);
+  }
+
+  /**
+   Return a digest of the values of some of a note's fields: those that
+   have data in another note. Two notes give the same digest if they
+   agree on each of those fields.
+
+   @param note   The note whose values are to be digested.
+   @param fields The note whose fields with data are to be included.
+
+   @return The digest, as a string.
+  */
+  public static String of(Note note, Note fields) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    for (int i = 0; i < fields.getNumberOfFields(); i++) {
+      DataField field = fields.getField(i);
+      if (field != null && field.hasData()) {
+        String name = field.getCommonFormOfName();
+        digest.update(name.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte)0);
+        String value = field.getData();
+        if (fields != note) {
+          value = note.getFieldData(name);
+        }
+        if (value != null) {
+          digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte)0);
+      }
+    }
+    return Base64.getEncoder().encodeToString(digest.digest());
+  }
+
+}
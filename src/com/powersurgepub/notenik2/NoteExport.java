@@ -34,6 +34,7 @@ package com.powersurgepub.notenik2;
 
   import java.io.*;
   import java.util.*;
+  import java.util.concurrent.*;
 
   import com.powersurgepub.psutils2.values.*;
   import javafx.scene.control.*;
@@ -52,7 +53,8 @@ public class NoteExport {
     "Tab-Delimited - MS links",
     "XML",
     "OPML",
-    "HTML Tags Outline"};
+    "HTML Tags Outline",
+    "Notenik - Incremental"};
   
   public static final int NOTENIK_EXPORT = 0;
   public static final int TABDELIM_EXPORT = 1;
@@ -60,14 +62,24 @@ public class NoteExport {
   public static final int XML_EXPORT = 3;
   public static final int OPML_EXPORT = 4;
   public static final int HTML_TAGS_OUTLINE = 5;
+  public static final int NOTENIK_INCREMENTAL_EXPORT = 6;
   
   public static final String NOTENIK = "notenik";
   public static final String NOTE    = "note";
   
-  private             MdToHTML    mdToHTML = MdToHTML.getShared();
+  /** Fewest notes worth handing to each additional export thread. */
+  public static final int   EXPORT_NOTES_PER_THREAD = 64;
+  
+  /** Most notes each export thread may prepare ahead of the writer. */
+  public static final int   EXPORT_AHEAD_PER_THREAD = 16;
+  
+  private             RenderCache mdToHTML = RenderCache.getShared();
   
   private             Notenik notenikApp;
   
+  /** Index of the notes carrying each tag in the open collection. */
+  private             TagIndex    tagIndex = null;
+  
   private             FavoritesPrefs favoritesPrefs = null;
   private             String      favoritesHome = "";
 
@@ -115,11 +127,26 @@ public class NoteExport {
   private     int                 columnCount = 0;
   
   private     StringConverter     xmlConverter = StringConverter.getXML();
+  
+  // Counts from the last incremental export
+  private     int                 written = 0;
+  private     int                 unchanged = 0;
+  private     int                 deleted = 0;
 
   public NoteExport (Notenik notenikApp) {
     this.notenikApp = notenikApp;
   }
   
+  /**
+   Supply an index of tags to be used to skip the notes that can't be
+   selected by tag. 
+  
+   @param tagIndex The index of tags for the open collection. 
+  */
+  public void setTagIndex(TagIndex tagIndex) {
+    this.tagIndex = tagIndex;
+  }
+  
   public boolean bodyToHTMLClipboard (Note note) {
     String html = mdToHTML.markdownToHtml(note.getBody());
     TextLineReader in  = new StringLineReader(html);
@@ -135,15 +162,47 @@ public class NoteExport {
   }
   
   /**
-   Export selected notes to some kind of output file.
+   Select the notes to be exported, using the tag index to skip the notes
+   that can't possibly be selected, and copy them, so that the export can 
+   run on a background thread while the collection goes on being used. 
+   This must be called on the FX thread. 
   
-   @param exportFile The output file or folder (depending on export type).
-   @param noteFile   The folder containing the current collection of notes. 
-   @param recDef     The record definition for the collection. 
-   @param model      The list of notes to be exported. 
-   @param exportType The type of export: 0 = Notenik, 1 = tab-delimited, 2 = XML.
+   @param model         The collection of notes to be exported. 
    @param selectTagsStr If non null and non-blank, then only notes with this tag
                         will be exported. 
+  
+   @return Copies of the notes to be exported, in the collection's order. 
+  */
+  public ArrayList<Note> selectForExport(
+      NoteCollectionModel model, 
+      String selectTagsStr) {
+    
+    Tags selectTags = new Tags(selectTagsStr);
+    ArrayList<Note> selected = new ArrayList<Note>();
+    Set<Note> candidates = null;
+    if (tagIndex != null) {
+      candidates = tagIndex.getCandidates(selectTags);
+    }
+    for (int workIndex = 0; workIndex < model.size(); workIndex++) {
+      Note workNote = model.get (workIndex);
+      if (workNote != null
+          && (tagIndex == null || tagIndex.isCandidate(workNote, candidates))
+          && workNote.getTags().anyTagFound(selectTags)) {
+        selected.add(new Note(workNote));
+      }
+    }
+    return selected;
+  }
+  
+  /**
+   Export selected notes to some kind of output file. Only the notes and 
+   the record definition passed in are used, so this may be run on a 
+   background thread, given copies taken on the FX thread. 
+  
+   @param exportFile The output file or folder (depending on export type).
+   @param recDef     A copy of the record definition for the collection. 
+   @param selected   The notes to be exported, as returned by selectForExport. 
+   @param exportType The type of export: 0 = Notenik, 1 = tab-delimited, 2 = XML.
    @param suppressTagsStr If non null and non-blank, then these modTags will be
                           suppressed from the output notes exported. 
   
@@ -152,24 +211,21 @@ public class NoteExport {
   */
   public int generalExport(
       File exportFile,
-      File noteFile,
       RecordDefinition recDef,
-      NoteCollectionModel model,
+      List<Note> selected,
       int exportType,
-      String selectTagsStr,
       String suppressTagsStr) {
 
     int exported = 0;
 
     NoteIO exportWriter = null;
+    ExportManifest manifest = null;
     TabDelimFile tabs = null;
-    MarkupWriter xmlWriter = null;
-    Note workNote;
+    NoteXMLWriter xmlWriter = null;
     RecordDefinition exportRecDef = new RecordDefinition(recDef);
     exportRecDef.copyDefs(recDef);
 
     // Retrieve modTags preferences
-    Tags selectTags = new Tags(selectTagsStr);
     Tags suppressTags = new Tags(suppressTagsStr);
 
     // Open the output and get things started
@@ -183,19 +239,25 @@ public class NoteExport {
         exportWriter = new NoteIO(exportFile, NoteParms.DEFINED_TYPE, recDef);
         break;
 
+      case NOTENIK_INCREMENTAL_EXPORT:
+
+        exportWriter = new NoteIO(exportFile, NoteParms.DEFINED_TYPE, recDef);
+        manifest = new ExportManifest(exportFile);
+        manifest.load();
+        written = 0;
+        unchanged = 0;
+        deleted = 0;
+        break;
+
       case XML_EXPORT:
 
-        xmlWriter = new MarkupWriter (exportFile, MarkupWriter.XML_FORMAT);
-        ok = xmlWriter.openForOutput();
-        if (ok) {
-          ok = xmlWriter.writeComment("Generated by Notenik "
+        xmlWriter = new NoteXMLWriter (exportFile);
+        try {
+          xmlWriter.open("Generated by Notenik "
               + notenikApp.PROGRAM_VERSION 
               + " available from PowerSurgePub.com");
-        } 
-        if (ok) {
-          xmlWriter.startXML(NOTENIK);
-        }
-        if (! ok) {
+        } catch (IOException e) {
+          ok = false;
           exported = -1;
         }
         break;
@@ -237,106 +299,126 @@ public class NoteExport {
         break;
     } // end switch for file open
 
-    // Write out the selected notes
-    if (ok) {
-      for (int workIndex = 0; workIndex < model.size(); workIndex++) {
-        workNote = model.get (workIndex);
-        if (workNote != null) {
-          boolean tagSelected = workNote.getTags().anyTagFound(selectTags);
-          if (tagSelected) {
-            Note exportNote = new Note(workNote);
-
-            Tags modTags = new Tags(exportNote.getTagsAsString());
-            if (suppressTagsStr != null
-                && suppressTagsStr.length() > 0) {
-              String cleansedTags = modTags.suppress(suppressTags);
-              exportNote.setTags(cleansedTags);
+    // Prepare the notes on a pool of threads, while writing them out in
+    // their original order on this one
+    ExportTransform transform = new ExportTransform(exportType, recDef, 
+        suppressTagsStr, suppressTags);
+    int workers = Math.max(1, Math.min(
+        Runtime.getRuntime().availableProcessors(), 
+        selected.size() / EXPORT_NOTES_PER_THREAD));
+    ExecutorService executor = null;
+    if (workers > 1) {
+      executor = Executors.newFixedThreadPool(workers, r -> {
+        Thread thread = new Thread(r, "Export");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    ArrayDeque<Future<ExportItem>> pending = new ArrayDeque<Future<ExportItem>>();
+    int next = 0;
+    try {
+      while (ok && (next < selected.size() || (! pending.isEmpty()))) {
+        ExportItem item;
+        if (executor == null) {
+          item = transform.prepare(selected.get(next));
+          next++;
+        } else {
+          while (next < selected.size() 
+              && pending.size() < workers * EXPORT_AHEAD_PER_THREAD) {
+            Note workNote = selected.get(next);
+            pending.add(executor.submit(() -> transform.prepare(workNote)));
+            next++;
+          }
+          item = pending.remove().get();
+        }
+        Note workNote = item.workNote;
+        Note exportNote = item.exportNote;
+        switch (exportType) {
+          case NOTENIK_EXPORT:
+            exportWriter.save (exportNote, false);
+            break;
+          case NOTENIK_INCREMENTAL_EXPORT:
+            String fileName = exportNote.getFileName();
+            if (manifest.isUnchanged(fileName, item.hash)) {
+              unchanged++;
+            } else {
+              exportWriter.save (exportNote, false);
+              written++;
             }
-
-            if (recDef.contains(NoteParms.DATE_ADDED_FIELD_NAME)) {
-              if (! exportNote.hasDateAdded()) {
-                exportNote.setDateAdded(StringDate.YMDHMS_FORMAT.format(exportNote.getLastModDate()));
-              }
+            manifest.exported(fileName, item.hash, 
+                exportNote.getLastModDate().getTime());
+            break;
+          case XML_EXPORT:
+            xmlWriter.write(workNote);
+            break;
+          case TABDELIM_EXPORT_MS_LINKS:
+            DataRecord msLinksRec = new DataRecord();
+            msLinksRec.addField(tabs.getRecDef(), 
+                workNote.getTitle() + "#" + workNote.getLinkAsString());
+            msLinksRec.addField(tabs.getRecDef(), 
+                workNote.getTagsAsString());
+            msLinksRec.addField(tabs.getRecDef(), 
+                workNote.getBody());
+            tabs.nextRecordOut(msLinksRec);
+            break;
+          case TABDELIM_EXPORT:
+          default:
+            DataRecord exportRec = new DataRecord();
+            exportRec.copyFields(exportRecDef, exportNote);
+            exportRec.storeField(exportRecDef, NoteParms.BODY_AS_HTML_FIELD_NAME, 
+                item.html);
+            // The author and work are parsed lazily by the notes, so they
+            // are worked out here, on this one thread
+            if (authorIncluded) {
+              exportRec.storeField(exportRecDef, NoteParms.AUTHOR_LAST_NAME_FIRST,
+                  exportNote.getAuthorLastNameFirst());
+              exportRec.storeField(exportRecDef, NoteParms.AUTHOR_FILE_NAME,
+                  exportNote.getAuthor().getFileName());
+              exportRec.storeField(exportRecDef, NoteParms.AUTHOR_WIKIMEDIA_PAGE,
+                  exportNote.getAuthor().getWikiMediaPage());
             }
-
-            try {
-              switch (exportType) {
-                case NOTENIK_EXPORT:
-                  exportWriter.save (exportNote, false);
-                  break;
-                case XML_EXPORT:
-                  xmlWriter.startXML(NOTE);
-                  for (int i = 0; i < workNote.getNumberOfFields() && ok; i++) {
-                    DataField nextField = workNote.getField(i);
-                    if (nextField != null
-                        && nextField.hasData()) {
-                      String name = nextField.getCommonFormOfName();
-                      String value = nextField.getData();
-                      if (value.length() > 80) {
-                        xmlWriter.writeXMLElementLong(name, value);
-                      } else {
-                        xmlWriter.writeXMLElement(name, value);
-                      }
-                    }
-                  }
-                  xmlWriter.endXML(NOTE);
-                  break;
-                case TABDELIM_EXPORT_MS_LINKS:
-                  DataRecord msLinksRec = new DataRecord();
-                  msLinksRec.addField(tabs.getRecDef(), 
-                      workNote.getTitle() + "#" + workNote.getLinkAsString());
-                  msLinksRec.addField(tabs.getRecDef(), 
-                      workNote.getTagsAsString());
-                  msLinksRec.addField(tabs.getRecDef(), 
-                      workNote.getBody());
-                  tabs.nextRecordOut(msLinksRec);
-                  break;
-                case TABDELIM_EXPORT:
-                default:
-                  DataRecord exportRec = new DataRecord();
-                  exportRec.copyFields(exportRecDef, exportNote);
-                  String md = workNote.getBody();
-                  String html = mdToHTML.markdownToHtml(md);
-                  exportRec.storeField(exportRecDef, NoteParms.BODY_AS_HTML_FIELD_NAME, html);
-                  if (authorIncluded) {
-                    exportRec.storeField(exportRecDef, NoteParms.AUTHOR_LAST_NAME_FIRST,
-                        exportNote.getAuthorLastNameFirst());
-                    exportRec.storeField(exportRecDef, NoteParms.AUTHOR_FILE_NAME,
-                        exportNote.getAuthor().getFileName());
-                    exportRec.storeField(exportRecDef, NoteParms.AUTHOR_WIKIMEDIA_PAGE,
-                        exportNote.getAuthor().getWikiMediaPage());
-                  }
-
-                  if (workIncluded) {
-                    Work work = workNote.getWork();
-                    String pages = exportNote.getFieldData(NoteParms.WORK_PAGE_NUMBERS);
-                    exportRec.storeField(exportRecDef, NoteParms.WORK_HTML_LINE, work.getHTMLLine(pages));
-                    exportRec.storeField(exportRecDef, NoteParms.WORK_RIGHTS_HTML_LINE, work.getRightsLine());
-                  }
-                  tabs.nextRecordOut(exportRec);
-                  break;
-              } // end switch for output routine
-              exported++;
-            } catch (IOException e) {
-              ok = false;
-              exported = -1;
+            if (workIncluded) {
+              Work work = workNote.getWork();
+              String pages = exportNote.getFieldData(NoteParms.WORK_PAGE_NUMBERS);
+              exportRec.storeField(exportRecDef, NoteParms.WORK_HTML_LINE, 
+                  work.getHTMLLine(pages));
+              exportRec.storeField(exportRecDef, NoteParms.WORK_RIGHTS_HTML_LINE, 
+                  work.getRightsLine());
             }
-          } // end if tag selection passed
-        } // end if we've got a good note
-      } // end for loop
-    } // end if ok so far
+            tabs.nextRecordOut(exportRec);
+            break;
+        } // end switch for output routine
+        exported++;
+      } // end while more notes to write
+    } catch (IOException e) {
+      ok = false;
+      exported = -1;
+    } catch (ExecutionException e) {
+      ok = false;
+      exported = -1;
+      log.recordEvent(LogEvent.MEDIUM, 
+          "Trouble preparing a Note for export: " + e.getCause().toString(), 
+          false);
+    } catch (InterruptedException e) {
+      ok = false;
+      exported = -1;
+      Thread.currentThread().interrupt();
+    } finally {
+      if (executor != null) {
+        OperationRunner.stopAndWait(executor);
+      }
+    }
 
     if (ok) {
       // Close things down and finish up
       try {
         switch (exportType) {
+          case NOTENIK_INCREMENTAL_EXPORT:
+            deleted = manifest.deleteNotExported();
+            manifest.save();
+            break;
           case XML_EXPORT:
-            if (ok) {
-              xmlWriter.endXML(NOTENIK);
-            }
-            if (ok) {
-              xmlWriter.close();
-            }
+            xmlWriter.close();
             break;
           case TABDELIM_EXPORT:
           case TABDELIM_EXPORT_MS_LINKS:
@@ -354,24 +436,196 @@ public class NoteExport {
     return exported;
   }
   
+  /**
+   The work done to each note before it can be written out: suppressing 
+   tags, supplying a missing date added, rendering the body as HTML, or 
+   taking the digest used by an incremental export. Safe to call from 
+   several threads at once, since it only reads the settings given to it 
+   and the note it is passed, and the render cache gives each thread its 
+   own renderer. The author and work fields are left to the writing thread. 
+  */
+  private class ExportTransform {
+    
+    private     int                 exportType;
+    private     boolean             dateAddedIncluded;
+    private     boolean             suppressing;
+    private     Tags                suppressTags;
+    private     boolean             incremental;
+    private     boolean             tabDelim;
+    
+    ExportTransform(
+        int exportType,
+        RecordDefinition recDef,
+        String suppressTagsStr,
+        Tags suppressTags) {
+      this.exportType = exportType;
+      dateAddedIncluded = recDef.contains(NoteParms.DATE_ADDED_FIELD_NAME);
+      suppressing = (suppressTagsStr != null && suppressTagsStr.length() > 0);
+      this.suppressTags = suppressTags;
+      incremental = (exportType == NOTENIK_INCREMENTAL_EXPORT);
+      tabDelim = (exportType != NOTENIK_EXPORT 
+          && (! incremental)
+          && exportType != XML_EXPORT 
+          && exportType != TABDELIM_EXPORT_MS_LINKS);
+    }
+    
+    /**
+     Prepare one note for export. The note is only copied when something
+     about it is to be changed, or when it is to be handed to NoteIO. 
+    
+     @param workNote The note from the collection. 
+    
+     @return The note as it is to be written, with any derived values. 
+    */
+    ExportItem prepare(Note workNote) {
+      
+      ExportItem item = new ExportItem();
+      item.workNote = workNote;
+      boolean addDate = dateAddedIncluded && (! workNote.hasDateAdded());
+      if (suppressing || addDate || exportType == NOTENIK_EXPORT || incremental) {
+        Note exportNote = new Note(workNote);
+        if (suppressing) {
+          Tags modTags = new Tags(exportNote.getTagsAsString());
+          exportNote.setTags(modTags.suppress(suppressTags));
+        }
+        if (addDate) {
+          exportNote.setDateAdded(
+              StringDate.YMDHMS_FORMAT.format(exportNote.getLastModDate()));
+        }
+        item.exportNote = exportNote;
+      } else {
+        item.exportNote = workNote;
+      }
+      
+      if (incremental) {
+        item.hash = ExportManifest.getHash(item.exportNote);
+      }
+      
+      if (tabDelim) {
+        item.html = mdToHTML.markdownToHtml(workNote.getBody());
+      }
+      return item;
+    }
+  }
+  
+  /**
+   One note, ready to be written out. 
+  */
+  private static class ExportItem {
+    
+    Note        workNote;
+    Note        exportNote;
+    String      hash = "";
+    String      html = "";
+    
+  }
+  
+  /**
+   Return the number of notes written by the last incremental export.
+  
+   @return The number of new or changed notes written. 
+  */
+  public int getWritten() {
+    return written;
+  }
+  
+  /**
+   Return the number of notes left as they were by the last incremental
+   export. 
+  
+   @return The number of notes found unchanged in the destination. 
+  */
+  public int getUnchanged() {
+    return unchanged;
+  }
+  
+  /**
+   Return the number of files deleted by the last incremental export.
+  
+   @return The number of notes no longer exported whose files were deleted. 
+  */
+  public int getDeleted() {
+    return deleted;
+  }
+  
+  /**
+   Copy the tags tree of a collection, with the parts of each note needed 
+   for an OPML export, so that the export can run on a background thread. 
+   This must be called on the FX thread. 
+  
+   @param model The collection of notes to be exported. 
+  
+   @return The root of the copied outline. 
+  */
+  public OutlineItem outlineTags(NoteCollectionModel model) {
+    return outline(model.getTagsModel().getRootNode());
+  }
+  
+  /**
+   Copy one node of the tags tree, along with its children. 
+  */
+  private OutlineItem outline(TreeItem<TagsNodeValue> node) {
+    if (node == null) {
+      return null;
+    }
+    OutlineItem item = new OutlineItem();
+    TagsNodeValue nodeValue = node.getValue();
+    item.nodeType = nodeValue.getNodeType();
+    switch (item.nodeType) {
+      case TagsNodeValue.TAG:
+      case TagsNodeValue.ROOT:
+        item.text = nodeValue.toString();
+        for (TreeItem<TagsNodeValue> child : node.getChildren()) {
+          item.children.add(outline(child));
+        }
+        break;
+      case TagsNodeValue.ITEM:
+        Note note = (Note)nodeValue.getUserObject();
+        item.text = note.getTitle();
+        if (note.hasLink()) {
+          item.link = note.getLinkAsString();
+        }
+        if (note.hasBody()) {
+          item.body = note.getBody();
+        }
+        break;
+      default:
+        break;
+    }
+    return item;
+  }
+  
+  /**
+   One node of the tags tree, as copied for an OPML export. 
+  */
+  public static class OutlineItem {
+    
+    int         nodeType;
+    String      text = "";
+    String      link = null;
+    String      body = null;
+    ArrayList<OutlineItem> children = new ArrayList<OutlineItem>();
+    
+  }
+  
   /**
    Export all tags and notes to an OPML outline file. 
   
    @param exportFile The file to contain the export. 
-   @param model   The list of notes to be exported. 
+   @param root       The tags and notes to be exported, as returned by 
+                     outlineTags. 
   
    @return Number of outline nodes exported. 
   */
   public int OPMLExport(
       File exportFile,
-      NoteCollectionModel model) {
+      OutlineItem root) {
     
-    TagsView tagsView = model.getTagsModel();
     Counter exported = new Counter();
     MarkupWriter writer = new MarkupWriter(exportFile, MarkupWriter.OPML_FORMAT);
     writer.openForOutput();
     writer.startBody();
-    exportToOPML(writer, tagsView.getRootNode(), exported);
+    exportToOPML(writer, root, exported);
     writer.endBody();
     writer.close();
     // userPrefs.setPref(EXPORT_FOLDER, opmlFile.getParent().toString());
@@ -393,32 +647,28 @@ public class NoteExport {
   */
   private void exportToOPML(
       MarkupWriter writer, 
-      TreeItem<TagsNodeValue> node, 
+      OutlineItem node, 
       Counter exported) {
     
     if (node != null) {
-      TagsNodeValue nodeValue = node.getValue();
-      switch (node.getValue().getNodeType()) {
+      switch (node.nodeType) {
         case TagsNodeValue.TAG:
         case TagsNodeValue.ROOT:
           exported.increment();
-          writer.startOutline(nodeValue.toString());
-          TreeItem<TagsNodeValue> child = node.getChildren().get(0);
-          while (child != null) {
+          writer.startOutline(node.text);
+          for (OutlineItem child : node.children) {
             exportToOPML (writer, child, exported);
-            child = child.nextSibling();
           }
           writer.endOutline();
           break;
         case TagsNodeValue.ITEM:
-          Note note = (Note)node.getValue().getUserObject();
           exported.increment();
-          writer.startOutline(note.getTitle());
-          if (note.hasLink()) {
-            writer.writeOutline("link: " + note.getLinkAsString());
+          writer.startOutline(node.text);
+          if (node.link != null) {
+            writer.writeOutline("link: " + node.link);
           }
-          if (note.hasBody()) {
-            writer.writeOutline("note: " + xmlConverter.convert (note.getBody()));
+          if (node.body != null) {
+            writer.writeOutline("note: " + xmlConverter.convert (node.body));
           }
           writer.endOutline();
           break;
@@ -603,12 +853,18 @@ public class NoteExport {
       favoritesTagsList = new ArrayList();
     }
 
+    Set<Note> candidates = null;
+    if (favoritesOnly && tagIndex != null) {
+      candidates = tagIndex.getCandidates(favoritesTagsString);
+    }
+
     if (ok) {
       DataRecord rec;
       Note note;
       for (int i = 0; i < model.size(); i++) {
         note = model.get(i);
-        if (note != null) {
+        if (note != null
+            && (tagIndex == null || tagIndex.isCandidate(note, candidates))) {
           boolean favoritesFound = false;
           StringBuilder favoritesCategory = new StringBuilder();
           if (favoritesOnly) {
@@ -751,6 +1007,16 @@ public class NoteExport {
     
     ArrayList favoritesTagsList = getFavoritesList(favoritesTags);
 
+    // If no note carries a favorites tag, then there's nothing to publish
+    if (tagIndex != null) {
+      Set<Note> candidates = tagIndex.getCandidates(favoritesTags);
+      if (candidates != null 
+          && candidates.isEmpty()
+          && tagIndex.size() >= model.size()) {
+        return false;
+      }
+    }
+
     boolean favoritesFound = false;
     boolean inFavorites = false;
     int favoritesLevel = -1;
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.notenik.*;
+  import com.powersurgepub.psutils2.tags.*;
+
+  import java.util.*;
+
+  import javafx.animation.*;
+  import javafx.collections.*;
+  import javafx.collections.transformation.*;
+  import javafx.concurrent.*;
+  import javafx.scene.control.*;
+  import javafx.util.*;
+
+/**
+ Narrows the note list and the tags tree down to the notes matching a
+ string, as the user types it into the tool bar. Keystrokes are debounced,
+ the matching is done on a background thread, and a query still running
+ is abandoned as soon as a newer one arrives. When the user extends the
+ prior query, only the notes matched by that query are checked again.
+ */
+public class NoteFilter {
+
+  /** Pause after the last keystroke before a query is run. */
+  public static final double  DEBOUNCE_MILLIS = 150;
+
+  private     NoteCollectionModel model;
+  private     NoteSearchIndex     searchIndex;
+
+  private     TableView<SortedNote> noteTable = null;
+  private     TreeView<TagsNodeValue> noteTree = null;
+
+  private     ObservableList<SortedNote> unfilteredItems = null;
+  private     FilteredList<SortedNote>   filteredItems = null;
+  private     TreeItem<TagsNodeValue>    unfilteredRoot = null;
+  private     TreeItem<TagsNodeValue>    filteredRoot = null;
+
+  private     PauseTransition     pause;
+
+  private     String              pendingQuery = "";
+  private     boolean             checkTitle = true;
+  private     boolean             checkLink = true;
+  private     boolean             checkTags = true;
+  private     boolean             checkBody = true;
+  private     boolean             caseSensitive = false;
+
+  /** The query whose results are currently applied, and its matches. */
+  private     String              lastQuery = "";
+  private     boolean             lastCaseSensitive = false;
+  private     Set<Note>           lastMatches = null;
+  private     int                 lastVersion = -1;
+
+  private     Task<Set<Note>>     runningTask = null;
+  private     int                 generation = 0;
+
+  public NoteFilter(NoteSearchIndex searchIndex) {
+    this.searchIndex = searchIndex;
+    pause = new PauseTransition(Duration.millis(DEBOUNCE_MILLIS));
+    pause.setOnFinished(e -> runQuery());
+  }
+
+  /**
+   Identify the collection and its views. Called whenever the views are
+   rebuilt, which also clears any filter in effect.
+
+   @param model     The collection being filtered.
+   @param noteTable The table listing the notes.
+   @param noteTree  The tree of notes by tag.
+  */
+  public void setViews(
+      NoteCollectionModel model,
+      TableView<SortedNote> noteTable,
+      TreeView<TagsNodeValue> noteTree) {
+
+    cancel();
+    this.model = model;
+    this.noteTable = noteTable;
+    this.noteTree = noteTree;
+    unfilteredItems = null;
+    filteredItems = null;
+    unfilteredRoot = null;
+    filteredRoot = null;
+    forget();
+  }
+
+  /**
+   The user has changed the text to filter on.
+
+   @param query         The text entered.
+   @param checkTitle    Should we check the title of the Note?
+   @param checkLink     Should we check the link of the Note?
+   @param checkTags     Should we check the tags of the Note?
+   @param checkBody     Should we check the body of the Note?
+   @param caseSensitive Should we do a case-sensitive comparison?
+  */
+  public void queryChanged(
+      String query,
+      boolean checkTitle,
+      boolean checkLink,
+      boolean checkTags,
+      boolean checkBody,
+      boolean caseSensitive) {
+
+    this.pendingQuery = query.trim();
+    if (checkTitle != this.checkTitle
+        || checkLink != this.checkLink
+        || checkTags != this.checkTags
+        || checkBody != this.checkBody) {
+      forget();
+    }
+    this.checkTitle = checkTitle;
+    this.checkLink = checkLink;
+    this.checkTags = checkTags;
+    this.checkBody = checkBody;
+    this.caseSensitive = caseSensitive;
+    abandonRunningTask();
+    pause.playFromStart();
+  }
+
+  /**
+   Run the pending query, now that the user has paused typing.
+  */
+  private void runQuery() {
+
+    abandonRunningTask();
+    if (model == null || noteTable == null) {
+      return;
+    }
+    String query = pendingQuery;
+    if (query.length() == 0) {
+      clear();
+      return;
+    }
+
+    // Gather the notes to check, in collection order. If the user has only
+    // extended the last query, then only its matches need to be checked.
+    boolean narrowing = (lastMatches != null
+        && lastVersion == searchIndex.getVersion()
+        && lastQuery.length() > 0
+        && lastCaseSensitive == caseSensitive
+        && (caseSensitive ? query.contains(lastQuery)
+            : query.toLowerCase().contains(lastQuery.toLowerCase())));
+    Set<Note> candidates = searchIndex.getCandidates(query);
+    ArrayList<Note> notesToCheck = new ArrayList<Note>();
+    for (int workIndex = 0; workIndex < model.size(); workIndex++) {
+      Note workNote = model.get(workIndex);
+      if (workNote != null
+          && ((! narrowing) || lastMatches.contains(workNote))
+          && searchIndex.isCandidate(workNote, candidates)) {
+        notesToCheck.add(workNote);
+      }
+    }
+
+    final int taskGeneration = ++generation;
+    final int indexVersion = searchIndex.getVersion();
+    final boolean tc = checkTitle;
+    final boolean lc = checkLink;
+    final boolean gc = checkTags;
+    final boolean bc = checkBody;
+    final boolean cs = caseSensitive;
+    Task<Set<Note>> task = new Task<Set<Note>>() {
+      @Override
+      protected Set<Note> call() {
+        FieldMatcher matcher = new FieldMatcher(query, cs);
+        Set<Note> matches
+            = Collections.newSetFromMap(new IdentityHashMap<Note, Boolean>());
+        for (Note note : notesToCheck) {
+          if (isCancelled()) {
+            return null;
+          }
+          if ((tc && matcher.matches(note.getTitle()))
+              || (gc && matcher.matches(note.getTagsAsString()))
+              || (lc && matcher.matches(note.getLinkAsString()))
+              || (bc && matcher.matches(note.getBody()))) {
+            matches.add(note);
+          }
+        }
+        return matches;
+      }
+    };
+    task.setOnSucceeded(e -> {
+      if (taskGeneration == generation && task.getValue() != null) {
+        runningTask = null;
+        lastQuery = query;
+        lastCaseSensitive = cs;
+        lastMatches = task.getValue();
+        lastVersion = indexVersion;
+        apply(lastMatches);
+      }
+    });
+    runningTask = task;
+    Thread backgroundThread = new Thread(task);
+    backgroundThread.setDaemon(true);
+    backgroundThread.start();
+  }
+
+  /**
+   Show only the given notes in the table and the tree.
+
+   @param matches The notes to be shown.
+  */
+  private void apply(Set<Note> matches) {
+
+    // The model may have replaced the table's items since we last looked
+    if (filteredItems == null || noteTable.getItems() != filteredItems) {
+      unfilteredItems = noteTable.getItems();
+      filteredItems = new FilteredList<SortedNote>(unfilteredItems);
+      noteTable.setItems(filteredItems);
+    }
+    filteredItems.setPredicate(
+        sortedNote -> matches.contains(sortedNote.getNote()));
+
+    // Likewise, the model may have rebuilt the tree since it was filtered
+    if (noteTree != null) {
+      if (filteredRoot == null || noteTree.getRoot() != filteredRoot) {
+        unfilteredRoot = noteTree.getRoot();
+      }
+      if (unfilteredRoot == null) {
+        return;
+      }
+      filteredRoot = copyMatching(unfilteredRoot, matches);
+      if (filteredRoot == null) {
+        filteredRoot = new TreeItem<TagsNodeValue>(unfilteredRoot.getValue());
+      }
+      noteTree.setRoot(filteredRoot);
+    }
+  }
+
+  /**
+   Copy the branch of the tree holding matching notes.
+
+   @param node    The node at the top of the branch.
+   @param matches The notes to be kept.
+
+   @return A copy of the branch, or null if it holds no matching notes.
+  */
+  private TreeItem<TagsNodeValue> copyMatching(
+      TreeItem<TagsNodeValue> node,
+      Set<Note> matches) {
+
+    if (node == null) {
+      return null;
+    }
+    TagsNodeValue value = node.getValue();
+    if (value != null && value.getNodeType() == TagsNodeValue.ITEM) {
+      if (matches.contains(value.getTaggable())) {
+        return new TreeItem<TagsNodeValue>(value);
+      } else {
+        return null;
+      }
+    }
+    TreeItem<TagsNodeValue> copy = null;
+    for (TreeItem<TagsNodeValue> child : node.getChildren()) {
+      TreeItem<TagsNodeValue> childCopy = copyMatching(child, matches);
+      if (childCopy != null) {
+        if (copy == null) {
+          copy = new TreeItem<TagsNodeValue>(value);
+          copy.setExpanded(true);
+        }
+        copy.getChildren().add(childCopy);
+      }
+    }
+    return copy;
+  }
+
+  /**
+   Remove any filter, restoring the full table and tree. If the model has
+   replaced the table's items or the tree's root while the filter was in
+   effect, the replacement is left in place, since it is more current than
+   what was there when the filter was applied.
+  */
+  public void clear() {
+    cancel();
+    if (noteTable != null
+        && filteredItems != null
+        && noteTable.getItems() == filteredItems) {
+      noteTable.setItems(unfilteredItems);
+    }
+    if (noteTree != null
+        && unfilteredRoot != null
+        && noteTree.getRoot() == filteredRoot) {
+      noteTree.setRoot(unfilteredRoot);
+    }
+    filteredItems = null;
+    unfilteredItems = null;
+    unfilteredRoot = null;
+    filteredRoot = null;
+    forget();
+  }
+
+  /**
+   Is a filter currently in effect?
+
+   @return True if the views are currently filtered.
+  */
+  public boolean isFiltered() {
+    return (filteredItems != null);
+  }
+
+  /**
+   Stop any pending or running query.
+  */
+  public void cancel() {
+    pause.stop();
+    abandonRunningTask();
+  }
+
+  private void abandonRunningTask() {
+    generation++;
+    if (runningTask != null) {
+      runningTask.cancel();
+      runningTask = null;
+    }
+  }
+
+  /**
+   Forget the last set of matches, so the next query starts afresh. 
+  */
+  public void forget() {
+    lastQuery = "";
+    lastMatches = null;
+  }
+
+}
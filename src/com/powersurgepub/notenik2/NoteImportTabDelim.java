@@ -24,6 +24,7 @@ package com.powersurgepub.notenik2;
 
   import java.io.*;
   import java.util.*;
+  import java.util.function.*;
 
 /**
  Imports notes from a tab-delimited file. 
@@ -50,6 +51,7 @@ public class NoteImportTabDelim {
   private     RecordDefinition    recDef;
   
   private     boolean             ok = true;
+  private     boolean             ioTrouble = false;
   private     int                 imported = 0;
   
   /** Log used to record events. */
@@ -75,15 +77,40 @@ public class NoteImportTabDelim {
       File importFile,
       NoteCollectionModel model) {
     
-    this.importFile = importFile;
     this.model = model;
+    int result = parse (importFile, model.getRecDef(), note -> model.add(note));
+    if (ioTrouble) {
+      Trouble.getShared().report 
+          ("Trouble Reading File "
+          + importFile.toString(),
+          "File I/O Problem");
+    }
+    return result;
+  }
+  
+  /**
+   Parse the supplied tab-delimited file, and pass each note with a title 
+   to the given consumer, in the order found in the file. The file is read
+   with a MappedTabDelimReader, parsing chunks of it in parallel. Trouble 
+   reading the file is logged, rather than reported, so that this may be 
+   called from a background thread; the caller should check hadIOTrouble
+   afterwards, and report it to the user on the FX thread. 
+  
+   @param importFile A tab-delimited file to be imported. 
+   @param recDef     The record definition for the notes to be created. 
+   @param notes      The consumer to be given each note, as it is read. 
+  
+   @return The number of notes imported, or -1 if there was trouble.
+  */
+  public int parse (
+      File importFile,
+      RecordDefinition recDef,
+      Consumer<Note> notes) {
+    
+    this.importFile = importFile;
     ok = true;
+    ioTrouble = false;
     imported = 0;
-    DataSource importer;
-    importer = new TabDelimFile(importFile);
-    importer.setLog (Logger.getShared());
-    // setActionMsg ("Importing " + importName + " ... ");
-    int before = model.size();
     if (ok) {
       if (! this.importFile.canRead()) {
         ok = false;
@@ -101,28 +128,19 @@ public class NoteImportTabDelim {
       } // end if passed String identified a directory
     } // end if everything still OK
     if (ok) {
+      MappedTabDelimReader importer 
+          = new MappedTabDelimReader(importFile, recDef);
       try {
-        importer.openForInput();
-        while (! importer.isAtEnd()) {
-          DataRecord dataRec = importer.nextRecordIn();
-          if (dataRec != null) {
-            Note note = new Note(model.getRecDef());
-            for (int i = 0; i < dataRec.getNumberOfFields(); i++) {
-              DataField field = dataRec.getField(i);
-              note.setField(field.getCommonFormOfName(), field.getData());
-            }
-            if (note.hasTitle()) {
-              model.add(note);
-            }
-          }
-        }
-        importer.close();
+        imported = importer.read(notes);
+      } catch (InterruptedException e) {
+        imported = importer.getRead();
+        Thread.currentThread().interrupt();
       } catch (IOException e) {
         ok = false;
-        Trouble.getShared().report 
-            ("Trouble Reading File "
-            + importFile.toString(),
-            "File I/O Problem");
+        ioTrouble = true;
+        log.recordEvent (LogEvent.MEDIUM, 
+            "Trouble reading Tab-Delimited file " + importFile.toString(),
+            false); 
       }
     }
     if (! ok) {
@@ -131,4 +149,13 @@ public class NoteImportTabDelim {
     return imported;
   }  
   
+  /**
+   Was there trouble reading the file on the last call to parse? 
+  
+   @return True if the file could not be read. 
+  */
+  public boolean hadIOTrouble() {
+    return ioTrouble;
+  }
+  
 }
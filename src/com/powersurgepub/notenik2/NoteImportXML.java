@@ -21,43 +21,43 @@ package com.powersurgepub.notenik2;
   import com.powersurgepub.psutils2.records.*;
 
   import java.io.*;
+  import java.nio.file.*;
   import java.util.*;
+  import java.util.function.*;
 
-  import org.xml.sax.*;
-  import org.xml.sax.helpers.*;
+  import javax.xml.stream.*;
 
 /**
- Imports notes from an XML file. 
+ Imports notes from an XML file, reading it as a stream so that the size 
+ of the file makes no difference to the memory used while parsing. Each 
+ element name is matched just once, the first time it is seen, and the 
+ buffers used to collect element content are reused from one note to the 
+ next. 
 
  @author Herb Bowie
  */
-public class NoteImportXML
-    extends DefaultHandler {
+public class NoteImportXML {
+  
+  /** Size of the buffer between the disk and the XML reader. */
+  public static final int     BUFFER_SIZE = 64 * 1024;
   
   private     File                importFile;
-  private     NoteCollectionModel model;
   
   private     Notenik             notenik;
   
-  private     boolean             notenikStarted = false;
-  private     boolean             noteStarted = false;
-  
-  private     Note                workNote;
-  
-  private     String              fieldName = "";
-
-  private     XMLReader           parser;
-  
-  private     DataDictionary      dict;
-  private     RecordDefinition    recDef;
-  private     int                 elementLevel = -1;
-  
-  private     ArrayList<String>        fieldNames;
-  private     ArrayList<StringBuilder> chars;
-  
   private     boolean             ok = true;
   private     int                 imported = 0;
   
+  /** 
+   The name to be used for each element name seen so far: NoteExport.NOTENIK 
+   or NoteExport.NOTE for those two elements, regardless of case, or else 
+   the interned name itself. 
+  */
+  private     HashMap<String, String> names = new HashMap<String, String>();
+  
+  /** Content collected for each level of element within a note. */
+  private     ArrayList<StringBuilder> chars = new ArrayList<StringBuilder>();
+  
   /** Log used to record events. */
   private     Logger              log = Logger.getShared();
   
@@ -87,38 +87,33 @@ public class NoteImportXML
   public int parse (
       File importFile,
       NoteCollectionModel model) {
+    return parse (importFile, model.getRecDef(), note -> model.add(note));
+  }
+  
+  /**
+   Parse the supplied XML file, and pass each note found there to the 
+   given consumer. 
+  
+   @param importFile An XML file to be imported. 
+   @param recDef     The record definition for the notes to be created. 
+   @param notes      The consumer to be given each note, as it is parsed. 
+  
+   @return The number of notes imported, or -1 if there was trouble.
+  */
+  public int parse (
+      File importFile,
+      RecordDefinition recDef,
+      Consumer<Note> notes) {
     
     this.importFile = importFile;
-    this.model = model;
     ok = true;
     imported = 0;
-    fieldNames = new ArrayList<String>();
-    chars = new ArrayList<StringBuilder>();
 
-    try {
-      parser = XMLReaderFactory.createXMLReader();
-    } catch (SAXException e) {
-      log.recordEvent (LogEvent.MINOR, 
-          "Generic SAX Parser Not Found",
+    if (! this.importFile.exists()) {
+      ok = false;
+      log.recordEvent (LogEvent.MEDIUM, 
+          "XML File " + importFile.toString() + " cannot be found",
           false);
-      try {
-        parser = XMLReaderFactory.createXMLReader
-            ("org.apache.xerces.parsers.SAXParser");
-      } catch (SAXException eex) {
-        log.recordEvent (LogEvent.MEDIUM, 
-            "Xerces SAX Parser Not Found",
-            false);
-        ok = false;
-      }
-    }
-    if (ok) {
-      parser.setContentHandler (this);
-      if (! this.importFile.exists()) {
-        ok = false;
-        log.recordEvent (LogEvent.MEDIUM, 
-            "XML File " + importFile.toString() + " cannot be found",
-            false);
-      }
     }
     if (ok) {
       if (! this.importFile.canRead()) {
@@ -137,7 +132,7 @@ public class NoteImportXML
       } // end if passed String identified a directory
       else 
       if (this.importFile.isFile()) {
-        parseXMLFile (this.importFile);
+        parseXMLFile (this.importFile, recDef, notes);
       }
     } // end if everything still OK
     if (! ok) {
@@ -146,14 +141,90 @@ public class NoteImportXML
     return imported;
   }  
   
-  private void parseXMLFile (File xmlFile) {
+  private void parseXMLFile (
+      File xmlFile, 
+      RecordDefinition recDef, 
+      Consumer<Note> notes) {
+    
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    
+    InputStream in = null;
+    XMLStreamReader reader = null;
     try {
-      parser.parse (xmlFile.toURI().toString());
+      in = new BufferedInputStream(
+          Files.newInputStream(xmlFile.toPath()), BUFFER_SIZE);
+      reader = factory.createXMLStreamReader(in);
+      
+      boolean notenikStarted = false;
+      boolean noteStarted = false;
+      int elementLevel = -1;
+      Note workNote = null;
+      
+      while (reader.hasNext()) {
+        switch (reader.next()) {
+          
+          case XMLStreamConstants.START_ELEMENT:
+            String startName = getName(reader.getLocalName());
+            if (startName == NoteExport.NOTENIK) {
+              notenikStarted = true;
+            }
+            else
+            if (notenikStarted && startName == NoteExport.NOTE) {
+              noteStarted = true;
+              elementLevel = 0;
+              workNote = new Note(recDef);
+              getChars(elementLevel);
+            }
+            else
+            if (noteStarted) {
+              elementLevel++;
+              getChars(elementLevel);
+            }
+            break;
+            
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.CDATA:
+            if (elementLevel >= 0 && elementLevel < chars.size()) {
+              chars.get(elementLevel).append(reader.getTextCharacters(), 
+                  reader.getTextStart(), reader.getTextLength());
+            }
+            break;
+            
+          case XMLStreamConstants.END_ELEMENT:
+            String endName = getName(reader.getLocalName());
+            if (endName == NoteExport.NOTENIK) {
+              notenikStarted = false;
+              elementLevel = -1;
+            }
+            else
+            if (notenikStarted && endName == NoteExport.NOTE) {
+              if (workNote != null) {
+                notes.accept(workNote);
+                imported++;
+              }
+              workNote = null;
+              noteStarted = false;
+              elementLevel = 0;
+            }
+            else
+            if (noteStarted) {
+              workNote.setField(endName, 
+                  chars.get(elementLevel).toString().trim());
+              elementLevel--;
+            }
+            break;
+            
+          default:
+            break;
+        } // end switch on event type
+      } // end while more events
     } 
-    catch (SAXException saxe) {
+    catch (XMLStreamException xmle) {
         log.recordEvent (LogEvent.MEDIUM, 
-            "Encountered SAX error while reading XML file " + xmlFile.toString() 
-            + saxe.toString(),
+            "Encountered XML error while reading XML file " + xmlFile.toString() 
+            + xmle.toString(),
             false);   
         ok = false;
     } 
@@ -164,127 +235,60 @@ public class NoteImportXML
             false);  
         ok = false;
     }
-  }
-  
-  /**
-   Process the start of a new XML element identified by the parser. 
-  
-   @param namespaceURI
-   @param localName This is the name of the field. 
-   @param qualifiedName
-   @param attributes 
-  */
-  public void startElement (
-      String namespaceURI,
-      String localName,
-      String qualifiedName,
-      Attributes attributes) {
-    // System.out.println ("startElement " + localName);
-    StringBuilder str = new StringBuilder();
-    fieldName = localName;
-    if (localName.equalsIgnoreCase(NoteExport.NOTENIK)) {
-      notenikStarted = true;
-    }
-    else
-    if (notenikStarted 
-        && localName.equalsIgnoreCase(NoteExport.NOTE)) {
-      noteStarted = true;
-      elementLevel = 0;
-      workNote = new Note(model.getRecDef());
-      storeField (elementLevel, fieldName, str);
-    }
-    else
-    if (noteStarted) {
-      elementLevel++;
-      storeField (elementLevel, fieldName, str);
-    }
-  } // end method
-  
-  
-  /**
-   Collect any attributes attached to the start of the element. 
-  
-   @param attributes
-   @param field 
-  */
-  private void harvestAttributes (Attributes attributes, DataField field) {
-    for (int i = 0; i < attributes.getLength(); i++) {
-      String name = attributes.getLocalName (i);
-      DataFieldDefinition def = dict.getDef (name);
-      if (def == null) {
-        def = new DataFieldDefinition (name);
-        dict.putDef (def);
+    finally {
+      try {
+        if (reader != null) {
+          reader.close();
+        }
+        if (in != null) {
+          in.close();
+        }
+      } catch (XMLStreamException | IOException e) {
+        // Nothing more to do
       }
-      // System.out.println ("  Attribute " + name + " = " + attributes.getValue (i));
-      DataField attr = new DataField (def, attributes.getValue (i));
-      field.addField (attr);
     }
   }
   
   /**
-   Process a character string passed by the parser. 
+   Return the name to be used for an element. 
   
-   @param ch      An array of characters.
-   @param start   The starting position within the array. 
-   @param length  The number of characters to obtain. 
+   @param localName The name of the element as found in the file. 
+  
+   @return NoteExport.NOTENIK or NoteExport.NOTE, if it's one of those, 
+           or else the interned name. 
   */
-  public void characters (char [] ch, int start, int length) {
-    if (elementLevel >= 0 && elementLevel < chars.size()) {
-      StringBuilder str = chars.get (elementLevel);
-      str.append (ch, start, length);
+  private String getName(String localName) {
+    String name = names.get(localName);
+    if (name == null) {
+      if (localName.equalsIgnoreCase(NoteExport.NOTENIK)) {
+        name = NoteExport.NOTENIK;
+      }
+      else
+      if (localName.equalsIgnoreCase(NoteExport.NOTE)) {
+        name = NoteExport.NOTE;
+      } else {
+        name = localName.intern();
+      }
+      names.put(localName, name);
     }
+    return name;
   }
   
   /**
-   If it's ignorable, then let's ignore it. 
-  
-   @param ch
-   @param start
-   @param length 
-  */
-  public void ignorableWhitespace (char [] ch, int start, int length) {
-    
-  }
+   Return an empty buffer to collect the content of an element at the 
+   given level, reusing the buffer last used at that level. 
   
-  public void endElement (
-      String namespaceURI,
-      String localName,
-      String qualifiedName) {
-    
-    if (localName.equalsIgnoreCase(NoteExport.NOTENIK)) {
-      notenikStarted = false;
-      elementLevel = -1;
-    }
-    else
-    if (notenikStarted 
-        && localName.equalsIgnoreCase(NoteExport.NOTE)) {
-      model.add(workNote);
-      noteStarted = false;
-      elementLevel = 0;
-    }
-    else
-    if (noteStarted) {
-      String str = chars.get (elementLevel).toString().trim();
-      workNote.setField(localName, str.toString());
-      elementLevel--;
-    }
-  } // end method
+   @param level The depth within the note. 
   
-  /**
-   Store a field name and its associated characters content. 
-  
-   @param level The depth within the parsed XML document. 
-   @param field The name of the field. 
-   @param str   The associated characters content. 
+   @return An empty buffer. 
   */
-  private void storeField (int level, String field, StringBuilder str) {
-    if (fieldNames.size() > level) {
-      fieldNames.set (level, field);
-      chars.set (level, str);
-    } else {
-      fieldNames.add (field);
-      chars.add (level, str);
+  private StringBuilder getChars (int level) {
+    while (chars.size() <= level) {
+      chars.add(new StringBuilder());
     }
-  } // end method
+    StringBuilder str = chars.get(level);
+    str.setLength(0);
+    return str;
+  }
   
 }
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.logging.*;
+  import com.powersurgepub.psutils2.notenik.*;
+  import com.powersurgepub.psutils2.records.*;
+
+  import java.io.*;
+  import java.nio.file.*;
+  import java.time.*;
+  import java.util.*;
+  import java.util.concurrent.*;
+  import java.util.concurrent.atomic.*;
+  import java.util.zip.*;
+
+  import javafx.concurrent.*;
+
+/**
+ A background task that purges a list of closed notes from a collection.
+ The notes may first be copied to an archive folder, several at a time, or
+ streamed into a single dated zip file, or both. Any note that could not be
+ archived is left in the collection. The remaining notes are then removed
+ from the collection on the FX thread, in chunks, working back from the end
+ of the list so that as little as possible of the list has to shift.
+
+ If the task is cancelled while the notes are being archived, nothing is
+ removed; if it is cancelled while they are being removed, the notes
+ already removed stay removed.
+
+ The value returned is the number of notes purged.
+ */
+public class NotePurger
+    extends Task<Integer> {
+
+  /** Maximum number of archive copies to be written at once. */
+  public static final int   MAX_THREADS = 4;
+
+  private     NoteCollectionModel model;
+  private     NoteBatch           batch;
+  private     List<Note>          notes;
+  private     File                archiveFolder;
+  private     File                zipFile;
+  private     boolean             syncing;
+
+  private     File                collectionFolder;
+  private     RecordDefinition    recDef;
+
+  private     Set<Note>           failed = Collections.synchronizedSet(
+      Collections.newSetFromMap(new IdentityHashMap<Note, Boolean>()));
+  private     AtomicInteger       done = new AtomicInteger(0);
+  private     int                 steps = 0;
+
+  /**
+   Prepare a new purge. Must be constructed on the FX thread.
+
+   @param model         The collection to be purged.
+   @param batch         The batch to be used to remove the notes.
+   @param notes         The notes to be purged, in the order in which they
+                        appear in the collection.
+   @param archiveFolder The folder to receive a copy of each purged note,
+                        or null if the notes are not to be copied.
+   @param zipFile       The zip file to receive the purged notes, or null
+                        if no zip file is wanted.
+   @param syncing       Is the collection being synced with another folder?
+                        If so, the sync copy of each purged note is deleted.
+  */
+  public NotePurger(
+      NoteCollectionModel model,
+      NoteBatch batch,
+      List<Note> notes,
+      File archiveFolder,
+      File zipFile,
+      boolean syncing) {
+
+    this.model = model;
+    this.batch = batch;
+    this.notes = notes;
+    this.archiveFolder = archiveFolder;
+    this.zipFile = zipFile;
+    this.syncing = syncing;
+    collectionFolder = model.getFolder();
+    recDef = model.getRecDef();
+  }
+
+  @Override
+  protected Integer call() throws Exception {
+
+    steps = notes.size();
+    if (archiveFolder != null) {
+      steps = steps + notes.size();
+    }
+    if (zipFile != null) {
+      steps = steps + notes.size();
+    }
+    updateProgress(0, steps);
+
+    if (archiveFolder != null) {
+      updateMessage("Copying purged Notes to archive folder...");
+      copyNotes();
+    }
+    if (zipFile != null && (! isCancelled())) {
+      updateMessage("Zipping purged Notes...");
+      zipNotes();
+    }
+    if (isCancelled()) {
+      return 0;
+    }
+
+    updateMessage("Removing purged Notes...");
+    ArrayList<Note> toRemove = new ArrayList<Note>(notes.size());
+    for (Note note : notes) {
+      if (! failed.contains(note)) {
+        toRemove.add(note);
+      }
+    }
+    Collections.reverse(toRemove);
+    int removed = 0;
+    while (removed < toRemove.size() && (! isCancelled())) {
+      List<Note> chunk = toRemove.subList(removed,
+          Math.min(toRemove.size(), removed + NoteBatch.CHUNK_SIZE));
+      OperationRunner.runAndWait(() -> {
+        if (! isCancelled()) {
+          removeNotes(chunk);
+        }
+      });
+      removed = removed + chunk.size();
+      updateProgress(done.addAndGet(chunk.size()), steps);
+    }
+    return batch.getModified();
+  }
+
+  /**
+   Copy each note to the archive folder, spreading the writes across a
+   small pool of threads, each with its own NoteIO.
+  */
+  private void copyNotes() throws InterruptedException {
+
+    int workers = Math.max(1, Math.min(notes.size(),
+        Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors())));
+    ExecutorService executor = Executors.newFixedThreadPool(workers, r -> {
+      Thread thread = new Thread(r, "Purge archive");
+      thread.setDaemon(true);
+      return thread;
+    });
+    ThreadLocal<NoteIO> archiveIO = ThreadLocal.withInitial(() ->
+        new NoteIO(archiveFolder, NoteParms.DEFINED_TYPE,
+            new RecordDefinition(recDef)));
+
+    for (Note note : notes) {
+      executor.submit(() -> {
+        if (isCancelled()) {
+          return;
+        }
+        try {
+          archiveIO.get().save(archiveFolder, note, false);
+        } catch (IOException e) {
+          failed.add(note);
+          Logger.getShared().recordEvent(LogEvent.MEDIUM,
+              "I/O Error while attempting to save "
+                + note.getTitle() + " to Archive folder",
+              false);
+        } finally {
+          done.incrementAndGet();
+        }
+      });
+    }
+    executor.shutdown();
+
+    try {
+      while (! executor.awaitTermination(NoteSearchTask.PUBLISH_INTERVAL,
+          TimeUnit.MILLISECONDS)) {
+        if (isCancelled()) {
+          return;
+        }
+        updateProgress(done.get(), steps);
+      }
+    } finally {
+      OperationRunner.stopAndWait(executor);
+    }
+    updateProgress(done.get(), steps);
+  }
+
+  /**
+   Stream the disk file for each note into the zip file. A note whose file
+   can't be found is left in the collection; any other trouble writing the
+   zip file stops the purge before anything is removed.
+  */
+  private void zipNotes() throws IOException {
+
+    ZipOutputStream zip = new ZipOutputStream(
+        new BufferedOutputStream(new FileOutputStream(zipFile)));
+    boolean complete = false;
+    try {
+      for (Note note : notes) {
+        if (isCancelled()) {
+          return;
+        }
+        File noteFile = new File(collectionFolder, note.getFileName());
+        if (noteFile.isFile()) {
+          ZipEntry entry = new ZipEntry(noteFile.getName());
+          entry.setTime(noteFile.lastModified());
+          zip.putNextEntry(entry);
+          Files.copy(noteFile.toPath(), zip);
+          zip.closeEntry();
+        } else {
+          failed.add(note);
+          Logger.getShared().recordEvent(LogEvent.MEDIUM,
+              "Unable to find " + noteFile.toString()
+                + " to add to zip file",
+              false);
+        }
+        updateProgress(done.incrementAndGet(), steps);
+      }
+      complete = true;
+    } finally {
+      zip.close();
+      if (! complete) {
+        zipFile.delete();
+      }
+    }
+  }
+
+  /**
+   Remove a chunk of notes from the collection. Must be run on the FX
+   thread.
+  */
+  private void removeNotes(List<Note> chunk) {
+    batch.begin();
+    try {
+      for (Note note : chunk) {
+        if (batch.remove(note)) {
+          if (syncing) {
+            File syncFile = model.getSyncFile(note.getTitle());
+            syncFile.delete();
+          }
+        } else {
+          Logger.getShared().recordEvent(LogEvent.MEDIUM,
+              "Unable to remove "
+                + note.getTitle() + " from note list", false);
+        }
+      }
+    } finally {
+      batch.commit();
+    }
+  }
+
+  /**
+   Return the number of notes left in the collection because they could
+   not be archived.
+
+   @return The number of notes that could not be archived.
+  */
+  public int getFailures() {
+    return failed.size();
+  }
+
+  /**
+   Choose a name for a zip file of purged notes, including today's date,
+   that does not clash with any existing file.
+
+   @param folder         The folder to hold the zip file.
+   @param collectionName The name of the collection being purged.
+
+   @return The zip file to be written.
+  */
+  public static File getZipFile(File folder, String collectionName) {
+    String baseName = collectionName + " purged "
+        + LocalDate.now().toString();
+    File zipFile = new File(folder, baseName + ".zip");
+    int copy = 2;
+    while (zipFile.exists()) {
+      zipFile = new File(folder, baseName + " " + String.valueOf(copy) + ".zip");
+      copy++;
+    }
+    return zipFile;
+  }
+
+}
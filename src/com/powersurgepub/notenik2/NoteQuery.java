@@ -0,0 +1,303 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.notenik.*;
+
+  import java.util.*;
+  import java.util.regex.*;
+
+/**
+ A multi-term query, parsed and compiled once, that may then be applied
+ to any number of notes. For example:
+
+ <pre>tag:work AND status:open "quarterly report"</pre>
+
+ Terms are separated by white space, and are implicitly joined by AND.
+ The keywords AND, OR and NOT (in upper case) may also be used, and a term
+ may be negated with a leading minus sign. AND binds more tightly than OR.
+ A phrase containing spaces may be enclosed in double quotation marks, and
+ a term enclosed in slashes is treated as a regular expression. A term may
+ be limited to one field by prefixing it with the field's name and a colon;
+ the names title, tag, tags, link, url and body are recognized, along with
+ the name of any other field in the collection.
+
+ Unqualified terms are checked against the fields selected by the user.
+ Within each group of terms joined by AND, the terms are ordered so that
+ the short fields are checked before the body, and the checking stops as
+ soon as one term fails.
+ */
+public class NoteQuery {
+
+  public static final String  AND = "AND";
+  public static final String  OR  = "OR";
+  public static final String  NOT = "NOT";
+
+  private static final int    ANY   = 0;
+  private static final int    TITLE = 1;
+  private static final int    TAGS  = 2;
+  private static final int    LINK  = 3;
+  private static final int    BODY  = 4;
+  private static final int    OTHER = 5;
+
+  private     String              queryString;
+
+  /** Groups of terms joined by AND; the groups are joined by OR. */
+  private     ArrayList<ArrayList<QueryTerm>> groups
+      = new ArrayList<ArrayList<QueryTerm>>();
+
+  /**
+   Parse and compile a query.
+
+   @param queryString   The query entered by the user.
+   @param caseSensitive Should comparisons be case-sensitive?
+
+   @throws PatternSyntaxException If a regular expression is invalid.
+  */
+  public NoteQuery(String queryString, boolean caseSensitive) {
+    this.queryString = queryString;
+    ArrayList<QueryTerm> group = new ArrayList<QueryTerm>();
+    boolean negateNext = false;
+    for (String token : tokenize(queryString)) {
+      if (token.equals(AND)) {
+        // Implied anyway
+      }
+      else
+      if (token.equals(OR)) {
+        addGroup(group);
+        group = new ArrayList<QueryTerm>();
+      }
+      else
+      if (token.equals(NOT)) {
+        negateNext = true;
+      } else {
+        QueryTerm term = new QueryTerm(token, negateNext, caseSensitive);
+        if (term.matcher != null) {
+          group.add(term);
+        }
+        negateNext = false;
+      }
+    }
+    addGroup(group);
+  }
+
+  private void addGroup(ArrayList<QueryTerm> group) {
+    if (group.size() > 0) {
+      Collections.sort(group, (a, b) -> Integer.compare(a.cost, b.cost));
+      groups.add(group);
+    }
+  }
+
+  /**
+   Break the query into tokens, keeping quoted phrases and regular
+   expressions intact.
+  */
+  private static ArrayList<String> tokenize(String queryString) {
+    ArrayList<String> tokens = new ArrayList<String>();
+    StringBuilder token = new StringBuilder();
+    char delimiter = ' ';
+    for (int i = 0; i < queryString.length(); i++) {
+      char c = queryString.charAt(i);
+      if (delimiter != ' ') {
+        token.append(c);
+        if (c == delimiter
+            && (delimiter != '/' || queryString.charAt(i - 1) != '\\')) {
+          delimiter = ' ';
+        }
+      }
+      else
+      if (Character.isWhitespace(c)) {
+        if (token.length() > 0) {
+          tokens.add(token.toString());
+          token.setLength(0);
+        }
+      }
+      else
+      if ((c == '"' || c == '/')
+          && (token.length() == 0
+            || token.charAt(token.length() - 1) == ':'
+            || token.toString().equals("-"))) {
+        token.append(c);
+        delimiter = c;
+      } else {
+        token.append(c);
+      }
+    }
+    if (token.length() > 0) {
+      tokens.add(token.toString());
+    }
+    return tokens;
+  }
+
+  /**
+   Does the query select any notes at all?
+
+   @return True if the query has at least one term.
+  */
+  public boolean hasTerms() {
+    return (groups.size() > 0);
+  }
+
+  /**
+   Does the given note satisfy the query?
+
+   @param note       The note to be checked.
+   @param checkTitle Should unqualified terms check the title?
+   @param checkLink  Should unqualified terms check the link?
+   @param checkTags  Should unqualified terms check the tags?
+   @param checkBody  Should unqualified terms check the body?
+
+   @return True if the note satisfies the query.
+  */
+  public boolean matches(
+      Note note,
+      boolean checkTitle,
+      boolean checkLink,
+      boolean checkTags,
+      boolean checkBody) {
+
+    for (ArrayList<QueryTerm> group : groups) {
+      boolean groupMatched = true;
+      for (int i = 0; i < group.size() && groupMatched; i++) {
+        groupMatched = group.get(i).matches(note,
+            checkTitle, checkLink, checkTags, checkBody);
+      }
+      if (groupMatched) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public String getQueryString() {
+    return queryString;
+  }
+
+  /**
+   One term within a query.
+  */
+  private static class QueryTerm {
+
+    private     int                 field = ANY;
+    private     String              fieldName = "";
+    private     boolean             negated;
+    private     FieldMatcher        matcher = null;
+    private     int                 cost = 2;
+
+    QueryTerm(String token, boolean negated, boolean caseSensitive) {
+      this.negated = negated;
+      String text = token;
+      if (text.startsWith("-") && text.length() > 1) {
+        this.negated = ! this.negated;
+        text = text.substring(1);
+      }
+
+      int colon = text.indexOf(':');
+      if (colon > 0
+          && text.charAt(0) != '"'
+          && text.charAt(0) != '/'
+          && colon < text.length() - 1) {
+        fieldName = text.substring(0, colon);
+        text = text.substring(colon + 1);
+        String lower = fieldName.toLowerCase();
+        if (lower.equals("title")) {
+          field = TITLE;
+        }
+        else
+        if (lower.equals("tag") || lower.equals("tags")) {
+          field = TAGS;
+        }
+        else
+        if (lower.equals("link") || lower.equals("url")) {
+          field = LINK;
+        }
+        else
+        if (lower.equals("body")) {
+          field = BODY;
+        } else {
+          field = OTHER;
+        }
+      }
+
+      boolean regex = false;
+      if (text.length() > 2 && text.startsWith("/") && text.endsWith("/")) {
+        regex = true;
+        text = text.substring(1, text.length() - 1);
+      }
+      else
+      if (text.length() > 1 && text.startsWith("\"") && text.endsWith("\"")) {
+        text = text.substring(1, text.length() - 1);
+      }
+
+      if (text.length() > 0) {
+        matcher = new FieldMatcher(text, caseSensitive, regex);
+      }
+
+      // Check the cheap fields first, and the body last
+      switch (field) {
+        case TITLE:
+        case TAGS:
+        case LINK:
+        case OTHER:
+          cost = 1;
+          break;
+        case BODY:
+          cost = 3;
+          break;
+        default:
+          cost = 2;
+          break;
+      }
+    }
+
+    boolean matches(
+        Note note,
+        boolean checkTitle,
+        boolean checkLink,
+        boolean checkTags,
+        boolean checkBody) {
+
+      boolean found;
+      switch (field) {
+        case TITLE:
+          found = matcher.matches(note.getTitle());
+          break;
+        case TAGS:
+          found = matcher.matches(note.getTagsAsString());
+          break;
+        case LINK:
+          found = matcher.matches(note.getLinkAsString());
+          break;
+        case BODY:
+          found = matcher.matches(note.getBody());
+          break;
+        case OTHER:
+          found = matcher.matches(note.getFieldData(fieldName));
+          break;
+        default:
+          found = ((checkTitle && matcher.matches(note.getTitle()))
+              || (checkTags && matcher.matches(note.getTagsAsString()))
+              || (checkLink && matcher.matches(note.getLinkAsString()))
+              || (checkBody && matcher.matches(note.getBody())));
+          break;
+      }
+      return (found != negated);
+    }
+
+  }
+
+}
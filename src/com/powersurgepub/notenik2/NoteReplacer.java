@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.notenik.*;
+
+/**
+ Replaces every occurrence of a find string with a replacement string,
+ within the selected fields of a note. Used to perform a Replace All in a
+ single pass through the collection.
+ */
+public class NoteReplacer {
+
+  private     FieldMatcher        matcher;
+  private     String              replaceString;
+  private     boolean             checkTitle;
+  private     boolean             checkLink;
+  private     boolean             checkTags;
+  private     boolean             checkBody;
+
+  /**
+   Prepare to perform replacements.
+
+   @param findString    The string we're searching for.
+   @param replaceString The string to replace the find string.
+   @param checkTitle    Should we check the title of the Note?
+   @param checkLink     Should we check the link of the Note?
+   @param checkTags     Should we check the tags of the Note?
+   @param checkBody     Should we check the body of the Note?
+   @param caseSensitive Should we do a case-sensitive comparison?
+   @param regex         Is the find string a regular expression?
+  */
+  public NoteReplacer(
+      String findString,
+      String replaceString,
+      boolean checkTitle,
+      boolean checkLink,
+      boolean checkTags,
+      boolean checkBody,
+      boolean caseSensitive,
+      boolean regex) {
+
+    this.matcher = new FieldMatcher(findString, caseSensitive, regex);
+    this.replaceString = replaceString;
+    this.checkTitle = checkTitle;
+    this.checkLink = checkLink;
+    this.checkTags = checkTags;
+    this.checkBody = checkBody;
+  }
+
+  /**
+   Does the given note contain at least one occurrence of the find string,
+   within one of the selected fields?
+
+   @param note The note to be checked.
+
+   @return True if a replacement would be made.
+  */
+  public boolean matches(Note note) {
+    return ((checkTitle && matcher.matches(note.getTitle()))
+        || (checkLink && matcher.matches(note.getLinkAsString()))
+        || (checkTags && matcher.matches(note.getTagsAsString()))
+        || (checkBody && matcher.matches(note.getBody())));
+  }
+
+  /**
+   Replace every occurrence of the find string within the selected fields
+   of the given note.
+
+   @param note The note to be updated.
+
+   @return True if the note was changed.
+  */
+  public boolean replace(Note note) {
+
+    boolean replaced = false;
+    String result;
+
+    if (checkTitle) {
+      result = replaceIn(note.getTitle());
+      if (result != null) {
+        note.setTitle(result);
+        replaced = true;
+      }
+    }
+
+    if (checkLink) {
+      result = replaceIn(note.getLinkAsString());
+      if (result != null) {
+        note.setLink(result);
+        replaced = true;
+      }
+    }
+
+    if (checkTags) {
+      result = replaceIn(note.getTagsAsString());
+      if (result != null) {
+        note.setTags(result);
+        replaced = true;
+      }
+    }
+
+    if (checkBody) {
+      result = replaceIn(note.getBody());
+      if (result != null) {
+        note.setBody(result);
+        replaced = true;
+      }
+    }
+
+    return replaced;
+  }
+
+  /**
+   Replace every occurrence of the find string in the given text.
+
+   @param text The text to be modified.
+
+   @return The modified text, or null if no occurrences were found.
+  */
+  private String replaceIn(String text) {
+    return matcher.replaceAll(text, replaceString);
+  }
+
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.notenik.*;
+
+  import java.util.*;
+
+/**
+ An inverted index of character trigrams found in the title, link, tags and
+ body of each note in a collection. The index is used to narrow a search
+ down to a small set of candidate notes, each of which must then be checked
+ for an exact match. Trigrams are case-folded, so the candidates returned
+ are good for either a case-sensitive or a case-insensitive search.
+
+ The index also maintains a TagIndex for the same notes, so that both are
+ kept current by the same calls.
+
+ Notes are tracked by identity, since a note's title, and therefore its
+ unique key, may change while it is being indexed.
+
+ Not every change to a note passes through this index: a note may be
+ reloaded or changed within the collection model itself. So a stamp of
+ each note's indexed text is kept along with its trigrams, and a note whose
+ text no longer matches its stamp is always treated as a candidate, just
+ as if it had never been indexed.
+ */
+public class NoteSearchIndex {
+
+  public static final int   GRAM_LENGTH = 3;
+
+  /** Map of each trigram to the notes containing it. */
+  private     HashMap<Long, Set<Note>>    postings
+      = new HashMap<Long, Set<Note>>();
+
+  /** The trigrams last indexed for each note, so they can be withdrawn. */
+  private     IdentityHashMap<Note, long[]> noteGrams
+      = new IdentityHashMap<Note, long[]>();
+
+  /** A stamp of the text last indexed for each note. */
+  private     IdentityHashMap<Note, Long> noteStamps
+      = new IdentityHashMap<Note, Long>();
+
+  /** Incremented whenever the contents of the index change. */
+  private     int                         version = 0;
+
+  /** Work area used to collect the unique trigrams for one note. */
+  private     HashSet<Long>               workGrams = new HashSet<Long>();
+
+  /** Index of the notes carrying each tag. */
+  private     TagIndex                    tagIndex = new TagIndex();
+
+  /** Index of the open, recurring notes by date. */
+  private     DateIndex                   dateIndex = new DateIndex();
+
+  public NoteSearchIndex() {
+
+  }
+
+  /**
+   Discard the current contents of the index and load every note in the
+   given collection.
+
+   @param model The collection to be indexed.
+  */
+  public void build(NoteCollectionModel model) {
+    clear();
+    for (int workIndex = 0; workIndex < model.size(); workIndex++) {
+      Note workNote = model.get(workIndex);
+      if (workNote != null) {
+        add(workNote);
+      }
+    }
+  }
+
+  /**
+   Empty the index.
+  */
+  public void clear() {
+    postings.clear();
+    noteGrams.clear();
+    noteStamps.clear();
+    tagIndex.clear();
+    dateIndex.clear();
+    version++;
+  }
+
+  /**
+   Add a note to the index, or re-index it if it is already present.
+
+   @param note The note to be indexed.
+  */
+  public void add(Note note) {
+    if (note == null) {
+      return;
+    }
+    remove(note);
+    workGrams.clear();
+    collectGrams(note.getTitle());
+    collectGrams(note.getLinkAsString());
+    collectGrams(note.getTagsAsString());
+    collectGrams(note.getBody());
+    long[] grams = new long[workGrams.size()];
+    int i = 0;
+    for (Long gram : workGrams) {
+      grams[i] = gram;
+      i++;
+      Set<Note> notes = postings.get(gram);
+      if (notes == null) {
+        notes = Collections.newSetFromMap(new IdentityHashMap<Note, Boolean>());
+        postings.put(gram, notes);
+      }
+      notes.add(note);
+    }
+    workGrams.clear();
+    noteGrams.put(note, grams);
+    noteStamps.put(note, stamp(note));
+    tagIndex.add(note);
+    dateIndex.add(note);
+    version++;
+  }
+
+  /**
+   Re-index a note whose contents may have changed.
+
+   @param note The note that was modified.
+  */
+  public void update(Note note) {
+    add(note);
+  }
+
+  /**
+   Remove a note from the index.
+
+   @param note The note to be removed.
+  */
+  public void remove(Note note) {
+    if (note == null) {
+      return;
+    }
+    tagIndex.remove(note);
+    dateIndex.remove(note);
+    noteStamps.remove(note);
+    long[] grams = noteGrams.remove(note);
+    if (grams != null) {
+      version++;
+      for (long gram : grams) {
+        Set<Note> notes = postings.get(gram);
+        if (notes != null) {
+          notes.remove(note);
+          if (notes.isEmpty()) {
+            postings.remove(gram);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   Has this note been indexed?
+
+   @param note The note in question.
+
+   @return True if the note is known to the index.
+  */
+  public boolean contains(Note note) {
+    return noteGrams.containsKey(note);
+  }
+
+  /**
+   Return the number of notes in the index.
+
+   @return The number of notes indexed.
+  */
+  public int size() {
+    return noteGrams.size();
+  }
+
+  /**
+   Return the index of tags for the same notes.
+
+   @return The tag index.
+  */
+  public TagIndex getTagIndex() {
+    return tagIndex;
+  }
+
+  /**
+   Return the index of open, recurring notes by date, for the same notes.
+
+   @return The date index.
+  */
+  public DateIndex getDateIndex() {
+    return dateIndex;
+  }
+
+  /**
+   Return a number that changes whenever a note is added, changed or
+   removed, so that callers may tell whether results derived from the
+   index are still current.
+
+   @return The current version of the index.
+  */
+  public int getVersion() {
+    return version;
+  }
+
+  /**
+   Find the notes that might contain the given search string.
+
+   @param findString The string to be searched for.
+
+   @return The set of candidate notes, or null if the search string is too
+           short for the index to be of any help, in which case every note
+           must be treated as a candidate.
+  */
+  public Set<Note> getCandidates(String findString) {
+    if (findString == null || findString.length() < GRAM_LENGTH) {
+      return null;
+    }
+    workGrams.clear();
+    collectGrams(findString);
+    ArrayList<Set<Note>> lists = new ArrayList<Set<Note>>();
+    for (Long gram : workGrams) {
+      Set<Note> notes = postings.get(gram);
+      if (notes == null) {
+        workGrams.clear();
+        return Collections.emptySet();
+      }
+      lists.add(notes);
+    }
+    workGrams.clear();
+
+    // Intersect, starting with the shortest list of postings
+    Collections.sort(lists, (a, b) -> Integer.compare(a.size(), b.size()));
+    Set<Note> candidates
+        = Collections.newSetFromMap(new IdentityHashMap<Note, Boolean>());
+    candidates.addAll(lists.get(0));
+    for (int i = 1; i < lists.size() && candidates.size() > 0; i++) {
+      candidates.retainAll(lists.get(i));
+    }
+    return candidates;
+  }
+
+  /**
+   Should the given note be checked for a match?
+
+   @param note       The note to be checked.
+   @param candidates The candidates returned by getCandidates.
+
+   @return True if the note is a candidate, or if the note has not been
+           indexed, or has changed since it was indexed, and so must be
+           checked the hard way.
+  */
+  public boolean isCandidate(Note note, Set<Note> candidates) {
+    if (candidates == null || candidates.contains(note)) {
+      return true;
+    }
+    Long indexedStamp = noteStamps.get(note);
+    return (indexedStamp == null || indexedStamp.longValue() != stamp(note));
+  }
+
+  /**
+   Return a stamp of the text indexed for a note, built from the hash codes
+   and lengths of its title, link, tags and body. String caches its hash
+   code, so the stamp of an unchanged note is cheap to take again.
+
+   @param note The note.
+
+   @return The stamp.
+  */
+  private static long stamp(Note note) {
+    long stamp = 17;
+    stamp = stamp(stamp, note.getTitle());
+    stamp = stamp(stamp, note.getLinkAsString());
+    stamp = stamp(stamp, note.getTagsAsString());
+    stamp = stamp(stamp, note.getBody());
+    return stamp;
+  }
+
+  private static long stamp(long stamp, String text) {
+    if (text == null) {
+      return stamp * 31;
+    }
+    return (((stamp * 31) + text.hashCode()) * 31) + text.length();
+  }
+
+  /**
+   Add the unique trigrams in the given text to the work set.
+
+   @param text The text to be broken down into trigrams.
+  */
+  private void collectGrams(String text) {
+    if (text == null || text.length() < GRAM_LENGTH) {
+      return;
+    }
+    long gram = 0;
+    for (int i = 0; i < text.length(); i++) {
+      gram = ((gram << 16) | fold(text.charAt(i))) & 0xFFFFFFFFFFFFL;
+      if (i >= GRAM_LENGTH - 1) {
+        workGrams.add(gram);
+      }
+    }
+  }
+
+  /**
+   Fold a character to a single case, in the same way that
+   String.regionMatches does when ignoring case.
+
+   @param c The character to be folded.
+
+   @return The folded character.
+  */
+  public static char fold(char c) {
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+}
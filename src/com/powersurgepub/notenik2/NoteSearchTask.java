@@ -0,0 +1,155 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.notenik.*;
+
+  import java.util.*;
+  import java.util.concurrent.*;
+  import java.util.concurrent.atomic.*;
+
+  import javafx.application.*;
+  import javafx.concurrent.*;
+
+/**
+ A background task that searches a list of notes for a string, spreading
+ the work across the available processors. Matches are passed to a
+ results window in batches, on the JavaFX application thread, as they are
+ found. The task may be cancelled at any time.
+
+ The value returned is the number of notes found.
+ */
+public class NoteSearchTask
+    extends Task<Integer> {
+
+  /** Minimum interval between batches of results sent to the UI. */
+  public static final long  PUBLISH_INTERVAL = 100;
+
+  private     List<Note>          notes;
+  private     int[]               positions;
+  private     NoteSearcher        searcher;
+  private     SearchResultsWindow resultsWindow;
+
+  private     ConcurrentLinkedQueue<SearchResult> found
+      = new ConcurrentLinkedQueue<SearchResult>();
+  private     AtomicInteger       checked = new AtomicInteger(0);
+  private     int                 hits = 0;
+
+  /**
+   Prepare a new search.
+
+   @param notes         The notes to be searched. This should be a snapshot
+                        taken on the application thread.
+   @param positions     The position of each note within the collection.
+   @param searcher      The search to be made. Each worker uses a copy.
+   @param resultsWindow The window to receive the results.
+  */
+  public NoteSearchTask(
+      List<Note> notes,
+      int[] positions,
+      NoteSearcher searcher,
+      SearchResultsWindow resultsWindow) {
+
+    this.notes = notes;
+    this.positions = positions;
+    this.searcher = searcher;
+    this.resultsWindow = resultsWindow;
+  }
+
+  @Override
+  protected Integer call() throws Exception {
+
+    int size = notes.size();
+    int workers = Math.max(1,
+        Math.min(Runtime.getRuntime().availableProcessors(), size / 64));
+    ExecutorService executor = Executors.newFixedThreadPool(workers, r -> {
+      Thread thread = new Thread(r, "Note search");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    // Each worker takes an interleaved share of the notes, so that hits
+    // near the top of the list show up early.
+    ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int w = 0; w < workers; w++) {
+      final int first = w;
+      final int step = workers;
+      futures.add(executor.submit(() -> searchSlice(first, step)));
+    }
+    executor.shutdown();
+
+    updateProgress(0, size);
+    long lastPublished = System.currentTimeMillis();
+    while (! executor.isTerminated()) {
+      if (isCancelled()) {
+        executor.shutdownNow();
+        break;
+      }
+      executor.awaitTermination(PUBLISH_INTERVAL, TimeUnit.MILLISECONDS);
+      long now = System.currentTimeMillis();
+      if (now - lastPublished >= PUBLISH_INTERVAL) {
+        publish();
+        updateProgress(checked.get(), size);
+        lastPublished = now;
+      }
+    }
+
+    if (! isCancelled()) {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    }
+    publish();
+    updateProgress(checked.get(), size);
+    return hits;
+  }
+
+  /**
+   Search every step-th note, starting with the first.
+  */
+  private void searchSlice(int first, int step) {
+    NoteSearcher sliceSearcher = searcher.copy();
+    for (int i = first; i < notes.size(); i = i + step) {
+      if (isCancelled() || Thread.currentThread().isInterrupted()) {
+        return;
+      }
+      SearchResult result = sliceSearcher.search(notes.get(i), positions[i]);
+      if (result != null) {
+        found.add(result);
+      }
+      checked.incrementAndGet();
+    }
+  }
+
+  /**
+   Send any results found since the last batch to the results window.
+  */
+  private void publish() {
+    if (found.isEmpty() || isCancelled()) {
+      return;
+    }
+    ArrayList<SearchResult> batch = new ArrayList<SearchResult>();
+    SearchResult result = found.poll();
+    while (result != null) {
+      batch.add(result);
+      result = found.poll();
+    }
+    hits = hits + batch.size();
+    Platform.runLater(() -> resultsWindow.addResults(this, batch));
+  }
+
+}
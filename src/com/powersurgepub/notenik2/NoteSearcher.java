@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.notenik.*;
+
+/**
+ Searches notes one at a time for what the user has entered in the tool
+ bar, honouring the options set in the Find and Replace window: a plain
+ string, a regular expression, or a multi-term query (see NoteQuery). Both
+ Find All and Search All Collections search through one of these, so the
+ same search finds the same notes in either.
+
+ A searcher keeps matching state, so each thread should use its own copy.
+ */
+public class NoteSearcher {
+
+  private     String              findString;
+  private     boolean             checkTitle;
+  private     boolean             checkLink;
+  private     boolean             checkTags;
+  private     boolean             checkBody;
+  private     boolean             caseSensitive;
+  private     boolean             regex;
+  private     boolean             query;
+
+  private     FieldMatcher        matcher = null;
+  private     NoteQuery           noteQuery = null;
+
+  /**
+   Prepare a search, compiling the find string or query.
+
+   @param findString    The string, expression or query entered.
+   @param checkTitle    Should we check the title of the Note?
+   @param checkLink     Should we check the link of the Note?
+   @param checkTags     Should we check the tags of the Note?
+   @param checkBody     Should we check the body of the Note?
+   @param caseSensitive Should we do a case-sensitive comparison?
+   @param regex         Is the find string a regular expression?
+   @param query         Is the find string a multi-term query?
+
+   @throws java.util.regex.PatternSyntaxException
+     If a regular expression is invalid.
+  */
+  public NoteSearcher(
+      String findString,
+      boolean checkTitle,
+      boolean checkLink,
+      boolean checkTags,
+      boolean checkBody,
+      boolean caseSensitive,
+      boolean regex,
+      boolean query) {
+
+    this.findString = findString;
+    this.checkTitle = checkTitle;
+    this.checkLink = checkLink;
+    this.checkTags = checkTags;
+    this.checkBody = checkBody;
+    this.caseSensitive = caseSensitive;
+    this.regex = regex;
+    this.query = query;
+    if (query) {
+      noteQuery = new NoteQuery(findString, caseSensitive);
+    } else {
+      matcher = new FieldMatcher(findString, caseSensitive, regex);
+    }
+  }
+
+  /**
+   Return a fresh searcher for the same search, for use on another thread.
+
+   @return A copy of this searcher.
+  */
+  public NoteSearcher copy() {
+    return new NoteSearcher(findString, checkTitle, checkLink, checkTags,
+        checkBody, caseSensitive, regex, query);
+  }
+
+  public String getFindString() {
+    return findString;
+  }
+
+  /**
+   Can the trigram indexes be used to rule notes out? Only when searching
+   for a plain string.
+
+   @return True if the find string is neither an expression nor a query.
+  */
+  public boolean isLiteral() {
+    return (! regex) && (! query);
+  }
+
+  /**
+   Search a single note.
+
+   @param note     The note to be searched. May be null.
+   @param position The note's position within its collection.
+
+   @return A search result, or null if the note doesn't match. A note
+           matching a query is shown with the start of its title.
+  */
+  public SearchResult search(Note note, int position) {
+    if (noteQuery == null) {
+      return SearchResult.search(note, position, matcher,
+          checkTitle, checkLink, checkTags, checkBody);
+    }
+    if (note == null
+        || (! noteQuery.hasTerms())
+        || (! noteQuery.matches(note,
+            checkTitle, checkLink, checkTags, checkBody))) {
+      return null;
+    }
+    return new SearchResult(note, position, NoteParms.TITLE_FIELD_NAME,
+        note.getTitle(), 0, 0);
+  }
+
+}
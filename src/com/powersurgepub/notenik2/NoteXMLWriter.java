@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.notenik.*;
+  import com.powersurgepub.psutils2.records.*;
+
+  import java.io.*;
+  import java.nio.charset.*;
+  import java.nio.file.*;
+
+  import javax.xml.stream.*;
+
+/**
+ Writes notes to an XML file as a stream, one note at a time, so that the
+ size of the file makes no difference to the memory used. The output is a
+ notenik element containing a note element for each note, with an element
+ for each field that has data, and can be read back with NoteImportXML.
+ */
+public class NoteXMLWriter {
+
+  /** Size of the buffer between the XML writer and the disk. */
+  public static final int     BUFFER_SIZE = 64 * 1024;
+
+  private     File                xmlFile;
+  private     Writer              out = null;
+  private     XMLStreamWriter     xml = null;
+
+  /**
+   Prepare to write to the given file.
+
+   @param xmlFile The file to be written.
+  */
+  public NoteXMLWriter(File xmlFile) {
+    this.xmlFile = xmlFile;
+  }
+
+  /**
+   Open the file and write everything that comes before the first note.
+
+   @param comment A comment to identify the program writing the file.
+
+   @throws IOException If the file could not be opened or written.
+  */
+  public void open(String comment) throws IOException {
+    out = new BufferedWriter(new OutputStreamWriter(
+        Files.newOutputStream(xmlFile.toPath()), StandardCharsets.UTF_8),
+        BUFFER_SIZE);
+    try {
+      xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+      xml.writeStartDocument("UTF-8", "1.0");
+      newLine(0);
+      xml.writeComment(" " + comment + " ");
+      newLine(0);
+      xml.writeStartElement(NoteExport.NOTENIK);
+    } catch (XMLStreamException e) {
+      out.close();
+      xml = null;
+      out = null;
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   Write one note, with an element for each field that has data.
+
+   @param note The note to be written.
+
+   @throws IOException If the note could not be written.
+  */
+  public void write(Note note) throws IOException {
+    try {
+      newLine(1);
+      xml.writeStartElement(NoteExport.NOTE);
+      for (int i = 0; i < note.getNumberOfFields(); i++) {
+        DataField nextField = note.getField(i);
+        if (nextField != null
+            && nextField.hasData()) {
+          newLine(2);
+          xml.writeStartElement(nextField.getCommonFormOfName());
+          xml.writeCharacters(nextField.getData());
+          xml.writeEndElement();
+        }
+      }
+      newLine(1);
+      xml.writeEndElement();
+    } catch (XMLStreamException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   Finish the document and close the file.
+
+   @throws IOException If the file could not be written or closed.
+  */
+  public void close() throws IOException {
+    try {
+      if (xml != null) {
+        newLine(0);
+        xml.writeEndElement();
+        newLine(0);
+        xml.writeEndDocument();
+        xml.close();
+      }
+    } catch (XMLStreamException e) {
+      throw new IOException(e);
+    } finally {
+      if (out != null) {
+        out.close();
+      }
+      xml = null;
+      out = null;
+    }
+  }
+
+  private void newLine(int level) throws XMLStreamException {
+    xml.writeCharacters("\n");
+    for (int i = 0; i < level; i++) {
+      xml.writeCharacters("  ");
+    }
+  }
+
+}
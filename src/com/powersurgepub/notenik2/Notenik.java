@@ -40,6 +40,7 @@ package com.powersurgepub.notenik2;
   import java.net.*;
   import java.text.*;
   import java.util.*;
+  import java.util.function.*;
 
   import javafx.application.*;
   import javafx.beans.value.*;
@@ -97,6 +98,15 @@ public class Notenik
 
   public static final String INVALID_URL_TAG = "Invalid URL";
   
+  /** Preference key for updating existing notes with imported ones. */
+  public static final String IMPORT_UPDATE_EXISTING = "import-update-existing";
+  
+  /** Number of notes with invalid links to be tagged in a single batch. */
+  public static final int    INVALID_LINK_BATCH_SIZE = 250;
+  
+  /** Longest time to wait for a cancelled operation when quitting. */
+  public static final int    OPERATION_STOP_WAIT = ONE_SECOND * 10;
+  
   public static final String URLUNION_FILE_NAME           = "urlunion.html";
   public static final String INDEX_FILE_NAME              = "index.html";
   public static final String FAVORITES_FILE_NAME          = "favorites.html";
@@ -138,6 +148,8 @@ public class Notenik
   // private             NotePositioned      position = null;
   private             boolean             modified = false;
   private             boolean             opInProgress = false;
+  /** Number of times a collection has been closed. */
+  private             int                 closes = 0;
   private             boolean             unsavedChanges = false;
   private             int                 listPosition = 0;
   private             String              lastGoodTitle = "";
@@ -176,12 +188,14 @@ public class Notenik
   private             MenuItem              publishWindowMenuItem;
   private             MenuItem              publishNowMenuItem;
   private             Menu                  importMenu;
+  private             CheckMenuItem           importUpdateExistingMenuItem;
   private             MenuItem                importMacAppInfo;
   private             MenuItem                importNotenikMenuItem;
   private             MenuItem                importTabDelimitedMenuItem;
   private             MenuItem                importXMLMenuItem;
   private             Menu                  exportMenu;
   private             MenuItem                exportNotenikMenuItem;
+  private             MenuItem                exportNotenikIncrementalMenuItem;
   private             MenuItem                exportOPML;
   private             MenuItem                exportTabDelimitedMenuItem;
   private             MenuItem                exportTabDelimitedMSMenuItem;
@@ -193,11 +207,15 @@ public class Notenik
   private             MenuItem              collectionTemplateMenuItem;
   private             MenuItem              findMenuItem;
   private             MenuItem              findAgainMenuItem;
+  private             MenuItem              findAllMenuItem;
+  private             MenuItem              searchAllMenuItem;
+  private             CheckMenuItem         filterMenuItem;
   private             MenuItem              replaceMenuItem;
   private             MenuItem              addReplaceTagsMenuItem;
   private             MenuItem              flattenTagsMenuItem;
   private             MenuItem              lowerCaseTagsMenuItem;
   private             MenuItem              validateURLsMenuItem;
+  private             MenuItem              validateFileLinksMenuItem;
   private             MenuItem              catchUpDailyMenuItem;
   
   private             Menu                sortMenu        = new Menu("Sort");
@@ -273,14 +291,14 @@ public class Notenik
   public static final int                   TAGS_TAB_INDEX = 1;
   private             Tab                 listTab;
   private             BorderPane          listPane = null;
-  private             TableView           noteTable;
+  private             TableView<SortedNote> noteTable;
   private             TableViewSelectionModel<SortedNote> selModel;
   private             ObservableList<Integer> selected;
   
   private             Tab                 tagsTab;
   private             BorderPane          treePane = null;
-  private             TreeView            noteTree;
-  private             MultipleSelectionModel<SortedNote> treeSelModel;
+  private             TreeView<TagsNodeValue> noteTree;
+  private             MultipleSelectionModel<TreeItem<TagsNodeValue>> treeSelModel;
   private             ObservableList<Integer> treeSelected;
   private             HBox                treeButtonsPane;
   private             Button              expandAllButton;
@@ -296,6 +314,9 @@ public class Notenik
   private             EditPane            editPane;
   
   private             StatusBar           statusBar;
+  private             OperationRunner     operations;
+  private             RecurrenceScheduler recurrenceScheduler 
+      = new RecurrenceScheduler(() -> scheduledCatchUp());
   
   private             WindowMenuManager   windowMenuManager;
   
@@ -342,6 +363,9 @@ public class Notenik
   // Replace Window
   private             ReplaceWindow       replaceWindow;
   
+  // Find All Results Window
+  private             SearchResultsWindow searchResultsWindow;
+  
   // File Info Window
   private             FileInfoWindow      fileInfoWindow;
 
@@ -361,8 +385,6 @@ public class Notenik
 
   private DateFormat    longDateFormatter
       = new SimpleDateFormat ("EEEE MMMM d, yyyy");
-  private    DateFormat       dateFormatter
-    = new SimpleDateFormat ("yyyy-MM-dd");
 
   
   // The following fields define the fields in the collection. 
@@ -380,18 +402,41 @@ public class Notenik
   
   private             Note                foundNote = null;
   
-  private             StringBuilder       titleBuilder = new StringBuilder();
+  /** Compiled matcher for the current search string. */
+  private             FieldMatcher        findMatcher = null;
+  
   private             int                 titleStart = -1;
-  private             StringBuilder       linkBuilder = new StringBuilder();
+  private             int                 titleEnd = -1;
   private             int                 linkStart = -1;
-  private             StringBuilder       tagsBuilder = new StringBuilder();
+  private             int                 linkEnd = -1;
   private             int                 tagsStart = -1;
-  private             StringBuilder       bodyBuilder = new StringBuilder();
+  private             int                 tagsEnd = -1;
   private             int                 bodyStart = -1;
+  private             int                 bodyEnd = -1;
+
+  /** Compiled multi-term query, and the Notes it matched, for Find Again. */
+  private             NoteQuery           findQuery = null;
+  private             Set<Note>           queryMatches = null;
+  private             String              queryFields = "";
+  private             int                 queryVersion = -1;
+
+  /** Trigram index used to narrow the notes to be checked by findNote. */
+  private             NoteSearchIndex     searchIndex = new NoteSearchIndex();
+  
+  /** Narrows the list and tree as the user types in the find field. */
+  private             NoteFilter          noteFilter = new NoteFilter(searchIndex);
 
   // Fields used to validate Web Page Notes
-  private             ThreadGroup         webPageGroup;
-  private             ArrayList<URLValidator> urlValidators;
+  private             LinkValidator       linkValidator = new LinkValidator();
+  private             ArrayList<Note>     notesWithLinks;
+  private             ArrayList<Note>     notesWithInvalidLinks = null;
+  
+  /** Folders last found to be, or not to be, collections, by path. */
+  private             HashMap<String, Boolean> collectionLinks 
+      = new HashMap<String, Boolean>();
+  /** Modification times of those folders when they were checked. */
+  private             HashMap<String, Long> collectionLinksModified
+      = new HashMap<String, Long>();
   private             int                 linksToCheck = 0;
   private             int                 linksChecked = 0;
   private             int                 deadLinks = 0;
@@ -432,6 +477,8 @@ public class Notenik
     
     statusBar = new StatusBar();
     primaryLayout.getChildren().add(statusBar.getPane());
+    operations = new OperationRunner(statusBar);
+    primaryLayout.getChildren().add(operations.getPane());
     
     primaryScene = new Scene(primaryLayout, 600, 400);
     
@@ -521,6 +568,7 @@ public class Notenik
     collectionPrefs.setScene();
     
     exporter = new NoteExport(this);
+    exporter.setTagIndex(searchIndex.getTagIndex());
     
     filePrefs.setRecentFiles(model.getMaster().getRecentFiles());
     model.getMaster().registerMenu(openRecentMenu, this);
@@ -560,6 +608,8 @@ public class Notenik
     
     replaceWindow = new ReplaceWindow(this);
     
+    searchResultsWindow = new SearchResultsWindow(this);
+    
     linkTweaker = new LinkTweaker(this, tweakerPrefs, primaryStage);
 
     listWrangler = new ListWrangler(this);
@@ -741,7 +791,7 @@ public class Notenik
     fileBackupMenuItem.setOnAction(e ->
       {
         if (model.isOpen() && model.size() > 0) {
-          promptForBackup();
+          backupInBackground();
         } else {
           trouble.report(
               primaryStage,
@@ -841,6 +891,14 @@ public class Notenik
     importMenu = new Menu("Import");
     fileMenu.getItems().add(importMenu);
 
+    importUpdateExistingMenuItem = new CheckMenuItem("Update Existing Notes");
+    importUpdateExistingMenuItem.setSelected
+        (userPrefs.getPrefAsBoolean(IMPORT_UPDATE_EXISTING, false));
+    importUpdateExistingMenuItem.setOnAction(e -> userPrefs.setPref
+        (IMPORT_UPDATE_EXISTING, importUpdateExistingMenuItem.isSelected()));
+    importMenu.getItems().add(importUpdateExistingMenuItem);
+    fxUtils.addSeparator(importMenu);
+
     importMacAppInfo = new MenuItem("Mac App Info...");
     importMacAppInfo.setOnAction(e -> importMacAppInfo());
     importMenu.getItems().add(importMacAppInfo);
@@ -866,6 +924,11 @@ public class Notenik
         (e -> generalExport(NoteExport.NOTENIK_EXPORT));
     exportMenu.getItems().add(exportNotenikMenuItem);
 
+    exportNotenikIncrementalMenuItem = new MenuItem("Notenik Incremental...");
+    exportNotenikIncrementalMenuItem.setOnAction
+        (e -> generalExport(NoteExport.NOTENIK_INCREMENTAL_EXPORT));
+    exportMenu.getItems().add(exportNotenikIncrementalMenuItem);
+
     exportOPML = new MenuItem("OPML...");
     exportOPML.setOnAction(e -> generalExport(NoteExport.OPML_EXPORT));
     exportMenu.getItems().add(exportOPML);
@@ -917,6 +980,24 @@ public class Notenik
     findAgainMenuItem.setDisable(true);
     collectionMenu.getItems().add(findAgainMenuItem);
 
+    // Find All Menu Item
+    findAllMenuItem = new MenuItem("Find All...");
+    KeyCombination fakc = new KeyCharacterCombination("F", 
+        KeyCombination.SHORTCUT_DOWN, KeyCombination.SHIFT_DOWN);
+    findAllMenuItem.setAccelerator(fakc);
+    findAllMenuItem.setOnAction(e -> findAll());
+    collectionMenu.getItems().add(findAllMenuItem);
+
+    // Search All Collections Menu Item
+    searchAllMenuItem = new MenuItem("Search All Collections...");
+    searchAllMenuItem.setOnAction(e -> searchAllCollections());
+    collectionMenu.getItems().add(searchAllMenuItem);
+
+    // Filter as You Type Menu Item
+    filterMenuItem = new CheckMenuItem("Filter as You Type");
+    filterMenuItem.setOnAction(e -> filterModeChanged());
+    collectionMenu.getItems().add(filterMenuItem);
+
     // Replace Menu Item
     replaceMenuItem = new MenuItem("Replace...");
     KeyCombination rkc
@@ -948,6 +1029,10 @@ public class Notenik
     validateURLsMenuItem = new MenuItem("Validate Links...");
     validateURLsMenuItem.setOnAction(e -> validateURLs());
     collectionMenu.getItems().add(validateURLsMenuItem);
+    
+    validateFileLinksMenuItem = new MenuItem("Validate File Links");
+    validateFileLinksMenuItem.setOnAction(e -> validateFileLinks());
+    collectionMenu.getItems().add(validateFileLinksMenuItem);
 
     fxUtils.addSeparator(collectionMenu);
 
@@ -1292,6 +1377,7 @@ public class Notenik
       opInProgress = true;
       newNote.setLastModDateToday();
       model.add(newNote);
+      searchIndex.add(newNote);
       model.select(newNote);
       positionAndDisplaySelection();
       opInProgress = false;
@@ -1402,6 +1488,11 @@ public class Notenik
     findText.setTooltip(new Tooltip("Enter some text you'd like to find"));
     findText.textProperty().addListener(this::findTextChanged);
     findText.setOnAction(e -> findTextAction());
+    findText.setOnKeyPressed(e -> {
+      if (e.getCode() == KeyCode.ESCAPE) {
+        cancelFindAll();
+      }
+    });
     toolBar.getItems().add(findText);
         
     findButton = new Button("Find");
@@ -1533,6 +1624,8 @@ public class Notenik
     
     tagsTab.setContent(treePane);
     
+    noteFilter.setViews(model, noteTable, noteTree);
+    
     boolean hasDate = model.getRecDef().contains(NoteParms.DATE_FIELD_NAME);
     boolean hasSeq = model.getRecDef().contains(NoteParms.SEQ_FIELD_NAME);
     int sortParm = model.getSortParm().getParm();
@@ -1926,10 +2019,20 @@ public class Notenik
   private void closeFile() {
    
     savePrefs();
+    recurrenceScheduler.stop();
+    // Don't wait for the operation to stop: its callbacks will see that the
+    // collection has been closed, and leave the next one alone
+    closes++;
+    operations.cancel();
+    linkValidator.cancel();
+    RenderCache.getShared().close();
     if (model.isOpen()) {
       publishWindow.closeSource();
       model.close();
     }
+    cancelFindAll();
+    noteFilter.clear();
+    searchIndex.clear();
     noteDisplayed = false;
     searchForCollectionsMenuItem.setDisable(true);
   }
@@ -1953,7 +2056,7 @@ public class Notenik
     
     if (model.getSelection().hasLink()) {
       File linkAsFile = model.getSelection().getLinkAsFile();
-      boolean linkPointsToCollection = CollectionFinderTask.isThisACollection(linkAsFile);
+      boolean linkPointsToCollection = isCollectionLink(linkAsFile);
       if (model.editingMasterCollection() || linkPointsToCollection) {
         displayPane.displayLink(
           this,
@@ -2333,12 +2436,151 @@ public class Notenik
     return model.backupZipWithoutPrompt();
   }
   
+  /**
+   Prompt the user for a backup location, then backup and prune on a 
+   background thread, reporting the results in the status bar. 
+  */
+  private void backupInBackground() {
+    
+    BackupInfo backupInfo = model.getBackupInfo();
+    boolean modOK = false;
+    if (opInProgress) {
+      System.out.println("Notenik.backupInBackground operation in progress = " 
+          + String.valueOf(opInProgress));
+    } else {
+      modOK = modIfChanged();
+    }
+
+    if (modOK) {
+      File selectedFile = backupInfo.letUserChooseBackupFile(primaryStage);
+      if (backupInfo.okSoFar()) {
+        Task<Boolean> task = new Task<Boolean>() {
+          @Override
+          protected Boolean call() throws Exception {
+            backupInfo.backupToZip();
+            return backupInfo.okSoFar();
+          }
+        };
+        runOperation("Backup", task, ok -> {
+          model.setBackupFolder(backupInfo.getBackupFolder());
+          if (ok) {
+            model.saveLastBackupDate();
+            backupInfo.pruneBackups();
+            backupInfo.backupsComplete();
+            reportOperation("Collection backed up to " 
+                + new File(backupInfo.getBackupFolder(), 
+                    backupInfo.getBackupFileName()).toString());
+          } else {
+            statusBar.setStatus("Backup problems");
+          }
+        });
+      } // end if the user selected a backup location
+    } // end if modIfChanged had no problems
+  }
+  
+  /**
+   Run a long operation on a background thread, showing its progress in 
+   the status bar. The opInProgress guard is held until the operation 
+   succeeds, fails or is cancelled, so that nothing else can change the 
+   collection in the meantime. 
+  
+   @param name        The name of the operation, as shown to the user. 
+   @param task        The work to be done. 
+   @param onSucceeded Called on the FX thread with the task's value, after 
+                      the guard has been released. 
+  
+   @return True if the operation was started. 
+  */
+  private <T> boolean runOperation(String name, Task<T> task, Consumer<T> onSucceeded) {
+    return runOperation(name, task, onSucceeded, null);
+  }
+  
+  /**
+   Run a long operation on a background thread, as above, with something
+   more to be done however the operation ends. 
+  
+   @param name        The name of the operation, as shown to the user. 
+   @param task        The work to be done. 
+   @param onSucceeded Called on the FX thread with the task's value, after 
+                      the guard has been released. 
+   @param onFinished  Called on the FX thread when the task succeeds, fails
+                      or is cancelled, after the guard has been released and
+                      before onSucceeded. May be null. Neither callback is 
+                      called if the collection has been closed meanwhile. 
+  
+   @return True if the operation was started. 
+  */
+  private <T> boolean runOperation(
+      String name, 
+      Task<T> task, 
+      Consumer<T> onSucceeded, 
+      Runnable onFinished) {
+    opInProgress = true;
+    int closesAtStart = closes;
+    // Judged once the task ends, since onFinished may reopen the collection
+    boolean[] stillOpen = { true };
+    boolean started = operations.run(name, task, value -> {
+      if (onSucceeded != null && stillOpen[0]) {
+        onSucceeded.accept(value);
+      }
+    }, () -> {
+      opInProgress = false;
+      stillOpen[0] = (closes == closesAtStart);
+      if (onFinished != null && stillOpen[0]) {
+        onFinished.run();
+      }
+    });
+    if (! started) {
+      opInProgress = false;
+    }
+    return started;
+  }
+  
+  /**
+   Run a long operation on a background thread without holding the 
+   opInProgress guard, so that the user can go on working with the 
+   collection meanwhile. The task must work only with copies of whatever it
+   needs from the collection, taken on the FX thread before it is started. 
+   Only one operation can run at a time, whether or not it holds the guard.
+  
+   @param name        The name of the operation, as shown to the user. 
+   @param task        The work to be done. 
+   @param onSucceeded Called on the FX thread with the task's value, unless
+                      the collection has been closed in the meantime. 
+  
+   @return True if the operation was started. 
+  */
+  private <T> boolean runBackground(
+      String name, 
+      Task<T> task, 
+      Consumer<T> onSucceeded) {
+    int closesAtStart = closes;
+    return operations.run(name, task, value -> {
+      if (closes == closesAtStart) {
+        onSucceeded.accept(value);
+      }
+    }, null);
+  }
+  
+  /**
+   Report the results of a long operation in the status bar and the log, 
+   rather than interrupting the user with an alert. 
+  
+   @param results A description of the results. 
+  */
+  private void reportOperation(String results) {
+    statusBar.setStatus(results);
+    Logger.getShared().recordEvent(LogEvent.NORMAL, results, false);
+  }
+  
  /**
    Check to see if the user has changed anything and take appropriate
    actions if so.
    */
   private boolean modIfChanged () {
     
+    // Hold the guard without releasing one already held by someone else
+    boolean wasInProgress = opInProgress;
     opInProgress = true;
     boolean modOK = true;
     
@@ -2392,11 +2634,12 @@ public class Notenik
           // Modify newNote on disk
           model.modifySelection();
           model.updateSelection();
+          searchIndex.update(model.getSelection());
         }
       } // end if modified
     }
     modified = false;
-    opInProgress = false;
+    opInProgress = wasInProgress;
     return modOK;
   } // end modIfChanged method
   
@@ -2573,6 +2816,7 @@ public class Notenik
     } else {
       boolean okToDelete = true;
       String titleToDelete = model.getSelection().getTitle();
+      Note noteToDelete = model.getSelection();
       if (generalPrefs.confirmDeletes()) {
         Alert alert = new Alert(AlertType.CONFIRMATION);
         alert.setTitle("Delete Confirmation");
@@ -2597,6 +2841,7 @@ public class Notenik
         }
         boolean deleted = model.removeSelection();
         if (deleted) {
+          searchIndex.remove(noteToDelete);
           model.select(nextTitle);
           positionAndDisplaySelection();
         } else {
@@ -2643,27 +2888,16 @@ public class Notenik
     }
 
     if (modOK) {
-      initialSelection = model.getSelection();
-      int mods = 0;
-      for (int workIndex = model.firstNote(); 
-          (workIndex >= 0 && workIndex < model.size()); 
-          workIndex = model.nextNote(workIndex)) {
-        model.select(workIndex);
-        model.getSelection().getTags().replace (from, to);
-        if (model.tagsChanged()) {
-          mods++;
-          model.modifySelection();
-        }
-      }
-      
-      Alert alert = new Alert(AlertType.INFORMATION);
-      alert.setTitle("Tags Replacement Results");
-      alert.setHeaderText(null);
-      alert.setContentText(String.valueOf (mods)
-            + " tags changed");
-      alert.showAndWait();
-
-      selectPositionAndDisplay(initialSelection);
+      String selectedTitle = model.getSelectedTitle();
+      NoteBatch batch = new NoteBatch(model, searchIndex, null, null);
+      TagIndex tagIndex = searchIndex.getTagIndex();
+      Task<Integer> task = batch.asTask(
+          tagIndex.select(model, tagIndex.getCandidates(from)),
+          NoteBatch.changingTags(note -> note.getTags().replace(from, to)));
+      runOperation("Add/Replace Tags", task, mods -> {
+        reportOperation(String.valueOf(mods) + " tags changed");
+        selectTitle(selectedTitle);
+      }, () -> reopenCollection());
     }
   }
 
@@ -2678,27 +2912,16 @@ public class Notenik
     }
 
     if (modOK) {
-      initialSelection = model.getSelection();
-      int mods = 0;
-      for (int workIndex = model.firstNote(); 
-          workIndex >= 0 && workIndex < model.size(); 
-          workIndex = model.nextNote(workIndex)) {
-        model.select(workIndex);
-        model.getSelection().flattenTags();
-        if (model.tagsChanged()) {
-          mods++;
-          model.modifySelection();
-        }
-      }
-      
-      Alert alert = new Alert(AlertType.INFORMATION);
-      alert.setTitle("Flatten Tags Results");
-      alert.setHeaderText(null);
-      alert.setContentText(String.valueOf (mods)
-            + " tags flattened");
-      alert.showAndWait();
-      
-      selectPositionAndDisplay(initialSelection);
+      String selectedTitle = model.getSelectedTitle();
+      NoteBatch batch = new NoteBatch(model, searchIndex, null, null);
+      TagIndex tagIndex = searchIndex.getTagIndex();
+      Task<Integer> task = batch.asTask(
+          tagIndex.select(model, tagIndex.getMultiLevelNotes()),
+          NoteBatch.changingTags(note -> note.flattenTags()));
+      runOperation("Flatten Tags", task, mods -> {
+        reportOperation(String.valueOf(mods) + " tags flattened");
+        selectTitle(selectedTitle);
+      }, () -> reopenCollection());
     }
   }
 
@@ -2713,27 +2936,16 @@ public class Notenik
     }
 
     if (modOK) {
-      initialSelection = model.getSelection();
-      int mods = 0;
-      for (int workIndex = model.firstNote(); 
-          workIndex >= 0 && workIndex < model.size(); 
-          workIndex = model.nextNote(workIndex)) {
-        model.select(workIndex);
-        model.getSelection().lowerCaseTags();
-        if (model.tagsChanged()) {
-          mods++;
-          model.modifySelection();
-        }
-      }
-      
-      Alert alert = new Alert(AlertType.INFORMATION);
-      alert.setTitle("Lower Case Tags Results");
-      alert.setHeaderText(null);
-      alert.setContentText(String.valueOf (mods)
-            + " tags changed to lower case");
-      alert.showAndWait();
-      
-      selectPositionAndDisplay(initialSelection);
+      String selectedTitle = model.getSelectedTitle();
+      NoteBatch batch = new NoteBatch(model, searchIndex, null, null);
+      TagIndex tagIndex = searchIndex.getTagIndex();
+      Task<Integer> task = batch.asTask(
+          tagIndex.select(model, tagIndex.getUpperCaseNotes()),
+          NoteBatch.changingTags(note -> note.lowerCaseTags()));
+      runOperation("Lower Case Tags", task, mods -> {
+        reportOperation(String.valueOf(mods) + " tags changed to lower case");
+        selectTitle(selectedTitle);
+      }, () -> reopenCollection());
     }
   } 
   
@@ -2744,7 +2956,12 @@ public class Notenik
   
   /**
     Replace all occurrences of the given text string with a 
-    specified replacement.
+    specified replacement. The collection is scanned once, every occurrence
+    within each selected field is replaced, and each changed Note is saved
+    once. The views are refreshed at the end. Unless titles are to be
+    changed, the Notes are changed and saved as a background operation, 
+    after which the collection is opened again. The results are reported
+    in the status bar. 
    
     @param findString    The string we're searching for. 
     @param replaceString The string to replace the find string. 
@@ -2753,59 +2970,93 @@ public class Notenik
     @param checkTags     Should we check the tags of the URL item?
     @param checkBody Should we check the comments?
     @param caseSensitive Should we do a case-sensitive comparison?
+    @param regex         Is the find string a regular expression?
   
+    @return The number of Notes modified, or to be modified by the 
+            background operation. 
   */
-  public int replaceAll (String findString, String replaceString, 
-      boolean checkTitle, 
-      boolean checkLink, 
-      boolean checkTags, 
+  public int replaceAll (String findString, String replaceString,
+      boolean checkTitle,
+      boolean checkLink,
+      boolean checkTags,
       boolean checkBody,
-      boolean caseSensitive) {
+      boolean caseSensitive,
+      boolean regex) {
     
-    int itemsChanged = 0;
-    boolean found = true;
-    findButton.setText(FIND);
-    findAgainMenuItem.setDisable(true);
-    while (found) {
-      found = findNote (
-        findButton.getText(),
-        findString, 
-        checkTitle, 
-        checkLink, 
-        checkTags,
-        checkBody,
-        caseSensitive,
-        false);
-      if (found) {
-        boolean replaced = replaceNote(
-            findString, 
-            replaceString, 
-            checkTitle, 
-            checkLink, 
-            checkTags, 
-            checkBody);
-        if (replaced) {
-          itemsChanged++;
-        }
-      } // end if another item found
-    } // end while more matching Notes found
+    boolean modOK = false;
+    if (opInProgress) {
+      System.out.println("Notenik.replaceAll operation in progress = " 
+          + String.valueOf(opInProgress));
+    } else {
+      modOK = modIfChanged();
+    }
+    if (! modOK) {
+      statusBar.setStatus("Replace All not done: another operation is in progress");
+      return 0;
+    }
+    if (findString == null || findString.length() == 0) {
+      return 0;
+    }
     
+    noFindInProgress();
+    String selectedTitle = model.getSelectedTitle();
+    NoteReplacer replacer = null;
+    try {
+      replacer = new NoteReplacer(
+          findString,
+          replaceString,
+          checkTitle,
+          checkLink,
+          checkTags,
+          checkBody,
+          caseSensitive,
+          regex);
+    } catch (java.util.regex.PatternSyntaxException e) {
+      Trouble.getShared().report(e.getMessage(),
+          "Invalid Regular Expression");
+      return 0;
+    }
+
+    // First pass: identify the Notes to be changed. The trigram index
+    // can only help with a literal find string.
+    Set<Note> candidates = null;
+    if (! regex) {
+      candidates = searchIndex.getCandidates(findString);
+    }
+    ArrayList<Note> matches = new ArrayList<Note>();
+    for (int workIndex = 0; workIndex < model.size(); workIndex++) {
+      Note workNote = model.get(workIndex);
+      if (workNote != null
+          && searchIndex.isCandidate(workNote, candidates)
+          && replacer.matches(workNote)) {
+        matches.add(workNote);
+      }
+    }
+    if (matches.isEmpty()) {
+      reportOperation("No matching Notes found");
+      return 0;
+    }
     
-    if (itemsChanged == 0) {
-      PSOptionPane.showMessageDialog(primaryStage,
-          "No matching Notes found",
-          "OK",
-          javax.swing.JOptionPane.WARNING_MESSAGE);
-      statusBar.setStatus("No Notes found");
-    } else {
-      PSOptionPane.showMessageDialog(primaryStage,
-        String.valueOf (itemsChanged)
-          + " Notes modified",
-        "Replacement Results",
-        javax.swing.JOptionPane.INFORMATION_MESSAGE);
-      statusBar.setStatus(String.valueOf(itemsChanged) + " Notes modified");
+    // Now make the replacements, saving each Note once. Unless titles may
+    // change, which would rename the notes' files, the changed notes are 
+    // written in the background and the collection rebuilt once. 
+    if (! checkTitle) {
+      NoteBatch batch = new NoteBatch(model, searchIndex, null, null);
+      Task<Integer> task = batch.asTask(matches, replacer::replace);
+      runOperation("Replace All", task, mods -> {
+        reportOperation(String.valueOf(mods) + " Notes modified");
+        selectTitle(selectedTitle);
+      }, () -> reopenCollection());
+      return matches.size();
     }
     
+    opInProgress = true;
+    initialSelection = model.getSelection();
+    NoteBatch batch = new NoteBatch(model, searchIndex, noteTable, noteTree);
+    int itemsChanged = batch.apply(matches, replacer::replace);
+    opInProgress = false;
+    selectPositionAndDisplay(initialSelection);
+    reportOperation(String.valueOf(itemsChanged) + " Notes modified");
     return itemsChanged;
     
   } // end replaceAll method
@@ -2822,9 +3073,31 @@ public class Notenik
 	                    String newValue) {
     if (! findText.getText().equals (lastTextFound)) {
       noFindInProgress();
+    }
+    cancelFindAll();
+    if (filterMenuItem.isSelected()) {
+      noteFilter.queryChanged(
+          newValue, 
+          replaceWindow.titleSelected(), 
+          replaceWindow.linkSelected(), 
+          replaceWindow.tagsSelected(),
+          replaceWindow.bodySelected(),
+          replaceWindow.caseSensitive());
     }
 	}
   
+  /**
+   The user turned filtering as you type on or off. 
+  */
+  private void filterModeChanged() {
+    if (filterMenuItem.isSelected()) {
+      findTextChanged(findText.textProperty(), "", findText.getText());
+    } else {
+      noteFilter.clear();
+      positionSelection();
+    }
+  }
+  
   /**
    The user hit the Return / Enter key while in the tool bar search field. 
   */
@@ -2846,6 +3119,8 @@ public class Notenik
       replaceWindow.tagsSelected(),
       replaceWindow.bodySelected(),
       replaceWindow.caseSensitive(),
+      replaceWindow.regexSelected(),
+      replaceWindow.querySelected(),
       true);
       
     if (findText.getText().trim().length() == 0) {
@@ -2869,6 +3144,8 @@ public class Notenik
     @param checkTags   Should we check the tags of the Note?
     @param checkBody Should we check the body?
     @param caseSensitive Should we do a case-sensitive comparison?
+    @param regex       Is the find string a regular expression?
+    @param query       Is the find string a multi-term query? See NoteQuery.
     @param showDialogAtEnd Show a dialog to user when no remaining Notes found?
   */
   public boolean findNote (
@@ -2879,6 +3156,8 @@ public class Notenik
       boolean checkTags,
       boolean checkBody,
       boolean caseSensitive,
+      boolean regex,
+      boolean query,
       boolean showDialogAtEnd) {
         
     boolean modOK = false;
@@ -2900,22 +3179,45 @@ public class Notenik
           notFoundMessage = "No further Notes Found";
           listPosition = model.nextNote(listPosition);
         }
-        String findLower = findString.toLowerCase();
-        String findUpper = findString.toUpperCase();
+        Set<Note> candidates = null;
+        try {
+          if (query) {
+            candidates = getQueryMatches(findString, 
+                checkTitle, checkLink, checkTags, checkBody, caseSensitive);
+          } else {
+            if (findMatcher == null
+                || (! findMatcher.getFindString().equals(findString))
+                || findMatcher.isCaseSensitive() != caseSensitive
+                || findMatcher.isRegex() != regex) {
+              findMatcher = new FieldMatcher(findString, caseSensitive, regex);
+            }
+            if (! regex) {
+              candidates = searchIndex.getCandidates(findString);
+            }
+          }
+        } catch (java.util.regex.PatternSyntaxException e) {
+          Trouble.getShared().report(e.getMessage(), 
+              "Invalid Regular Expression");
+          listPosition = -1;
+        }
         while (listPosition >= 0
             && listPosition < model.size() 
             && (! found)) {
           Note noteCheck = model.get(listPosition);
-          found = findWithinNote(
-              noteCheck,
-              findString, 
-              checkTitle, 
-              checkLink, 
-              checkTags,
-              checkBody,
-              caseSensitive,
-              findLower,
-              findUpper);
+          if (query) {
+            found = (noteCheck != null && candidates.contains(noteCheck));
+            clearFindOffsets();
+          }
+          else
+          if (searchIndex.isCandidate(noteCheck, candidates)) {
+            found = findWithinNote(
+                noteCheck,
+                findMatcher, 
+                checkTitle, 
+                checkLink, 
+                checkTags,
+                checkBody);
+          }
           if (found) {
             foundNote = noteCheck;
           } else {
@@ -2946,84 +3248,52 @@ public class Notenik
   } // end method findNote
   
   /**
-    Check for a search string within the given Note Item. 
+    Check for a search string within the given Note Item. The offset of the
+    match within each field is recorded, for use by replaceNote. 
 
     @param noteToSearch The Note item to be checked. 
-    @param findString  The string we're searching for. 
+    @param matcher     The compiled matcher for the search string. 
     @param checkTitle  Should we check the title of the URL item?
     @param checkLink    Should we check the URL of the URL item?
     @param checkTags   Should we check the tags of the URL item?
     @param checkBody Should we check the comments?
-    @param caseSensitive Should we do a case-sensitive comparison?
-    @param findLower   The search string in all lower case.
-    @param findUpper   The search string in all upper case. 
     @return True if an item containing the search string was found. 
   */
   private boolean findWithinNote(
       Note noteToSearch, 
-      String findString, 
+      FieldMatcher matcher, 
       boolean checkTitle, 
       boolean checkLink, 
       boolean checkTags,
-      boolean checkBody,
-      boolean caseSensitive,
-      String findLower,
-      String findUpper) {
+      boolean checkBody) {
     
-    boolean found = false;
+    clearFindOffsets();
     
     if (checkTitle) {
-      titleBuilder = new StringBuilder(noteToSearch.getTitle());
-      if (caseSensitive) {
-        titleStart = titleBuilder.indexOf(findString);
-      } else {
-        titleStart = StringUtils.indexOfIgnoreCase (findLower, findUpper,
-            noteToSearch.getTitle(), 0);
-      }
-      if (titleStart >= 0) {
-        found = true;
-      }
+      titleStart = matcher.find(noteToSearch.getTitle());
+      titleEnd = matcher.getMatchEnd();
     }
 
     if (checkLink) {
-      linkBuilder = new StringBuilder(noteToSearch.getLinkAsString());
-      if (caseSensitive) {
-        linkStart = linkBuilder.indexOf(findString);
-      } else {
-        linkStart = StringUtils.indexOfIgnoreCase (findLower, findUpper,
-            noteToSearch.getLinkAsString(), 0);
-      }
-      if (linkStart >= 0) {
-        found = true;
-      }
+      linkStart = matcher.find(noteToSearch.getLinkAsString());
+      linkEnd = matcher.getMatchEnd();
     }
     
     if (checkTags) {
-      tagsBuilder = new StringBuilder(noteToSearch.getTagsAsString());
-      if (caseSensitive) {
-        tagsStart = tagsBuilder.indexOf(findString);
-      } else {
-        tagsStart = StringUtils.indexOfIgnoreCase (findLower, findUpper,
-            noteToSearch.getTagsAsString(), 0);
-      }
-      if (tagsStart >= 0) {
-        found = true;
-      }
+      tagsStart = matcher.find(noteToSearch.getTagsAsString());
+      tagsEnd = matcher.getMatchEnd();
     }
 
     if (checkBody) {
-      bodyBuilder = new StringBuilder(noteToSearch.getBody());
-      if (caseSensitive) {
-        bodyStart = bodyBuilder.indexOf(findString);
-      } else {
-        bodyStart = StringUtils.indexOfIgnoreCase (findLower, findUpper,
-            noteToSearch.getBody(), 0);
-      }
-      if (bodyStart >= 0) {
-        found = true;
-      }
+      bodyStart = matcher.find(noteToSearch.getBody());
+      bodyEnd = matcher.getMatchEnd();
     }
     
+    boolean found = (titleStart >= 0
+        || linkStart >= 0
+        || tagsStart >= 0
+        || bodyStart >= 0);
+    
     if (found) {
       foundNote = noteToSearch;
     } else {
@@ -3033,98 +3303,376 @@ public class Notenik
     return found;
   }
   
-  public WebPrefs getWebPrefs() {
-    return webPrefs;
-  }
-  
-  public String getLastTextFound() {
-    return lastTextFound;
-  }
-  
-  public void noFindInProgress() {
-    findButton.setText(FIND);
-    findAgainMenuItem.setDisable(true);
-    replaceWindow.noFindInProgress();
-  }
-  
-  public void findInProgress() {
-    findButton.setText(FIND_AGAIN);
-    findAgainMenuItem.setDisable(false);
-    replaceWindow.findInProgress();
-  }
-  
-  public void setFindText(String findString) {
-    this.findText.setText(findString);
+  /**
+   Forget the offsets of the last match. 
+  */
+  private void clearFindOffsets() {
+    titleStart = -1;
+    titleEnd = -1;
+    linkStart = -1;
+    linkEnd = -1;
+    tagsStart = -1;
+    tagsEnd = -1;
+    bodyStart = -1;
+    bodyEnd = -1;
   }
   
   /**
-    Replace the findString in a Note that has already been found. 
-  
-    @param replaceString The string to replace the found string. 
+   Return the Notes matching a multi-term query. The query is compiled and 
+   run over the collection once, and the results are kept for use by 
+   Find Again, until the query, the options or the collection change. 
+  
+   @param queryString   The query entered by the user. 
+   @param checkTitle    Should unqualified terms check the title?
+   @param checkLink     Should unqualified terms check the link?
+   @param checkTags     Should unqualified terms check the tags?
+   @param checkBody     Should unqualified terms check the body?
+   @param caseSensitive Should we do a case-sensitive comparison?
+  
+   @return The set of matching Notes. 
   */
-  public boolean replaceNote(
-      String findString,
-      String replaceString,
+  private Set<Note> getQueryMatches(
+      String queryString,
       boolean checkTitle, 
       boolean checkLink, 
       boolean checkTags,
-      boolean checkBody) {
+      boolean checkBody,
+      boolean caseSensitive) {
     
-    opInProgress = true;
-    boolean replaced = false;
-    if (foundNote != null 
-        && foundNote.equals(model.getSelection())) {
-      if (checkTitle && titleStart >= 0) {
-        titleBuilder.replace(titleStart, titleStart + findString.length(), 
-            replaceString);
-        foundNote.setTitle(titleBuilder.toString());
-        replaced = true;
-      }
-
-      if (checkLink && linkStart >= 0) {
-        linkBuilder.replace(linkStart, linkStart + findString.length(), 
-            replaceString);
-        foundNote.setLink(linkBuilder.toString());
-        replaced = true;
+    String fields = String.valueOf(checkTitle) + String.valueOf(checkLink)
+        + String.valueOf(checkTags) + String.valueOf(checkBody)
+        + String.valueOf(caseSensitive);
+    if (findQuery == null
+        || queryMatches == null
+        || (! findQuery.getQueryString().equals(queryString))
+        || (! queryFields.equals(fields))
+        || queryVersion != searchIndex.getVersion()) {
+      findQuery = new NoteQuery(queryString, caseSensitive);
+      queryFields = fields;
+      queryVersion = searchIndex.getVersion();
+      queryMatches 
+          = Collections.newSetFromMap(new IdentityHashMap<Note, Boolean>());
+      for (int workIndex = 0; workIndex < model.size(); workIndex++) {
+        Note workNote = model.get(workIndex);
+        if (workNote != null 
+            && findQuery.hasTerms()
+            && findQuery.matches(workNote, 
+                checkTitle, checkLink, checkTags, checkBody)) {
+          queryMatches.add(workNote);
+        }
       }
+    }
+    return queryMatches;
+  }
+  
+  /**
+    Find all Notes containing the search string in the tool bar, using a
+    background task, and list them in the Find All Results window as they
+    are found. 
+  */
+  private void findAll() {
+    
+    boolean modOK = false;
+    if (opInProgress) {
+      System.out.println("Notenik.findAll operation in progress = " 
+          + String.valueOf(opInProgress));
+    } else {
+      modOK = modIfChanged();
+    }
+    String findString = findText.getText().trim();
+    if (findString.length() == 0) {
+      findText.requestFocus();
+      statusBar.setStatus("Enter a search string");
+    }
+    else
+    if (modOK && model.isOpen()) {
       
-      if (checkTags && tagsStart >= 0) {
-        tagsBuilder.replace(tagsStart, tagsStart + findString.length(), 
-            replaceString);
-        foundNote.setTags(tagsBuilder.toString());
-        replaced = true;
+      NoteSearcher searcher = newSearcher(findString);
+      if (searcher == null) {
+        return;
       }
       
-      if (checkBody && bodyStart >= 0) {
-        bodyBuilder.replace(bodyStart, bodyStart + findString.length(), 
-            replaceString);
-        foundNote.setBody(bodyBuilder.toString());
-        replaced = true;
+      // Take a snapshot of the candidate Notes while on the FX thread. The 
+      // trigram index can only help with a plain find string.
+      Set<Note> candidates = null;
+      if (searcher.isLiteral()) {
+        candidates = searchIndex.getCandidates(findString);
       }
-      
-      if (replaced) {
-        model.modifySelection();
-        positionAndDisplaySelection();
-        statusBar.setStatus("Replacement made");
+      ArrayList<Note> notesToSearch = new ArrayList<Note>();
+      ArrayList<Integer> positions = new ArrayList<Integer>();
+      for (int workIndex = 0; workIndex < model.size(); workIndex++) {
+        Note workNote = model.get(workIndex);
+        if (workNote != null
+            && searchIndex.isCandidate(workNote, candidates)) {
+          notesToSearch.add(workNote);
+          positions.add(workIndex);
+        }
       }
+      int[] positionArray = new int[positions.size()];
+      for (int i = 0; i < positionArray.length; i++) {
+        positionArray[i] = positions.get(i);
+      }
+      
+      NoteSearchTask task = new NoteSearchTask(
+          notesToSearch,
+          positionArray,
+          searcher,
+          searchResultsWindow);
+      task.setOnSucceeded(e -> {
+        searchResultsWindow.searchComplete(task);
+        statusBar.setStatus(String.valueOf(task.getValue()) 
+            + " Notes found");
+      });
+      task.setOnFailed(e -> {
+        searchResultsWindow.cancelSearch();
+        Logger.getShared().recordEvent(LogEvent.MEDIUM, 
+            "Find All failed: " + String.valueOf(task.getException()), 
+            false);
+      });
+      searchResultsWindow.startSearch(task, findString);
+      displayAuxiliaryWindow(searchResultsWindow);
+      statusBar.setStatus("Searching... press Escape to cancel");
+      Thread backgroundThread = new Thread(task);
+      backgroundThread.setDaemon(true);
+      backgroundThread.start();
     }
-    opInProgress = false;
-    return replaced;
   }
   
-  /* ===========================================================================
+  /**
+   Prepare a search for the given string, with the options set in the Find
+   and Replace window, so that Find All and Search All Collections search 
+   in just the same way. 
   
-    Routines to select, position and display a note, where select means to 
-    communicate the selection to the model, position means to select the
-    note on the table and tree views, and display means to show the note's 
-    field's on the display and edit tabs. 
+   @param findString The string, expression or query entered. 
   
-  *  ======================================================================== */
+   @return The searcher, or null if the find string is not a valid regular
+           expression, which has been reported to the user. 
+  */
+  private NoteSearcher newSearcher(String findString) {
+    try {
+      return new NoteSearcher(
+          findString, 
+          replaceWindow.titleSelected(), 
+          replaceWindow.linkSelected(), 
+          replaceWindow.tagsSelected(),
+          replaceWindow.bodySelected(),
+          replaceWindow.caseSensitive(),
+          replaceWindow.regexSelected(),
+          replaceWindow.querySelected());
+    } catch (java.util.regex.PatternSyntaxException e) {
+      Trouble.getShared().report(e.getMessage(), 
+          "Invalid Regular Expression");
+      return null;
+    }
+  }
   
   /**
-   Select, position and display the first note in the sorted list. 
+    Search every collection on the recent files list for the search string 
+    in the tool bar, using a background task, and list the Notes found in 
+    the Find All Results window, grouped by collection. 
   */
-  public void firstNote () {
+  private void searchAllCollections() {
+    
+    boolean modOK = false;
+    if (opInProgress) {
+      System.out.println("Notenik.searchAllCollections operation in progress = " 
+          + String.valueOf(opInProgress));
+    } else {
+      modOK = modIfChanged();
+    }
+    String findString = findText.getText().trim();
+    if (findString.length() == 0) {
+      findText.requestFocus();
+      statusBar.setStatus("Enter a search string");
+    }
+    else
+    if (modOK && model.isOpen()) {
+      
+      NoteSearcher searcher = newSearcher(findString);
+      if (searcher == null) {
+        return;
+      }
+      
+      // Take a snapshot of the collections to be searched
+      RecentFiles recentFiles = model.getMaster().getRecentFiles();
+      ArrayList<FileSpec> collections = new ArrayList<FileSpec>();
+      ArrayList<String> paths = new ArrayList<String>();
+      for (int i = 0; i < recentFiles.size(); i++) {
+        FileSpec collection = recentFiles.get(i);
+        if (collection != null 
+            && collection.getFolder() != null
+            && (! paths.contains(collection.getFolder().getAbsolutePath()))) {
+          collections.add(collection);
+          paths.add(collection.getFolder().getAbsolutePath());
+        }
+      }
+      
+      CollectionSearchTask task = new CollectionSearchTask(
+          collections,
+          model.getRecDef(),
+          searcher,
+          searchResultsWindow);
+      task.setOnSucceeded(e -> {
+        searchResultsWindow.searchComplete(task);
+        statusBar.setStatus(String.valueOf(task.getValue()) 
+            + " Notes found in " + String.valueOf(collections.size())
+            + " collections");
+      });
+      task.setOnFailed(e -> {
+        searchResultsWindow.cancelSearch();
+        Logger.getShared().recordEvent(LogEvent.MEDIUM, 
+            "Search All Collections failed: " 
+              + String.valueOf(task.getException()), 
+            false);
+      });
+      searchResultsWindow.startSearch(task, findString);
+      displayAuxiliaryWindow(searchResultsWindow);
+      statusBar.setStatus("Searching all collections... press Escape to cancel");
+      Thread backgroundThread = new Thread(task);
+      backgroundThread.setDaemon(true);
+      backgroundThread.start();
+    }
+  }
+  
+  /**
+   Cancel any Find All search still running. 
+  */
+  private void cancelFindAll() {
+    if (searchResultsWindow != null
+        && searchResultsWindow.isSearching()) {
+      searchResultsWindow.cancelSearch();
+      statusBar.setStatus("Search cancelled");
+    }
+  }
+  
+  /**
+   Select and display a Note chosen from the Find All Results window. 
+  
+   @param result The search result chosen by the user. 
+  */
+  public void showSearchResult(SearchResult result) {
+    boolean modOK = false;
+    if (opInProgress) {
+      System.out.println("Notenik.showSearchResult operation in progress = " 
+          + String.valueOf(opInProgress));
+    } else {
+      modOK = modIfChanged();
+    }
+    if (modOK && result.hasCollection()
+        && (! result.getCollection().equals(model.getFileSpec()))) {
+      
+      // The Note lives in another collection, so open that one first
+      if (NoteCollectionModel.goodFolder(result.getCollection().getFolder())) {
+        closeFile();
+        openFile(result.getCollection(), false);
+        Note foundInCollection = model.getFromTitle(result.getTitle());
+        if (foundInCollection != null) {
+          selectPositionAndDisplay(foundInCollection);
+        }
+      }
+    }
+    else
+    if (modOK && model.isOpen()) {
+      if (result.hasCollection()) {
+        Note foundInCollection = model.getFromTitle(result.getTitle());
+        if (foundInCollection != null) {
+          selectPositionAndDisplay(foundInCollection);
+        }
+      } else {
+        selectPositionAndDisplay(result.getNote());
+      }
+    }
+  }
+  
+  public WebPrefs getWebPrefs() {
+    return webPrefs;
+  }
+  
+  public String getLastTextFound() {
+    return lastTextFound;
+  }
+  
+  public void noFindInProgress() {
+    findButton.setText(FIND);
+    findAgainMenuItem.setDisable(true);
+    replaceWindow.noFindInProgress();
+  }
+  
+  public void findInProgress() {
+    findButton.setText(FIND_AGAIN);
+    findAgainMenuItem.setDisable(false);
+    replaceWindow.findInProgress();
+  }
+  
+  public void setFindText(String findString) {
+    this.findText.setText(findString);
+  }
+  
+  /**
+    Replace the findString in a Note that has already been found. 
+  
+    @param replaceString The string to replace the found string. 
+  */
+  public boolean replaceNote(
+      String findString,
+      String replaceString,
+      boolean checkTitle, 
+      boolean checkLink, 
+      boolean checkTags,
+      boolean checkBody) {
+    
+    opInProgress = true;
+    boolean replaced = false;
+    if (foundNote != null 
+        && foundNote.equals(model.getSelection())) {
+      if (checkTitle && titleStart >= 0) {
+        foundNote.setTitle(findMatcher.replaceMatch(foundNote.getTitle(), 
+            titleStart, titleEnd, replaceString));
+        replaced = true;
+      }
+
+      if (checkLink && linkStart >= 0) {
+        foundNote.setLink(findMatcher.replaceMatch(foundNote.getLinkAsString(), 
+            linkStart, linkEnd, replaceString));
+        replaced = true;
+      }
+      
+      if (checkTags && tagsStart >= 0) {
+        foundNote.setTags(findMatcher.replaceMatch(foundNote.getTagsAsString(), 
+            tagsStart, tagsEnd, replaceString));
+        replaced = true;
+      }
+      
+      if (checkBody && bodyStart >= 0) {
+        foundNote.setBody(findMatcher.replaceMatch(foundNote.getBody(), 
+            bodyStart, bodyEnd, replaceString));
+        replaced = true;
+      }
+      
+      if (replaced) {
+        model.modifySelection();
+        searchIndex.update(foundNote);
+        positionAndDisplaySelection();
+        statusBar.setStatus("Replacement made");
+      }
+    }
+    opInProgress = false;
+    return replaced;
+  }
+  
+  /* ===========================================================================
+  
+    Routines to select, position and display a note, where select means to 
+    communicate the selection to the model, position means to select the
+    note on the table and tree views, and display means to show the note's 
+    field's on the display and edit tabs. 
+  
+  *  ======================================================================== */
+  
+  /**
+   Select, position and display the first note in the sorted list. 
+  */
+  public void firstNote () {
     boolean ok = true;
     if (model.isOpen()) {
       if (model.hasSelection()) {
@@ -3226,6 +3774,17 @@ public class Notenik
     noteTable.scrollTo(selectedRow);
   }
   
+  /**
+   Select and display the note with the given title, if it can be found.
+  
+   @param title The title of the note, or null. 
+  */
+  private void selectTitle(String title) {
+    if (model.isOpen() && title != null) {
+      selectPositionAndDisplay(model.getFromTitle(title));
+    }
+  }
+  
   private void selectPositionAndDisplay(Note note) {
     if (model.isOpen() && note != null) {
       model.select(note);
@@ -3257,6 +3816,7 @@ public class Notenik
   */
   private void position(Note noteToSelect) {
     
+    boolean wasInProgress = opInProgress;
     opInProgress = true;
     // Let's try to select the note within the TableView
     SortedNote sortedNote = model.getSortedNote(noteToSelect);
@@ -3268,12 +3828,12 @@ public class Notenik
     }
     
     // Now let's try to select the note within the TreeView
-    TreeItem firstNode = noteToSelect.getTagsNode();
+    TreeItem<TagsNodeValue> firstNode = noteToSelect.getTagsNode();
     if (firstNode != null) {
       noteTree.getSelectionModel().clearSelection();
       noteTree.getSelectionModel().select(firstNode);
     }
-    opInProgress = false;
+    opInProgress = wasInProgress;
   }
 
   /**
@@ -3294,7 +3854,7 @@ public class Notenik
       }
       if (modOK) {
         model.select(selectedNote.getNote());
-        TreeItem firstNode = selectedNote.getNote().getTagsNode();
+        TreeItem<TagsNodeValue> firstNode = selectedNote.getNote().getTagsNode();
         if (firstNode != null) {
           noteTree.getSelectionModel().clearSelection();
           noteTree.getSelectionModel().select(firstNode);
@@ -3310,7 +3870,7 @@ public class Notenik
    */
   private void treeNodeSelected () {
 
-    TreeItem<TagsNodeValue> node = (TreeItem)noteTree.getSelectionModel().getSelectedItem();
+    TreeItem<TagsNodeValue> node = noteTree.getSelectionModel().getSelectedItem();
 
     if (node == null) {
       // nothing selected
@@ -3652,6 +4212,8 @@ public class Notenik
   */
   @Override
   public void stop() {
+    // Give an import or batch the chance to finish writing the note in hand
+    operations.cancelAndWait(OPERATION_STOP_WAIT);
     closeFile();
     savePrefs();
   }
@@ -3737,7 +4299,7 @@ public class Notenik
   private void launchButtonClicked() {
     if (model.getSelection().hasLink()) {
       File linkAsFile = model.getSelection().getLinkAsFile();
-      boolean linkPointsToCollection = CollectionFinderTask.isThisACollection(linkAsFile);
+      boolean linkPointsToCollection = isCollectionLink(linkAsFile);
       if (model.editingMasterCollection() || linkPointsToCollection) {
         openCollectionFromCurrentNote();
       } else {
@@ -3870,6 +4432,7 @@ public class Notenik
       launchButton.setText("Launch");
     }   
     
+    searchIndex.build(model);
     buildCollectionTabs();
     buildNoteTabs();
     this.statusBar.setFileName(model.getFileName());
@@ -3882,7 +4445,12 @@ public class Notenik
     if (noteToDisplay == null) {
       noteToDisplay = model.getSorted(0);
     }
+    RenderCache.getShared().setMaxMegabytes(userPrefs.getPrefAsInt(
+        RenderCache.MAX_MB_KEY, RenderCache.DEFAULT_MAX_MB));
+    RenderCache.getShared().open(model.getFolder(), userPrefs.getPrefAsBoolean(
+        RenderCache.PERSIST_KEY, RenderCache.DEFAULT_PERSIST));
     selectPositionAndDisplay(noteToDisplay);
+    recurrenceScheduler.start();
   }
   
   /**
@@ -3899,7 +4467,6 @@ public class Notenik
     }
     if (modOK) {
       noFindInProgress();
-      int purged = 0;
 
       Alert alert = new Alert(AlertType.CONFIRMATION);
       alert.setTitle("Purge Options");
@@ -3909,8 +4476,9 @@ public class Notenik
       ButtonType cancel = new ButtonType("Cancel", ButtonData.CANCEL_CLOSE);
       ButtonType discard = new ButtonType("Discard Purged");
       ButtonType copy = new ButtonType("Copy Purged");
+      ButtonType zip = new ButtonType("Zip Purged");
 
-      alert.getButtonTypes().setAll(cancel, discard, copy);
+      alert.getButtonTypes().setAll(cancel, discard, copy, zip);
 
       Optional<ButtonType> result = alert.showAndWait();
       ButtonType option = result.get();
@@ -3927,7 +4495,8 @@ public class Notenik
         }
       }
 
-      NoteIO purgeIO = null;
+      File copyFolder = null;
+      File zipFile = null;
 
       if (option == copy) {
         dirChooser.setTitle ("Select Folder to Hold Purged Notes");
@@ -3936,7 +4505,7 @@ public class Notenik
           option = cancel;
         } else {
           if (NoteCollectionModel.goodFolder(purgeTarget)) {
-            purgeIO = new NoteIO(purgeTarget, NoteParms.DEFINED_TYPE, model.getRecDef());
+            copyFolder = purgeTarget;
           } else {
             purgeTarget = null;
             option = cancel;
@@ -3944,78 +4513,58 @@ public class Notenik
         } // end if purge target folder not null
       } // end if option 1 was chosen
 
-      if (option == copy || option == discard) {
-        Note workNote;
-        int workIndex = model.firstNote();
-        while (workIndex < model.size()) {
-          workNote = model.get (workIndex);
-          boolean deleted = false;
-          if (workNote.getStatus().isDone()) {
-            boolean okToDelete = true;  
-            // String fileToDelete = workNote.getDiskLocation();         
-            if (option == copy) {
-              try {
-                purgeIO.save(purgeTarget, workNote, false);
-              } catch (IOException e) {
-                okToDelete = false;
-                Logger.getShared().recordEvent(LogEvent.MEDIUM, 
-                    "I/O Error while attemptint to save "
-                      + workNote.getTitle() + " to Archive folder", 
-                    false);
-              }
-            } // end of attempt to copy
-            if (okToDelete) {
-              deleted = model.remove (workNote);
-              if (! deleted) {
-                Logger.getShared().recordEvent(LogEvent.MEDIUM, 
-                    "Unable to remove " 
-                    + workNote.getTitle() + " from note list", false);
-              }
-              /*if (deleted) {
-                deleted = new File(fileToDelete).delete();
-              }
-              if (! deleted) {
-                trouble.report(
-                    "Unable to delete note at " + fileToDelete, 
-                    "Delete Failure");
-              } */
-              if (folderSyncPrefs.getSync()) {
-                File syncFile = model.getSyncFile(workNote.getTitle());
-                syncFile.delete();
-              }
-              // noteList.fireTableDataChanged();
-              if (deleted) {
-                purged++;
-              } 
-            } // End if OK to Delete
-          } // end if newNote is a candidate for deletion
-          if (! deleted) {
-            workIndex++;
+      if (option == zip) {
+        dirChooser.setTitle ("Select Folder to Hold Zip File of Purged Notes");
+        purgeTarget = dirChooser.showDialog(primaryStage);
+        if (purgeTarget == null 
+            || (! purgeTarget.isDirectory())
+            || (! purgeTarget.canWrite())) {
+          purgeTarget = null;
+          option = cancel;
+        } else {
+          zipFile = NotePurger.getZipFile(purgeTarget, model.getFolder().getName());
+        }
+      } // end if zip option was chosen
+
+      if (option == copy || option == discard || option == zip) {
+        
+        // Collect the closed notes in a single pass
+        ArrayList<Note> closedNotes = new ArrayList<Note>();
+        for (int workIndex = model.firstNote(); workIndex < model.size(); workIndex++) {
+          Note workNote = model.get (workIndex);
+          if (workNote != null && workNote.getStatus().isDone()) {
+            closedNotes.add(workNote);
+          }
+        }
+        
+        NotePurger purger = new NotePurger(
+            model, 
+            new NoteBatch(model, searchIndex, noteTable, noteTree), 
+            closedNotes, 
+            copyFolder, 
+            zipFile, 
+            folderSyncPrefs.getSync());
+        final File archiveTarget = purgeTarget;
+        final File purgeZip = zipFile;
+        runOperation("Purge", purger, purged -> {
+          if (purged > 0 && archiveTarget != null) {
+            model.getFileSpec().setArchiveFolder(archiveTarget);
+          }
+          String plural = StringUtils.pluralize("Note", purged);
+          String results = String.valueOf(purged) + " " + plural + " purged";
+          if (purgeZip != null && purged > 0) {
+            results = results + " to " + purgeZip.getName();
+          }
+          reportOperation(results);
+          if (purger.getFailures() > 0) {
+            Trouble.getShared().report(
+                String.valueOf(purger.getFailures()) 
+                  + " closed " + StringUtils.pluralize("Note", purger.getFailures())
+                  + " could not be archived, and were left in the collection",
+                "Purge Problems");
           }
-        } // end of list
+        });
       } // end if user chose to proceed with a purge
-
-      if (purged > 0 && option == copy && purgeTarget != null) {
-        model.getFileSpec().setArchiveFolder(purgeTarget);
-      }
-
-      /* if (purged > 0) {
-        openFile (noteFile, "", true);   
-        position.setNavigatorToList (collectionTabs.getSelectionModel().getSelectedIndex() == 0);
-        position = noteList.first (position);
-        positionAndDisplay();
-      } */
-
-      String plural = StringUtils.pluralize("Note", purged);
-
-      PSOptionPane.showMessageDialog(primaryStage,
-          String.valueOf(purged) + " " + plural + " purged successfully",
-          "Purge Results",
-          javax.swing.JOptionPane.INFORMATION_MESSAGE);
-      Logger.getShared().recordEvent (LogEvent.NORMAL, String.valueOf(purged) 
-          + " " + plural + " purged",
-          false);
-      statusBar.setStatus(String.valueOf(purged) + " Notes purged");
     }
   } // end of method purge
   
@@ -4333,6 +4882,17 @@ public class Notenik
 
   private void importFile () {
 
+    boolean modOK = false;
+    if (opInProgress) {
+      System.out.println("Notenik.importFile operation in progress = " 
+          + String.valueOf(opInProgress));
+    } else {
+      modOK = modIfChanged();
+    }
+    if (! modOK) {
+      return;
+    }
+
     dirChooser.setTitle ("Import Notes");
     if (FileUtils.isGoodInputDirectory(currentDirectory)) {
       fileChooser.setInitialDirectory (currentDirectory);
@@ -4342,24 +4902,63 @@ public class Notenik
       preImport();
       File importFile = selectedFile;
       currentDirectory = importFile;
-      NoteIO importer = new NoteIO (
-          importFile, 
-          NoteParms.DEFINED_TYPE, 
-          model.getRecDef());
-      try {
-        importer.load(model, true);
-      } catch (IOException e) {
-        ioException(e);
-      }
-      postImport();
+      NoteBulkLoader loader = new NoteBulkLoader(model);
+      loader.setUpdateExisting(importUpdateExistingMenuItem.isSelected());
+      loader.setReader(l -> readNotesForImport(importFile, l));
+      postImport(loader);
       // setUnsavedChanges(true);
     }
     // noteList.fireTableDataChanged();
     // firstNote();
   }
   
+  /**
+   Read the notes in a Notenik folder, and stage them for import. 
+  
+   @param importFolder The folder containing the notes to be imported. 
+   @param loader       The loader gathering the imported notes. 
+  
+   @return The number of notes read, or -1 if the folder couldn't be read. 
+  */
+  private int readNotesForImport(File importFolder, NoteBulkLoader loader) {
+    NoteIO importer = new NoteIO (
+        importFolder, 
+        NoteParms.DEFINED_TYPE, 
+        loader.getRecDef());
+    String[] fileNames = importFolder.list();
+    if (fileNames == null) {
+      return -1;
+    }
+    int read = 0;
+    for (String fileName : fileNames) {
+      File candidate = new File (importFolder, fileName);
+      if (NoteIO.isInterestedIn(candidate)) {
+        try {
+          loader.stage(importer.getNote(candidate, ""));
+          read++;
+        } catch (IOException e) {
+          Logger.getShared().recordEvent (LogEvent.MEDIUM,
+              "I/O Error reading " + candidate.toString(),
+              false);
+        }
+      }
+    }
+    return read;
+  }
+  
   private void importXMLFile () {
 
+    boolean modOK = false;
+    if (opInProgress) {
+      System.out.println("Notenik.importXMLFile operation in progress = " 
+          + String.valueOf(opInProgress));
+    } else {
+      modOK = modIfChanged();
+    }
+    if (! modOK) {
+      return;
+    }
+
     fileChooser.setTitle ("Import Notes from XML");
     if (FileUtils.isGoodInputDirectory(currentDirectory)) {
       fileChooser.setInitialDirectory (currentDirectory);
@@ -4369,14 +4968,28 @@ public class Notenik
       preImport();
       File importFile = selectedFile;
       NoteImportXML importer = new NoteImportXML(this);
-      importer.parse(importFile, model);
-      postImport();
+      NoteBulkLoader loader = new NoteBulkLoader(model);
+      loader.setUpdateExisting(importUpdateExistingMenuItem.isSelected());
+      loader.setReader(l -> 
+          importer.parse(importFile, l.getRecDef(), note -> l.stage(note)));
+      postImport(loader);
     }
     // noteList.fireTableDataChanged();
     // firstNote();
   }
   
   private void importTabDelimited() {
+    boolean modOK = false;
+    if (opInProgress) {
+      System.out.println("Notenik.importTabDelimited operation in progress = " 
+          + String.valueOf(opInProgress));
+    } else {
+      modOK = modIfChanged();
+    }
+    if (! modOK) {
+      return;
+    }
+
     fileChooser.setTitle("Import Notes from a Tab-Delimited File");
     if (FileUtils.isGoodInputDirectory(currentDirectory)) {
       fileChooser.setInitialDirectory(currentDirectory);
@@ -4385,8 +4998,17 @@ public class Notenik
     if (selectedFile != null) {
       preImport();
       NoteImportTabDelim importer = new NoteImportTabDelim(this);
-      importer.parse(selectedFile, model);
-      postImport();
+      NoteBulkLoader loader = new NoteBulkLoader(model);
+      loader.setUpdateExisting(importUpdateExistingMenuItem.isSelected());
+      loader.setReader(l -> {
+        int read = importer.parse(selectedFile, l.getRecDef(), 
+            note -> l.stage(note));
+        if (importer.hadIOTrouble()) {
+          l.setReadTrouble("Trouble Reading File " + selectedFile.toString());
+        }
+        return read;
+      });
+      postImport(loader);
     }
     // noteList.fireTableDataChanged();
     // firstNote();
@@ -4409,6 +5031,63 @@ public class Notenik
     newCollection();
   }
   
+  /**
+   Finish an import of notes gathered by a bulk loader: read them, if the
+   loader has a reader, and write them on a background thread, then open 
+   the collection again, so that its lists and tags are built just once. 
+  
+   @param loader The loader gathering the imported notes. 
+  */
+  public void postImport(NoteBulkLoader loader) {
+    boolean started = runOperation("Import", loader, 
+        written -> reportImport(loader, written), 
+        () -> reopenCollection());
+    if (! started) {
+      Trouble.getShared().report(
+          "Notes could not be imported because " 
+            + operations.getOperationName() + " is still in progress",
+          "Import Problem");
+    }
+  }
+  
+  /**
+   Open the collection again, to pick up the notes written by an import or
+   by a batch of changes.
+  */
+  private void reopenCollection() {
+    FileSpec fileSpec = model.getFileSpec();
+    closeFile();
+    openFile(fileSpec, false);
+  }
+  
+  private void reportImport(NoteBulkLoader loader, Integer written) {
+    StringBuilder results = new StringBuilder();
+    results.append(String.valueOf(written) + " Notes written: "
+        + String.valueOf(loader.getAdded()) + " added, "
+        + String.valueOf(loader.getUpdated()) + " updated, "
+        + String.valueOf(loader.getUnchanged()) + " unchanged");
+    if (loader.getSkipped() > 0) {
+      results.append(", " + String.valueOf(loader.getSkipped()) 
+          + " skipped for missing or duplicate titles");
+    }
+    if (loader.getFailed() > 0) {
+      results.append(", " + String.valueOf(loader.getFailed()) 
+          + " could not be saved");
+    }
+    reportOperation(results.toString());
+    if (loader.getReadTrouble() != null) {
+      Trouble.getShared().report 
+          (loader.getReadTrouble(),
+          "File I/O Problem");
+    }
+    else
+    if (loader.getRead() < 0 || loader.getFailed() > 0) {
+      Trouble.getShared().report 
+          ("Trouble importing Notes -- see the log for details",
+          "Import Problem");
+    }
+  }
+  
   /**
    Import info about Mac applications. 
   */
@@ -4429,49 +5108,11 @@ public class Notenik
       File selectedFile = dirChooser.showDialog(primaryStage);
       if (selectedFile != null) {
         preImport();
-        TextMergeInputMacApps macApps = new TextMergeInputMacApps();
-        RecordDefinition recDef = model.getRecDef();
-        File[] filesInArray = selectedFile.listFiles();
-        ArrayList<File> files = new ArrayList<File>();
-        for (File fileInArray:filesInArray) {
-          files.add(fileInArray);
-        }
-        int fileIndex = 0;
-        while (fileIndex < files.size()) {
-          File file = files.get(fileIndex);
-          if (macApps.isInterestedIn(file)) {
-            TextMergeMacAppReader appReader = new TextMergeMacAppReader(file);
-            appReader.retrieveMacAppInfo();
-            String appName = appReader.getAppName();
-            String fileLink = appReader.getFileLink();
-            String tags = appReader.getTags();
-            String lastModDate = appReader.getLastModDate();
-            String version = appReader.getVersion();
-            String minSysVersion = appReader.getMinSysVersion();
-            String copyright = appReader.getCopyright();
-            addOrUpdateAppInfo(file, appName, fileLink, tags, lastModDate, 
-                version, minSysVersion, copyright, true);
-          } // end if this seems to be a genuine Mac app
-          else
-          if (file.isDirectory()
-              && (! file.isHidden())
-              && (file.canRead())) {
-            File[] moreFiles = file.listFiles();
-            for (File nestedFile:moreFiles) {
-              files.add(nestedFile);
-            }
-          } // end if a sub-directory
-          else
-          if (file.getName().endsWith(".jar")) {
-            FileName fileName = new FileName(file);
-            Date lastMod = new Date (file.lastModified());
-            String lastModDate = dateFormatter.format (lastMod);
-            addOrUpdateAppInfo(file, fileName.getBase(), fileName.getURLString(),
-                "", lastModDate, "", "", "", false);
-          }
-          fileIndex++;
-        } // end for each file in the directory
-        postImport();
+        NoteBulkLoader loader = new NoteBulkLoader(model);
+        loader.setUpdateExisting(true);
+        File appsFolder = selectedFile;
+        loader.setReader(l -> readMacAppsForImport(appsFolder, l));
+        postImport(loader);
       } // end if user specified a valid directory
       
       // noteList.fireTableDataChanged();
@@ -4479,7 +5120,44 @@ public class Notenik
     }
   }
   
+  /**
+   Find the apps within a folder, and stage a note for each. 
+  
+   @param top    The folder to be searched, along with its sub-folders. 
+   @param loader The loader gathering the imported notes. 
+  
+   @return The number of apps found, or -1 if the folder couldn't be read. 
+  */
+  private int readMacAppsForImport(File top, NoteBulkLoader loader) {
+    MacAppCrawler crawler = new MacAppCrawler();
+    java.util.List<MacAppCrawler.AppInfo> apps;
+    try {
+      apps = crawler.crawl(top);
+    } catch (IOException e) {
+      Logger.getShared().recordEvent (LogEvent.MEDIUM,
+          "I/O Error searching for apps in " + top.toString(),
+          false);
+      return -1;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return 0;
+    }
+    for (MacAppCrawler.AppInfo app : apps) {
+      addOrUpdateAppInfo(loader, app.getFile(), app.getAppName(), 
+          app.getFileLink(), app.getTags(), app.getLastModDate(), 
+          app.getVersion(), app.getMinSysVersion(), app.getCopyright(), 
+          app.isMacApp());
+    }
+    return apps.size();
+  }
+  
+  /**
+   Stage a note describing an app. An app already in the collection, or
+   found earlier, has the information about it updated, leaving its tags 
+   alone; the loader decides whether anything has actually changed. 
+  */
   private void addOrUpdateAppInfo(
+      NoteBulkLoader loader,
       File file,
       String appName,
       String fileLink,
@@ -4490,111 +5168,88 @@ public class Notenik
       String copyright,
       boolean macApp) {
 
-    RecordDefinition recDef = model.getRecDef();
-    Note appNote = new Note(model.getRecDef(), appName);
+    RecordDefinition recDef = loader.getRecDef();
+    Note existingNote = loader.find(appName);
+    if (existingNote != null
+        && existingNote.isLinkToMacApp() && (! macApp)) {
+      // Don't replace a real app entry with a jar file
+      return;
+    }
+    boolean adding = (existingNote == null);
+    Note appNote = new Note(recDef, appName);
     StringBuilder body = new StringBuilder();
-    Note existingNote = model.getFromTitle(appName);
-    if (existingNote == null) {
-      // Not found -- add it
-      if (fileLink != null && fileLink.length() > 0
-          && recDef.contains(NoteParms.LINK_FIELD_NAME)) {
-        appNote.setLink(fileLink);
-      }
-      
-      if (tags != null && tags.length() > 0
-          && recDef.contains(NoteParms.TAGS_FIELD_NAME)) {
-        appNote.setTags(tags);
-      }
-      
-      if (lastModDate != null && lastModDate.length() > 0
-          && recDef.contains(NoteParms.DATE_FIELD_NAME)) {
-        appNote.setDate(lastModDate);
-      } else {
-        body.append(
-            "Date Last Modified: " + 
-            lastModDate + "  "
-            + GlobalConstants.LINE_FEED_STRING);
-      }
-      
-      if (version != null && version.length() > 0) {
-        if (recDef.contains(NoteParms.SEQ_FIELD_NAME)) {
-          appNote.setSeq(version);
-        } else {
-          body.append(
-              "Version: " +
-              version + "  " +
-              GlobalConstants.LINE_FEED_STRING);
-        }
-      }
-      
-      if (minSysVersion != null && minSysVersion.length() > 0) {
-        if (recDef.contains(NoteParms.MIN_SYS_VERSION_FIELD_NAME)) {
-          appNote.setField(NoteParms.MIN_SYS_VERSION_FIELD_NAME, minSysVersion);
-        } else {
-          body.append(
-              "Minimum System Version: " +
-              minSysVersion + "  " +
-              GlobalConstants.LINE_FEED_STRING);
-        }
-      }
 
-      if (copyright != null && copyright.length() > 0) {
-        if (recDef.getColumnNumber(NoteParms.BODY_FIELD_NAME) >= 0) {
-          body.append("Copyright: " + copyright);
-          appNote.setBody(body.toString());
-        }
-      }
+    if (fileLink != null && fileLink.length() > 0
+        && recDef.contains(NoteParms.LINK_FIELD_NAME)) {
+      appNote.setLink(fileLink);
+    }
 
-      addImportedNote(appNote);
+    if (adding && tags != null && tags.length() > 0
+        && recDef.contains(NoteParms.TAGS_FIELD_NAME)) {
+      appNote.setTags(tags);
+    }
 
+    if (lastModDate != null && lastModDate.length() > 0
+        && recDef.contains(NoteParms.DATE_FIELD_NAME)) {
+      appNote.setDate(lastModDate);
     } 
-    else {
-      // Found in table -- update where it makes sense
-      appNote = existingNote;
-      if (appNote.isLinkToMacApp() && (! macApp)) {
-        // Don't replace a real app entry with a jar file
-      } else {
-        if (fileLink != null && fileLink.length() > 0
-            && recDef.contains(NoteParms.LINK_FIELD_NAME)) {
-          appNote.setLink(fileLink);
-        }
+    else
+    if (adding) {
+      body.append(
+          "Date Last Modified: " + 
+          lastModDate + "  "
+          + GlobalConstants.LINE_FEED_STRING);
+    }
 
-        if (lastModDate != null && lastModDate.length() > 0
-            && recDef.contains(NoteParms.DATE_FIELD_NAME)) {
-          appNote.setDate(lastModDate);
-        } 
+    if (version != null && version.length() > 0) {
+      if (recDef.contains(NoteParms.SEQ_FIELD_NAME)) {
+        appNote.setSeq(version);
+      } 
+      else
+      if (adding) {
+        body.append(
+            "Version: " +
+            version + "  " +
+            GlobalConstants.LINE_FEED_STRING);
+      }
+    }
 
-        if (version != null && version.length() > 0) {
-          if (recDef.contains(NoteParms.SEQ_FIELD_NAME)) {
-            appNote.setSeq(version);
-          } 
-        }
+    if (minSysVersion != null && minSysVersion.length() > 0) {
+      if (recDef.contains(NoteParms.MIN_SYS_VERSION_FIELD_NAME)) {
+        appNote.setField(NoteParms.MIN_SYS_VERSION_FIELD_NAME, minSysVersion);
+      } 
+      else
+      if (adding) {
+        body.append(
+            "Minimum System Version: " +
+            minSysVersion + "  " +
+            GlobalConstants.LINE_FEED_STRING);
+      }
+    }
 
-        if (minSysVersion != null && minSysVersion.length() > 0) {
-          if (recDef.contains(NoteParms.MIN_SYS_VERSION_FIELD_NAME)) {
-            appNote.setField(NoteParms.MIN_SYS_VERSION_FIELD_NAME, minSysVersion);
-          } 
-        }
+    if (copyright != null && copyright.length() > 0) {
+      if (recDef.getColumnNumber(NoteParms.BODY_FIELD_NAME) >= 0) {
+        body.append("Copyright: " + copyright);
+        appNote.setBody(body.toString());
+      }
+    }
 
-        if (copyright != null && copyright.length() > 0) {
-          if (recDef.getColumnNumber(NoteParms.BODY_FIELD_NAME) >= 0) {
-            body.append("Copyright: " + copyright);
-            appNote.setBody(body.toString());
-          }
-        }
-      } // end if not replacing a real app with a jar file
-    } // end if app note already exists
-    
+    if (adding) {
+      addImportedNote(loader, appNote);
+    } else {
+      loader.stage(appNote);
+    }
   }
   
   /**
    Add an imported note to the collection. 
   
+   @param loader     The loader gathering the imported notes. 
    @param importNote The note being imported. 
   
    @return True if import worked out ok.
   */
-  private boolean addImportedNote(Note importNote) {
+  private boolean addImportedNote(NoteBulkLoader loader, Note importNote) {
     boolean added = false;
     if ((! importNote.hasTitle()) 
         || importNote.getTitle().length() == 0
@@ -4602,9 +5257,7 @@ public class Notenik
       // do nothing
     } else {
       importNote.setLastModDateToday();
-      model.add (importNote);
-      // noteList.fireTableDataChanged();
-      added = true;
+      added = loader.stage (importNote);
     }
     return added;
   }
@@ -4922,18 +5575,22 @@ public class Notenik
     if (modOK) {
 
       initialSelection = model.getSelection();
+      // Pick up the results of earlier validations
+      LinkCache linkCache = new LinkCache(model.getFolder(), 
+          userPrefs.getPrefAsInt(LinkCache.TTL_HOURS_KEY, 
+              LinkCache.DEFAULT_TTL_HOURS));
+      linkCache.load();
+      linkValidator.setCache(linkCache);
+      
       // Prepare Auxiliary List to track invalid Notes
-      webPageGroup = new ThreadGroup("URL Validation threads");
-      urlValidators = new ArrayList<>();
+      notesWithLinks = new ArrayList<Note>();
       linksChecked = 0;
       progressWindow = new URLValidationProgressWindow(primaryStage,
           "Progress Validating Links", this);
 
       // Go through sorted items looking for Web Pages
-      // Build a list of URL validator tasks
       Note workNote;
       String address;
-      URLValidator validator;
       for (
           int workIndex = model.firstNote(); 
           workIndex >= 0 && workIndex < model.size(); 
@@ -4941,40 +5598,11 @@ public class Notenik
         workNote = model.get (workIndex);
         address = workNote.getURLasString();
         if (address.length() > 0) {
-          validator = new URLValidator (workNote, workIndex);
-          validator.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
-            @Override
-            public void handle(WorkerStateEvent evt) {
-              linksChecked++;
-              progressWindow.setLinksChecked(linksChecked);
-            }
-          });
-          validator.setOnFailed(new EventHandler<WorkerStateEvent>() {
-            @Override
-            public void handle(WorkerStateEvent evt) {
-              linksChecked++;
-              deadLinks++;
-              progressWindow.setLinksChecked(linksChecked);
-              progressWindow.setBadLinks(deadLinks);
-              Worker badWorker = evt.getSource();
-              if (badWorker instanceof URLValidator) {
-                URLValidator badValidator = (URLValidator)badWorker;
-                ItemWithURL badItem = badValidator.getItemWithURL();
-                if (badItem instanceof Note) {
-                  Note badNote = (Note)badItem;
-                  if (! badNote.getTagsAsString().contains(INVALID_URL_TAG)) {
-                    badNote.getTags().merge (INVALID_URL_TAG);
-                    updateTagsOnNote(badNote);
-                  } // End if we don't already have an invalid URL tag
-                } // end if we have a good note instance
-              } // end if we have a good url validator instance
-            }
-          });
-          urlValidators.add (validator);
+          notesWithLinks.add (workNote);
         }
       } // end of list
 
-      linksToCheck = urlValidators.size();
+      linksToCheck = notesWithLinks.size();
       deadLinks = 0;
       progressWindow.setLinksToCheck(linksToCheck);
       windowMenuManager.add(progressWindow);
@@ -4989,7 +5617,6 @@ public class Notenik
   private void catchUpDailyTasks() {
 
     boolean modOK = false;
-    int mods = 0;
     if (opInProgress) {
       System.out.println("Notenik.catchUpDailyTasks operation in progress = "
           + String.valueOf(opInProgress));
@@ -4998,120 +5625,259 @@ public class Notenik
     }
 
     if (modOK) {
+      catchUpRecurringTasks(null, false);
+    } // end if mod ok
 
-      initialSelection = model.getSelection();
+  } // end of method catchUpDailyTasks
+  
+  /**
+    Called by the recurrence scheduler when a collection is opened, and 
+    when the date rolls over, to catch up daily tasks without bothering
+    the user. Nothing is done while the user is editing a note or some 
+    other operation is in progress; the scheduler tries again later. The 
+    note being displayed is left alone. 
+   */
+  private void scheduledCatchUp() {
+    
+    if (! model.isOpen()) {
+      return;
+    }
+    if (opInProgress || operations.isRunning() || editTab.isSelected()) {
+      recurrenceScheduler.retryLater();
+      return;
+    }
+    Note displayedNote = null;
+    if (noteDisplayed && model.hasSelection()) {
+      displayedNote = model.getSelection();
+    }
+    catchUpRecurringTasks(displayedNote, true);
+  }
+  
+  /**
+    Find the daily tasks with dates before today, and update them to show 
+    today's date.
+  
+    @param skipNote  A note to be left alone, or null. 
+    @param automatic Was the catch-up started by the scheduler, rather than
+                     by the user? If so, the changes are made at once, 
+                     rather than as a background operation that would hold
+                     up the user's commands; the results are reported only
+                     if something was changed, and the selection is not 
+                     redisplayed. 
+   */
+  private void catchUpRecurringTasks(Note skipNote, boolean automatic) {
+
+    if (searchIndex.size() < model.size()) {
+      searchIndex.build(model);
+    }
+
+    // Jump straight to the open, recurring tasks dated before today,
+    // and work out each daily task's new date in a single step
+    DateIndex dateIndex = searchIndex.getDateIndex();
+    long today = java.time.LocalDate.now().toEpochDay();
+    ArrayList<Note> dueNotes = new ArrayList<Note>();
+    HashMap<String, String> newDates = new HashMap<String, String>();
+    for (Note workNote : dateIndex.getDueBefore(today)) {
+      RecursValue workRecurs = workNote.getRecurs();
+      if (workNote != skipNote
+          && workRecurs.getUnit() == RecursValue.DAYS 
+          && workRecurs.getInterval() == 1) {
+        long workDay = dateIndex.getEpochDay(workNote);
+        if (workDay != Long.MIN_VALUE && workDay < today) {
+          dueNotes.add(workNote);
+          newDates.put(workNote.getTitle(), DateIndex.toYMD(
+              DateIndex.catchUp(workDay, workRecurs.getInterval(), today)));
+        }
+      } // end if we have a daily task
+    } // end of overdue tasks
+    
+    // Keyed by title, since a background catch-up changes copies of the notes
+    NoteBatch.NoteMutation makeDue = note -> {
+      note.setDate(newDates.get(note.getTitle()));
+      return true;
+    };
+    
+    if (automatic) {
+      if (dueNotes.isEmpty()) {
+        return;
+      }
+      // Leave the views attached, so as not to disturb the user's selection
+      boolean wasInProgress = opInProgress;
       opInProgress = true;
+      NoteBatch batch = new NoteBatch(model, searchIndex, null, null);
+      int mods = batch.apply(dueNotes, makeDue);
+      opInProgress = wasInProgress;
+      reportOperation(String.valueOf(mods)
+          + " Past Due Daily Tasks Made Due Today");
+      return;
+    }
 
-      // Go through sorted items looking for Web Pages
-      // Build a list of URL validator tasks
+    String selectedTitle = model.getSelectedTitle();
+    NoteBatch batch = new NoteBatch(model, searchIndex, null, null);
+    Task<Integer> task = batch.asTask(dueNotes, makeDue);
+    runOperation("Catch Up Daily Tasks", task, mods -> {
+      reportOperation(String.valueOf(mods)
+          + " Past Due Daily Tasks Made Due Today");
+      selectTitle(selectedTitle);
+    }, () -> reopenCollection());
+  } // end of method catchUpRecurringTasks
+  
+  /**
+    Check the links from notes in the current list to local files and 
+    folders, including attachments, and report those that are broken, along
+    with the most similar names found. 
+   */
+  private void validateFileLinks() {
+
+    boolean modOK = false;
+    if (opInProgress) {
+      System.out.println("Notenik.validateFileLinks operation in progress = " 
+          + String.valueOf(opInProgress));
+    } else {
+      modOK = modIfChanged();
+    }
+
+    if (modOK) {
+      ArrayList<FileLinkValidator.FileLink> fileLinks 
+          = new ArrayList<FileLinkValidator.FileLink>();
+      File attachmentsFolder = model.getAttachmentsFolder();
       Note workNote;
-      String todayYMD = StringDate.getTodayYMD();
       for (
-          int workIndex = model.firstNote();
-          workIndex >= 0 && workIndex < model.size();
+          int workIndex = model.firstNote(); 
+          workIndex >= 0 && workIndex < model.size(); 
           workIndex = model.nextNote(workIndex)) {
-
-        workNote = model.get(workIndex);
-        boolean done = (workNote.hasStatus() && workNote.getStatus().isDone());
-
-        if (workNote.hasDate() && workNote.hasRecurs() && (! done)) {
-          RecursValue workRecurs = workNote.getRecurs();
-          if (workRecurs.getUnit() == RecursValue.DAYS && workRecurs.getInterval() == 1) {
-            StringDate workDate = new StringDate();
-            workDate.set(workNote.getDateAsString());
-            String workYMD = workDate.getYMD();
-            if (workYMD.length() == 10) {
-              int comparison = workYMD.compareTo(todayYMD);
-              int bumps = 0;
-              String newDate = "";
-              while (comparison < 0) {
-                newDate = workDate.increment();
-                bumps++;
-                workDate.set(newDate);
-                workYMD = workDate.getYMD();
-                comparison = workYMD.compareTo(todayYMD);
-              } // end while task date is still less than today
-              if (bumps > 0) {
-                mods++;
-                model.select(workIndex);
-                workNote = model.getSelection();
-                workNote.setDate(workYMD);
-                model.modifySelection();
-
-                /*
-                if (model.getSelection().getTitle().equals(workNote.getTitle())) {
-                  workNote.setDate(workYMD);
-                  model.modifySelection();
-                  editPane.setDate(newDate);
-                } else {
-                  String priorTitle = workNote.getTitle();
-                  String priorSortKey = workNote.getSortKey(model.getSortParm());
-                  String priorTags = workNote.getTagsAsString();
-                  workNote.setDate(workYMD);
-                  model.modify(workNote, priorTitle, priorSortKey, priorTags);
-                } */
-              } // end if we had a date update to make
-            } // end if we have a full yyyy-mm-dd date
-          } // end if we have a daily task
-        } // end if this note has a data and a recurs field
-      } // end of for loop
-      opInProgress = false;
-      selectPositionAndDisplay(initialSelection);
-
-      Alert alert = new Alert(AlertType.INFORMATION);
-      alert.setTitle("Daily Catch-Up Results");
-      alert.setHeaderText(null);
-      alert.setContentText(String.valueOf (mods)
-          + " Past Due Daily Tasks Made Due Today");
-      alert.showAndWait();
-    } // end if mod ok
-
-  } // end of method catchUpDailyTasks
+        workNote = model.get (workIndex);
+        if (workNote.hasLink() 
+            && workNote.getLinkAsString().toLowerCase().startsWith("file:")) {
+          File linkAsFile = workNote.getLinkAsFile();
+          if (linkAsFile != null) {
+            fileLinks.add(new FileLinkValidator.FileLink(workNote, linkAsFile));
+          }
+        }
+        if (attachmentsFolder != null) {
+          for (int i = 0; i < workNote.getNumberOfAttachments(); i++) {
+            fileLinks.add(new FileLinkValidator.FileLink(workNote, 
+                new File(attachmentsFolder, workNote.getAttachment(i).getFileName())));
+          }
+        }
+      } // end of list
+      
+      FileLinkValidator validator = new FileLinkValidator(fileLinks);
+      runOperation("Validate File Links", validator, broken -> {
+        notesWithInvalidLinks = new ArrayList<Note>();
+        Set<Note> brokenNotes 
+            = Collections.newSetFromMap(new IdentityHashMap<Note, Boolean>());
+        for (FileLinkValidator.FileLink link : broken) {
+          StringBuilder problem = new StringBuilder();
+          problem.append("Note '" + link.getNote().getTitle() 
+              + "' links to missing file " + link.getFile().toString());
+          if (link.getSuggestion() != null) {
+            problem.append("; nearest match is " 
+                + link.getSuggestion().getName());
+          }
+          Logger.getShared().recordEvent(LogEvent.MEDIUM, 
+              problem.toString(), false);
+          Note brokenNote = link.getNote();
+          if ((! brokenNote.getTagsAsString().contains(INVALID_URL_TAG))
+              && brokenNotes.add(brokenNote)) {
+            notesWithInvalidLinks.add(brokenNote);
+          }
+        }
+        tagInvalidLinks();
+        reportOperation(String.valueOf(broken.size()) + " of " 
+            + String.valueOf(fileLinks.size()) + " file links broken");
+      });
+    }
+  } // end validateFileLinks method
   
   /**
-   Make an update to a note whose tags have been modified. 
+   Does the given link point to a collection? The answer for each folder is 
+   remembered until the folder is next modified, since this is asked every
+   time a note is displayed. 
   
-   @param noteToUpdate The note to update. 
+   @param linkAsFile The link, as a file. 
+  
+   @return True if the link points to a collection. 
   */
-  private void updateTagsOnNote(Note noteToUpdate) {
-    if (model.getSelection().getTitle().equals(noteToUpdate.getTitle())) {
-      model.modifySelection();
-      editPane.setTags(model.getSelection().getTagsAsString());
-    } else {
-      String priorTitle = noteToUpdate.getTitle();
-      String priorSortKey = noteToUpdate.getSortKey(model.getSortParm());
-      String priorTags = noteToUpdate.getTagsAsString();
-      model.modify(noteToUpdate, priorTitle, priorSortKey, priorTags);
+  private boolean isCollectionLink(File linkAsFile) {
+    if (linkAsFile == null) {
+      return CollectionFinderTask.isThisACollection(linkAsFile);
     }
+    String path = linkAsFile.getAbsolutePath();
+    long modified = linkAsFile.lastModified();
+    Boolean isCollection = collectionLinks.get(path);
+    Long checked = collectionLinksModified.get(path);
+    if (isCollection == null 
+        || checked == null 
+        || checked.longValue() != modified) {
+      isCollection = CollectionFinderTask.isThisACollection(linkAsFile);
+      collectionLinks.put(path, isCollection);
+      collectionLinksModified.put(path, modified);
+    }
+    return isCollection;
   }
   
   public void startLinkValidation() {
 
     progressWindow.validationStarting();
-    // Now start threads to check Web pages
-    URLValidator validator;
-    for (int i = 0; i < urlValidators.size(); i++) {
-      validator = urlValidators.get(i);
-      Thread validatorThread = new Thread(webPageGroup, validator);
-      validatorThread.setDaemon(true);
-      validatorThread.start();
-    } // end for each page being validated
+    notesWithInvalidLinks = new ArrayList<Note>();
+    // Now check the links, a limited number at a time
+    linkValidator.validate(notesWithLinks, new LinkValidator.LinkListener() {
+      
+      @Override
+      public void linksChecked(int checked, java.util.List<Note> invalid) {
+        linksChecked = linksChecked + checked;
+        deadLinks = deadLinks + invalid.size();
+        progressWindow.setLinksChecked(linksChecked);
+        progressWindow.setBadLinks(deadLinks);
+        for (Note note : invalid) {
+          if (! note.getTagsAsString().contains(INVALID_URL_TAG)) {
+            notesWithInvalidLinks.add(note);
+          } // End if we don't already have an invalid URL tag
+        }
+        if (notesWithInvalidLinks.size() >= INVALID_LINK_BATCH_SIZE) {
+          tagInvalidLinks();
+        }
+      }
+      
+      @Override
+      public void validationComplete() {
+        tagInvalidLinks();
+      }
+    });
 
   }
   
   public void stopLinkValidation() {
     if (! progressWindow.allDone()) {
-      URLValidator validator;
-      for (int i = 0; i < urlValidators.size(); i++) {
-        validator = urlValidators.get(i);
-        if (! validator.isDone()) {
-          validator.cancel(true);
-        }
-      }
+      linkValidator.cancel();
     }
+    tagInvalidLinks();
     windowMenuManager.hide(progressWindow);
     selectPositionAndDisplay(initialSelection);
   }
+  
+  /**
+   Add the Invalid URL tag to the notes found so far to have invalid links, 
+   as a single batch. If some other operation is in progress, the notes 
+   are left for next time. 
+  */
+  private void tagInvalidLinks() {
+    if (notesWithInvalidLinks == null 
+        || notesWithInvalidLinks.isEmpty()
+        || opInProgress) {
+      return;
+    }
+    opInProgress = true;
+    NoteBatch batch = new NoteBatch(model, searchIndex, noteTable, noteTree);
+    batch.apply(notesWithInvalidLinks, 
+        NoteBatch.changingTags(note -> note.getTags().merge(INVALID_URL_TAG)));
+    notesWithInvalidLinks.clear();
+    opInProgress = false;
+    if (model.hasSelection()) {
+      editPane.setTags(model.getSelection().getTagsAsString());
+    }
+  }
 
   public File getCurrentDirectory () {
     return currentDirectory;
@@ -5128,7 +5894,6 @@ public class Notenik
     if (modOK) {
       
       boolean ok = true;
-      int exported = 0;
       
       String selectTagsStr 
         = tagsPrefs.getSelectTagsAsString();
@@ -5143,6 +5908,7 @@ public class Notenik
       switch (exportType) {
 
         case NoteExport.NOTENIK_EXPORT:
+        case NoteExport.NOTENIK_INCREMENTAL_EXPORT:
           selectedFile = dirChooser.showDialog(primaryStage);
           if (selectedFile == null) {
             // this condition will be handled later
@@ -5185,46 +5951,60 @@ public class Notenik
         noValidExportDestination();
       } 
       if (ok) {
+        final File exportFile = selectedFile;
+        // Take what's needed from the collection here, on the FX thread, 
+        // so that the user can carry on with it while the export runs
+        Task<Integer> task;
         if (exportType == NoteExport.OPML_EXPORT) {
-          exported = 
-            exporter.OPMLExport(
-              selectedFile,
-              model);
-        } else {
-          exported = 
-            exporter.generalExport(
-              selectedFile,
-              model.getFolder(),
-              model.getRecDef(),
-              model,
-              exportType, 
-              selectTagsStr, 
-              suppressTagsStr);
-        }
-
-        if (ok && exported >= 0) {
-          Alert alert = new Alert(AlertType.INFORMATION);
-          alert.setTitle("Export Results");
-          alert.setHeaderText(null);
-          alert.setContentText(String.valueOf(exported) 
-                  + " Notes exported successfully to"
-                  + GlobalConstants.LINE_FEED
-                  + selectedFile.toString());
-          alert.showAndWait();
-          Logger.getShared().recordEvent (LogEvent.NORMAL, String.valueOf(exported) 
-              + " Notes exported to " 
-              + selectedFile.toString(),
-              false);
-          statusBar.setStatus(String.valueOf(exported) + " Notes exported");
+          NoteExport.OutlineItem outline = exporter.outlineTags(model);
+          task = new Task<Integer>() {
+            @Override
+            protected Integer call() throws Exception {
+              return exporter.OPMLExport(exportFile, outline);
+            }
+          };
         } else {
-          Logger.getShared().recordEvent (LogEvent.MEDIUM,
-            "Problem exporting Notes to " + selectedFile.toString(),
-              false);
-          Trouble.getShared().report ("I/O error attempting to export notes to " 
-                + selectedFile.toString(),
-              "I/O Error");
-          statusBar.setStatus("Export problems");
+          RecordDefinition recDef = new RecordDefinition(model.getRecDef());
+          recDef.copyDefs(model.getRecDef());
+          ArrayList<Note> selected 
+              = exporter.selectForExport(model, selectTagsStr);
+          task = new Task<Integer>() {
+            @Override
+            protected Integer call() throws Exception {
+              return exporter.generalExport(
+                  exportFile,
+                  recDef,
+                  selected,
+                  exportType, 
+                  suppressTagsStr);
+            }
+          };
         }
+        runBackground("Export", task, exported -> {
+          if (exported >= 0
+              && exportType == NoteExport.NOTENIK_INCREMENTAL_EXPORT) {
+            reportOperation(String.valueOf(exported) 
+                + " Notes exported to " 
+                + exportFile.toString()
+                + ": " + String.valueOf(exporter.getWritten()) + " written, "
+                + String.valueOf(exporter.getUnchanged()) + " unchanged, "
+                + String.valueOf(exporter.getDeleted()) + " deleted");
+          } 
+          else
+          if (exported >= 0) {
+            reportOperation(String.valueOf(exported) 
+                + " Notes exported to " 
+                + exportFile.toString());
+          } else {
+            Logger.getShared().recordEvent (LogEvent.MEDIUM,
+              "Problem exporting Notes to " + exportFile.toString(),
+                false);
+            Trouble.getShared().report ("I/O error attempting to export notes to " 
+                  + exportFile.toString(),
+                "I/O Error");
+            statusBar.setStatus("Export problems");
+          }
+        });
       } // end if prepared to attempt export
     } // end if last mod ok
   } // end method generalExport
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.logging.*;
+  import com.powersurgepub.psutils2.ui.*;
+
+  import java.util.concurrent.*;
+  import java.util.function.*;
+
+  import javafx.application.*;
+  import javafx.concurrent.*;
+  import javafx.geometry.*;
+  import javafx.scene.control.*;
+  import javafx.scene.layout.*;
+
+/**
+ Runs long operations on a background thread, one at a time, showing their
+ progress beneath the status bar and offering a Cancel button. Each
+ operation is a JavaFX Task: its progress drives the progress bar, and its
+ messages are passed along to the status bar. Completion is reported on the
+ FX thread, through the callbacks supplied when the operation is started.
+
+ The caller is responsible for the opInProgress guard. The operation is not
+ treated as finished, and onFinished is not called, until the Task's call
+ method has actually returned on the background thread, even when the Task
+ has been cancelled, so that the guard is never released while the work is
+ still going on. A Task that needs to change the collection should do so on
+ the FX thread, in small pieces, using runAndWait.
+ */
+public class OperationRunner {
+
+  private     StatusBar           statusBar;
+
+  private     HBox                progressPane;
+  private     Label               operationLabel;
+  private     ProgressBar         progressBar;
+  private     Button              cancelButton;
+
+  private     Task<?>             currentTask = null;
+  private     String              currentName = "";
+  private     Thread              currentThread = null;
+  private     Runnable            currentOnFinished = null;
+
+  /**
+   Prepare to run operations.
+
+   @param statusBar The status bar to receive the operations' messages.
+  */
+  public OperationRunner(StatusBar statusBar) {
+    this.statusBar = statusBar;
+
+    operationLabel = new Label();
+    progressBar = new ProgressBar(0);
+    progressBar.setMaxWidth(Double.MAX_VALUE);
+    HBox.setHgrow(progressBar, Priority.ALWAYS);
+    cancelButton = new Button("Cancel");
+    cancelButton.setOnAction(e -> cancel());
+
+    progressPane = new HBox(8);
+    progressPane.setPadding(new Insets(2, 8, 2, 8));
+    progressPane.setAlignment(Pos.CENTER_LEFT);
+    progressPane.getChildren().addAll(operationLabel, progressBar, cancelButton);
+    showProgress(false);
+  }
+
+  /**
+   Return the pane showing the progress of the current operation, to be
+   added to the main window. The pane is hidden when nothing is running.
+
+   @return The progress pane.
+  */
+  public Pane getPane() {
+    return progressPane;
+  }
+
+  /**
+   Start an operation on a background thread.
+
+   @param name        The name of the operation, as shown to the user.
+   @param task        The work to be done.
+   @param onSucceeded Called on the FX thread with the task's value, if the
+                      task completes normally. May be null.
+   @param onFinished  Called on the FX thread when the task succeeds, fails
+                      or is cancelled, before onSucceeded. May be null.
+
+   @return True if the operation was started; false if another operation
+           is still running.
+  */
+  public <T> boolean run(
+      String name,
+      Task<T> task,
+      Consumer<T> onSucceeded,
+      Runnable onFinished) {
+
+    if (isRunning()) {
+      statusBar.setStatus(currentName + " still in progress");
+      return false;
+    }
+
+    currentTask = task;
+    currentName = name;
+    currentOnFinished = onFinished;
+    operationLabel.setText(name);
+    progressBar.progressProperty().bind(task.progressProperty());
+    cancelButton.setDisable(false);
+    showProgress(true);
+    statusBar.setStatus(name + "...");
+
+    task.messageProperty().addListener((prop, oldValue, newValue) -> {
+      if (newValue != null && newValue.length() > 0) {
+        statusBar.setStatus(newValue);
+      }
+    });
+
+    Thread backgroundThread = new Thread(() -> {
+      try {
+        task.run();
+      } finally {
+        // The task posts its final state before run returns, so by the
+        // time this runs on the FX thread the state is settled
+        Platform.runLater(() -> ended(task, name, onSucceeded, onFinished));
+      }
+    }, name);
+    backgroundThread.setDaemon(true);
+    currentThread = backgroundThread;
+    backgroundThread.start();
+    return true;
+  }
+
+  /**
+   Is an operation running now?
+
+   @return True if an operation has been started and its background thread
+           has not yet finished with it.
+  */
+  public boolean isRunning() {
+    return (currentTask != null);
+  }
+
+  /**
+   Return the name of the operation now running.
+
+   @return The operation's name, or an empty string if nothing is running.
+  */
+  public String getOperationName() {
+    return currentName;
+  }
+
+  /**
+   Ask the current operation, if any, to stop as soon as it can.
+  */
+  public void cancel() {
+    if (currentTask != null) {
+      cancelButton.setDisable(true);
+      statusBar.setStatus("Cancelling " + currentName + "...");
+      currentTask.cancel();
+    }
+  }
+
+  /**
+   Cancel the current operation, if any, and wait for its background thread
+   to finish with it, so that whatever it was working on can safely be
+   closed. The operation's onFinished callback is called before returning,
+   but its onSucceeded callback is not.
+
+   @param millis The longest time to wait, in milliseconds.
+
+   @return True if nothing is left running; false if the operation did not
+           stop in time, in which case it will be reported as usual when
+           it does.
+  */
+  public boolean cancelAndWait(long millis) {
+    if (currentTask == null) {
+      return true;
+    }
+    Thread backgroundThread = currentThread;
+    cancel();
+    boolean interrupted = false;
+    try {
+      backgroundThread.join(millis);
+    } catch (InterruptedException e) {
+      interrupted = true;
+    }
+    if (backgroundThread.isAlive()) {
+      Logger.getShared().recordEvent(LogEvent.MEDIUM,
+          currentName + " did not stop in time",
+          false);
+    } else {
+      Logger.getShared().recordEvent(LogEvent.NORMAL,
+          currentName + " cancelled",
+          false);
+      finish(currentOnFinished);
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    return (currentTask == null);
+  }
+
+  /**
+   Run a piece of work on the FX thread, and wait for it to complete. If
+   called from the FX thread, the work is simply run.
+
+   @param work The work to be done.
+
+   @throws InterruptedException If the calling thread is interrupted,
+                                usually because its task was cancelled.
+  */
+  public static void runAndWait(Runnable work)
+      throws InterruptedException {
+
+    if (Platform.isFxApplicationThread()) {
+      work.run();
+      return;
+    }
+    FutureTask<Void> future = new FutureTask<Void>(work, null);
+    Platform.runLater(future);
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      // Make sure the work is not done after the caller has given up on it
+      future.cancel(false);
+      throw e;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+        throw (Error)cause;
+      } else {
+        throw new RuntimeException(cause);
+      }
+    }
+  }
+
+  /**
+   Stop a pool of worker threads started by a task, and wait for any work
+   already under way to finish, so that the task does not return while its
+   workers are still busy. The wait is not cut short by an interrupt; any
+   interrupt is passed on once the pool has terminated.
+
+   @param pool The pool to be stopped.
+  */
+  public static void stopAndWait(ExecutorService pool) {
+    pool.shutdownNow();
+    boolean interrupted = Thread.interrupted();
+    while (! pool.isTerminated()) {
+      try {
+        pool.awaitTermination(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   Report how an operation ended, once its background thread has finished
+   with it.
+  */
+  private <T> void ended(
+      Task<T> task,
+      String name,
+      Consumer<T> onSucceeded,
+      Runnable onFinished) {
+
+    if (task != currentTask) {
+      // Already cleaned up by cancelAndWait
+      return;
+    }
+    finish(onFinished);
+    switch (task.getState()) {
+      case SUCCEEDED:
+        if (onSucceeded != null) {
+          onSucceeded.accept(task.getValue());
+        }
+        break;
+      case CANCELLED:
+        statusBar.setStatus(name + " cancelled");
+        Logger.getShared().recordEvent(LogEvent.NORMAL,
+            name + " cancelled",
+            false);
+        break;
+      default:
+        statusBar.setStatus(name + " failed");
+        Logger.getShared().recordEvent(LogEvent.MEDIUM,
+            name + " failed: " + String.valueOf(task.getException()),
+            false);
+        Trouble.getShared().report(
+            name + " could not be completed: "
+              + String.valueOf(task.getException()),
+            name + " Error");
+        break;
+    }
+  }
+
+  /**
+   Clean up after an operation, however it ended.
+  */
+  private void finish(Runnable onFinished) {
+    progressBar.progressProperty().unbind();
+    progressBar.setProgress(0);
+    showProgress(false);
+    currentTask = null;
+    currentName = "";
+    currentThread = null;
+    currentOnFinished = null;
+    if (onFinished != null) {
+      onFinished.run();
+    }
+  }
+
+  private void showProgress(boolean show) {
+    progressPane.setVisible(show);
+    progressPane.setManaged(show);
+  }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import java.time.*;
+  import java.util.concurrent.*;
+
+  import javafx.application.*;
+
+/**
+ Arranges for recurring tasks to be caught up automatically: once when a
+ collection is opened, and again whenever the date rolls over while it
+ remains open. A background timer checks the date every minute, which
+ also takes care of a computer that has been asleep over midnight; the
+ catch-up itself is run on the FX thread.
+
+ If the catch-up can't be run when it comes due, because some other
+ operation is in progress, the caller should call retryLater.
+
+ Each start begins a new generation, and a check only runs the catch-up
+ if it belongs to the current generation, so that a check still waiting
+ for the FX thread when the scheduler is stopped, or restarted for
+ another collection, does nothing.
+ */
+public class RecurrenceScheduler {
+
+  /** Interval between checks of the date, in seconds. */
+  public static final long    CHECK_INTERVAL = 60;
+
+  private     Runnable            catchUp;
+  private     ScheduledExecutorService timer = null;
+
+  /** The day of the last catch-up, as a count of days since the epoch. */
+  private     long                lastDay = Long.MIN_VALUE;
+
+  /** Changed on each start and stop, on the FX thread. */
+  private     int                 generation = 0;
+
+  /**
+   Prepare a scheduler.
+
+   @param catchUp The catch-up to be run, on the FX thread, when due.
+  */
+  public RecurrenceScheduler(Runnable catchUp) {
+    this.catchUp = catchUp;
+  }
+
+  /**
+   Start watching the date for a newly opened collection. The first
+   catch-up is run as soon as the FX thread is free. Must be called on the
+   FX thread.
+  */
+  public void start() {
+    stop();
+    lastDay = Long.MIN_VALUE;
+    int timerGeneration = ++generation;
+    timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "Recurrence scheduler");
+      thread.setDaemon(true);
+      return thread;
+    });
+    timer.scheduleWithFixedDelay(() -> check(timerGeneration),
+        0, CHECK_INTERVAL, TimeUnit.SECONDS);
+  }
+
+  /**
+   Stop watching the date, when the collection is closed. Must be called
+   on the FX thread.
+  */
+  public void stop() {
+    generation++;
+    if (timer != null) {
+      timer.shutdownNow();
+      timer = null;
+    }
+  }
+
+  /**
+   The catch-up could not be run just now: try again at the next check.
+   Must be called on the FX thread.
+  */
+  public void retryLater() {
+    lastDay = Long.MIN_VALUE;
+  }
+
+  /**
+   Called on the timer thread: if the date has changed since the last
+   catch-up, run another.
+
+   @param timerGeneration The generation of the timer making the check.
+  */
+  private void check(int timerGeneration) {
+    long today = LocalDate.now().toEpochDay();
+    Platform.runLater(() -> {
+      if (timerGeneration == generation && today != lastDay) {
+        lastDay = today;
+        catchUp.run();
+      }
+    });
+  }
+
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.logging.*;
+  import com.powersurgepub.psutils2.markup.*;
+
+  import java.io.*;
+  import java.nio.charset.*;
+  import java.security.*;
+  import java.util.*;
+  import java.util.concurrent.atomic.*;
+
+/**
+ A cache of Markdown rendered as HTML, shared by the display of notes and
+ by the various exports, so that an unchanged body is only rendered once.
+ Entries are keyed by a digest of the Markdown, so an edited body simply
+ misses the cache, and the least recently used entries are dropped once the
+ rendered HTML held passes a size limit.
+
+ Optionally, the cache for a collection can be saved when the collection
+ is closed and loaded again when it is next opened.
+
+ The cache is safe to use from several threads at once. Each thread
+ renders with its own MdToHTML, since one renderer is not known to be safe
+ to share, so bodies missing from the cache are rendered in parallel.
+ */
+public class RenderCache {
+
+  /** Folder within the user's home folder in which caches are saved. */
+  public static final String  CACHE_FOLDER_NAME = ".notenik-html";
+  public static final String  CACHE_EXT = ".html-cache";
+
+  /** Preference key for the most HTML to be held, in megabytes. */
+  public static final String  MAX_MB_KEY = "render-cache-mb";
+  public static final int     DEFAULT_MAX_MB = 16;
+
+  /** Preference key for saving the cache between sessions. */
+  public static final String  PERSIST_KEY = "render-cache-persist";
+  public static final boolean DEFAULT_PERSIST = false;
+
+  /** Rough overhead per entry, in bytes, beyond the HTML itself. */
+  private static final int    ENTRY_OVERHEAD = 128;
+
+  private static final int    FORMAT_VERSION = 1;
+
+  private static RenderCache  shared = null;
+
+  private     ThreadLocal<MdToHTML> renderers
+      = ThreadLocal.withInitial(() -> new MdToHTML());
+
+  private     long                maxBytes;
+  private     long                bytes = 0;
+
+  /** The rendered HTML, in order from least to most recently used. */
+  private     LinkedHashMap<String, String> entries
+      = new LinkedHashMap<String, String>(256, 0.75f, true);
+
+  private     AtomicLong          hits = new AtomicLong();
+  private     AtomicLong          misses = new AtomicLong();
+
+  private     File                folder = null;
+  private     File                cacheFile = null;
+  private     boolean             changed = false;
+
+  private     ThreadLocal<MessageDigest> digests
+      = ThreadLocal.withInitial(() -> {
+        try {
+          return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+
+  /**
+   Return the single cache shared across the application.
+
+   @return The shared cache.
+  */
+  public static synchronized RenderCache getShared() {
+    if (shared == null) {
+      shared = new RenderCache(DEFAULT_MAX_MB);
+    }
+    return shared;
+  }
+
+  /**
+   Create a cache.
+
+   @param maxMegabytes The most rendered HTML to be held, in megabytes.
+  */
+  public RenderCache(int maxMegabytes) {
+    setMaxMegabytes(maxMegabytes);
+  }
+
+  /**
+   Change the most rendered HTML to be held, dropping entries if needed.
+
+   @param maxMegabytes The most rendered HTML to be held, in megabytes.
+  */
+  public synchronized void setMaxMegabytes(int maxMegabytes) {
+    maxBytes = Math.max(1, maxMegabytes) * 1024L * 1024L;
+    trim();
+  }
+
+  /**
+   Return the given Markdown as HTML, rendering it only if it isn't
+   already in the cache.
+
+   @param markdown The Markdown to be rendered.
+
+   @return The equivalent HTML.
+  */
+  public String markdownToHtml(String markdown) {
+    if (markdown == null || markdown.length() == 0) {
+      return render(markdown);
+    }
+    String key = getKey(markdown);
+    String html;
+    synchronized (this) {
+      html = entries.get(key);
+    }
+    if (html != null) {
+      hits.incrementAndGet();
+      return html;
+    }
+    misses.incrementAndGet();
+    html = render(markdown);
+    synchronized (this) {
+      put(key, html);
+      changed = true;
+    }
+    return html;
+  }
+
+  /**
+   Render some Markdown with the calling thread's own renderer.
+  */
+  private String render(String markdown) {
+    return renderers.get().markdownToHtml(markdown);
+  }
+
+  /**
+   Start using the cache for a newly opened collection, picking up the
+   copy saved for it last time, if saving is wanted.
+
+   @param folder  The folder containing the collection.
+   @param persist Should the cache be saved between sessions?
+  */
+  public synchronized void open(File folder, boolean persist) {
+    this.folder = folder;
+    cacheFile = null;
+    // Start afresh, so that a saved cache holds only this collection's HTML
+    entries.clear();
+    bytes = 0;
+    hits.set(0);
+    misses.set(0);
+    if (persist && folder != null) {
+      File cacheFolder = new File(System.getProperty("user.home"),
+          CACHE_FOLDER_NAME);
+      String hash = Integer.toHexString(folder.getAbsolutePath().hashCode());
+      cacheFile = new File(cacheFolder, folder.getName() + "-" + hash + CACHE_EXT);
+      load();
+    }
+    changed = false;
+  }
+
+  /**
+   Finish with the current collection: record the hit rate in the log and
+   save the cache, if saving is wanted. The entries are dropped when the
+   next collection is opened.
+  */
+  public synchronized void close() {
+    if (folder != null && (hits.get() > 0 || misses.get() > 0)) {
+      Logger.getShared().recordEvent(LogEvent.NORMAL,
+          "Rendered HTML cache: " + toString(), false);
+    }
+    if (cacheFile != null && changed) {
+      save();
+    }
+    folder = null;
+    cacheFile = null;
+    changed = false;
+  }
+
+  /**
+   Load the saved copy of the cache. A missing copy simply means that
+   bodies will be rendered again as they are needed. A copy that turns out
+   to be corrupt or cut short is discarded, along with anything loaded from
+   it, rather than trusting the lengths recorded in it.
+  */
+  private void load() {
+    if (! cacheFile.exists()) {
+      return;
+    }
+    long fileLength = cacheFile.length();
+    boolean discard = false;
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(cacheFile)));
+      if (in.readInt() == FORMAT_VERSION
+          && in.readUTF().equals(Notenik.PROGRAM_VERSION)
+          && in.readUTF().equals(folder.getAbsolutePath())) {
+        int count = in.readInt();
+        if (count < 0) {
+          throw new IOException("Invalid entry count " + String.valueOf(count));
+        }
+        for (int i = 0; i < count; i++) {
+          String key = in.readUTF();
+          int length = in.readInt();
+          if (length < 0 || length > maxBytes || length > fileLength) {
+            throw new IOException("Invalid entry length " + String.valueOf(length));
+          }
+          byte[] html = new byte[length];
+          in.readFully(html);
+          put(key, new String(html, StandardCharsets.UTF_8));
+        }
+      }
+    } catch (IOException e) {
+      entries.clear();
+      bytes = 0;
+      Logger.getShared().recordEvent(LogEvent.MINOR,
+          "Discarding unreadable rendered HTML cache at " 
+            + cacheFile.toString() + ": " + e.toString(),
+          false);
+      discard = true;
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // Nothing more to do
+        }
+      }
+    }
+    if (discard) {
+      cacheFile.delete();
+    }
+  }
+
+  /**
+   Save the cache, from least to most recently used, so that the order is
+   the same once it is loaded again. The program version is saved along
+   with it, since a new version may render Markdown differently.
+  */
+  private void save() {
+    File cacheFolder = cacheFile.getParentFile();
+    if (! cacheFolder.exists()) {
+      cacheFolder.mkdirs();
+    }
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(cacheFile)));
+      out.writeInt(FORMAT_VERSION);
+      out.writeUTF(Notenik.PROGRAM_VERSION);
+      out.writeUTF(folder.getAbsolutePath());
+      out.writeInt(entries.size());
+      for (Map.Entry<String, String> mapEntry : entries.entrySet()) {
+        byte[] html = mapEntry.getValue().getBytes(StandardCharsets.UTF_8);
+        out.writeUTF(mapEntry.getKey());
+        out.writeInt(html.length);
+        out.write(html);
+      }
+      changed = false;
+    } catch (IOException e) {
+      Logger.getShared().recordEvent(LogEvent.MINOR,
+          "Unable to save rendered HTML cache to " + cacheFile.toString(),
+          false);
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          // Nothing more to do
+        }
+      }
+    }
+  }
+
+  /**
+   Add an entry, then drop the least recently used entries until the cache
+   is back within its limit. Must be called while holding the lock.
+  */
+  private void put(String key, String html) {
+    String replaced = entries.put(key, html);
+    if (replaced != null) {
+      bytes = bytes - getSize(replaced);
+    }
+    bytes = bytes + getSize(html);
+    trim();
+  }
+
+  private void trim() {
+    Iterator<String> iterator = entries.values().iterator();
+    while (bytes > maxBytes && iterator.hasNext()) {
+      bytes = bytes - getSize(iterator.next());
+      iterator.remove();
+    }
+  }
+
+  private static long getSize(String html) {
+    return (html.length() * 2L) + ENTRY_OVERHEAD;
+  }
+
+  /**
+   Return a digest of the Markdown to serve as its key.
+  */
+  private String getKey(String markdown) {
+    MessageDigest digest = digests.get();
+    digest.reset();
+    return Base64.getEncoder().encodeToString(
+        digest.digest(markdown.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   Return the proportion of requests found in the cache.
+
+   @return The hit rate, from 0 to 1.
+  */
+  public double getHitRate() {
+    long requests = hits.get() + misses.get();
+    if (requests == 0) {
+      return 0;
+    } else {
+      return (double)hits.get() / requests;
+    }
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public synchronized String toString() {
+    return String.valueOf(entries.size()) + " entries, "
+        + String.valueOf(bytes / 1024) + " KB, "
+        + String.valueOf(hits.get()) + " hits, "
+        + String.valueOf(misses.get()) + " misses ("
+        + String.valueOf(Math.round(getHitRate() * 100)) + "% hit rate)";
+  }
+
+}
@@ -48,8 +48,10 @@ public class ReplaceWindow
   private     CheckBox            caseSensitiveCheckBox;
   private     Button              findButton;
   private     CheckBox            linkCheckBox;
+  private     CheckBox            regexCheckBox;
   private     Button              replaceButton;
   private     CheckBox            tagsCheckBox;
+  private     CheckBox            queryCheckBox;
   private     Button              replaceAndFindButton;
   private     CheckBox            bodyCheckBox;
   private     Button              replaceAllButton;
@@ -160,6 +162,21 @@ public class ReplaceWindow
 		linkCheckBox.setMaxWidth(Double.MAX_VALUE);
 		GridPane.setHgrow(linkCheckBox, Priority.SOMETIMES);
 
+		regexCheckBox = new CheckBox("Regular expression");
+    regexCheckBox.setOnAction(new EventHandler<ActionEvent>() {
+      @Override
+      public void handle(ActionEvent evt) {
+        if (regexCheckBox.isSelected()) {
+          queryCheckBox.setSelected(false);
+          replaceAllButton.setDisable(false);
+        }
+        resetFindButton();
+		  } // end handle method
+		}); // end event handler
+		replacePane.add(regexCheckBox, 1, rowCount, 1, 1);
+		regexCheckBox.setMaxWidth(Double.MAX_VALUE);
+		GridPane.setHgrow(regexCheckBox, Priority.SOMETIMES);
+
 		replaceButton = new Button("Replace");
     replaceButton.setOnAction(new EventHandler<ActionEvent>() {
       @Override
@@ -185,6 +202,21 @@ public class ReplaceWindow
 		tagsCheckBox.setMaxWidth(Double.MAX_VALUE);
 		GridPane.setHgrow(tagsCheckBox, Priority.SOMETIMES);
 
+		queryCheckBox = new CheckBox("Multi-term query");
+    queryCheckBox.setOnAction(new EventHandler<ActionEvent>() {
+      @Override
+      public void handle(ActionEvent evt) {
+        if (queryCheckBox.isSelected()) {
+          regexCheckBox.setSelected(false);
+        }
+        replaceAllButton.setDisable(queryCheckBox.isSelected());
+        resetFindButton();
+		  } // end handle method
+		}); // end event handler
+		replacePane.add(queryCheckBox, 1, rowCount, 1, 1);
+		queryCheckBox.setMaxWidth(Double.MAX_VALUE);
+		GridPane.setHgrow(queryCheckBox, Priority.SOMETIMES);
+
 		replaceAndFindButton = new Button("Replace & Find");
     replaceAndFindButton.setOnAction(new EventHandler<ActionEvent>() {
       @Override
@@ -219,7 +251,8 @@ public class ReplaceWindow
             linkCheckBox.isSelected(),
             tagsCheckBox.isSelected(),
             bodyCheckBox.isSelected(),
-            true);
+            caseSensitive(),
+            regexSelected());
         setVisible(false);
 		  } // end handle method
 		}); // end event handler
@@ -256,8 +289,10 @@ public class ReplaceWindow
   
   public void findInProgress() {
     setFindButtonText(notenik.FIND_AGAIN);
-    replaceButton.setDisable(false);
-    replaceAndFindButton.setDisable(false);
+    
+    // A query selects whole Notes, so there is no matched text to replace
+    replaceButton.setDisable(querySelected());
+    replaceAndFindButton.setDisable(querySelected());
   }
   
   public void setFindButtonText(String findButtonText) {
@@ -283,6 +318,8 @@ public class ReplaceWindow
         tagsSelected(),
         bodySelected(),
         caseSensitive(),
+        regexSelected(),
+        querySelected(),
         true);
   }
   
@@ -314,6 +351,14 @@ public class ReplaceWindow
     return caseSensitiveCheckBox.isSelected();
   }
   
+  public boolean regexSelected() {
+    return regexCheckBox.isSelected();
+  }
+  
+  public boolean querySelected() {
+    return queryCheckBox.isSelected();
+  }
+  
   public String getTitle() {
     return ("Notenik Find and Replace");
   }
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.files.*;
+  import com.powersurgepub.psutils2.notenik.*;
+
+/**
+ One note found by a background search, along with a snippet of the text
+ surrounding the first hit. A note found in a collection other than the one
+ currently open also identifies its collection.
+ */
+public class SearchResult {
+
+  public static final int   SNIPPET_CONTEXT = 40;
+
+  private     Note                note;
+  private     int                 position;
+  private     String              title;
+  private     String              fieldName;
+  private     String              snippet;
+
+  /** The collection in which the note was found, when searching them all. */
+  private     FileSpec            collection = null;
+  private     int                 collectionIndex = 0;
+
+  /**
+   Construct a new search result.
+
+   @param note      The note found.
+   @param position  The note's position within the collection's list.
+   @param fieldName The name of the field in which the hit was found.
+   @param text      The text of that field.
+   @param start     The offset of the hit within the text.
+   @param end       The offset just past the end of the hit.
+  */
+  public SearchResult(
+      Note note,
+      int position,
+      String fieldName,
+      String text,
+      int start,
+      int end) {
+
+    this.note = note;
+    this.position = position;
+    this.title = note.getTitle();
+    this.fieldName = fieldName;
+    this.snippet = makeSnippet(text, start, end);
+  }
+
+  /**
+   Look for the first hit within a single note, checking the short fields
+   before the body.
+
+   @param note       The note to be searched.
+   @param position   The note's position within its collection.
+   @param matcher    The matcher for the search string.
+   @param checkTitle Should we check the title of the Note?
+   @param checkLink  Should we check the link of the Note?
+   @param checkTags  Should we check the tags of the Note?
+   @param checkBody  Should we check the body of the Note?
+
+   @return A search result, or null if no hit.
+  */
+  public static SearchResult search(
+      Note note,
+      int position,
+      FieldMatcher matcher,
+      boolean checkTitle,
+      boolean checkLink,
+      boolean checkTags,
+      boolean checkBody) {
+
+    if (note == null) {
+      return null;
+    }
+    String text;
+    if (checkTitle) {
+      text = note.getTitle();
+      if (matcher.find(text) >= 0) {
+        return new SearchResult(note, position, NoteParms.TITLE_FIELD_NAME,
+            text, matcher.getMatchStart(), matcher.getMatchEnd());
+      }
+    }
+    if (checkTags) {
+      text = note.getTagsAsString();
+      if (matcher.find(text) >= 0) {
+        return new SearchResult(note, position, NoteParms.TAGS_FIELD_NAME,
+            text, matcher.getMatchStart(), matcher.getMatchEnd());
+      }
+    }
+    if (checkLink) {
+      text = note.getLinkAsString();
+      if (matcher.find(text) >= 0) {
+        return new SearchResult(note, position, NoteParms.LINK_FIELD_NAME,
+            text, matcher.getMatchStart(), matcher.getMatchEnd());
+      }
+    }
+    if (checkBody) {
+      text = note.getBody();
+      if (matcher.find(text) >= 0) {
+        return new SearchResult(note, position, NoteParms.BODY_FIELD_NAME,
+            text, matcher.getMatchStart(), matcher.getMatchEnd());
+      }
+    }
+    return null;
+  }
+
+  /**
+   Pull out the text surrounding a hit, flattened onto a single line.
+  */
+  private static String makeSnippet(String text, int start, int end) {
+    int from = Math.max(0, start - SNIPPET_CONTEXT);
+    int to = Math.min(text.length(), end + SNIPPET_CONTEXT);
+    StringBuilder snip = new StringBuilder(to - from + 6);
+    if (from > 0) {
+      snip.append("...");
+    }
+    for (int i = from; i < to; i++) {
+      char c = text.charAt(i);
+      if (Character.isWhitespace(c)) {
+        c = ' ';
+      }
+      snip.append(c);
+    }
+    if (to < text.length()) {
+      snip.append("...");
+    }
+    return snip.toString();
+  }
+
+  public Note getNote() {
+    return note;
+  }
+
+  public int getPosition() {
+    return position;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public String getFieldName() {
+    return fieldName;
+  }
+
+  public String getSnippet() {
+    return snippet;
+  }
+
+  /**
+   Identify the collection in which the note was found.
+
+   @param collection      The collection's file spec.
+   @param collectionIndex The collection's position within the list of
+                          collections searched.
+  */
+  public void setCollection(FileSpec collection, int collectionIndex) {
+    this.collection = collection;
+    this.collectionIndex = collectionIndex;
+  }
+
+  public boolean hasCollection() {
+    return (collection != null);
+  }
+
+  public FileSpec getCollection() {
+    return collection;
+  }
+
+  public int getCollectionIndex() {
+    return collectionIndex;
+  }
+
+  @Override
+  public String toString() {
+    return title + " -- " + snippet;
+  }
+
+}
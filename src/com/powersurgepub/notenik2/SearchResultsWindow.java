@@ -0,0 +1,277 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.ui.*;
+
+  import java.util.*;
+
+  import javafx.collections.*;
+  import javafx.concurrent.*;
+  import javafx.event.*;
+  import javafx.scene.*;
+  import javafx.scene.control.*;
+  import javafx.scene.input.*;
+  import javafx.scene.layout.*;
+  import javafx.stage.*;
+
+/**
+ A window listing the notes found by a background search. Results are
+ added as they are found, and the user may jump to any one of them, or
+ cancel the search while it is still running.
+ */
+public class SearchResultsWindow
+    implements
+      WindowToManage {
+
+  public static final String      WINDOW_TITLE = "Find All Results";
+
+  private     Notenik             notenik;
+
+  private     FXUtils             fxUtils;
+  private     Stage               resultsStage;
+  private     Scene               resultsScene;
+  private     GridPane            resultsPane;
+  private     Label               statusLabel;
+  private     ListView<SearchResult> resultsList;
+  private     ProgressBar         progressBar;
+  private     Button              showButton;
+  private     Button              cancelButton;
+
+  private     ObservableList<SearchResult> results
+      = FXCollections.observableArrayList();
+
+  /** The search currently feeding this window. */
+  private     Task<Integer>       currentTask = null;
+  private     String              findString = "";
+
+  public SearchResultsWindow(Notenik notenik) {
+    this.notenik = notenik;
+    buildUI();
+  }
+
+  /**
+   Build the user interface
+   */
+  private void buildUI() {
+
+    resultsStage = new Stage(StageStyle.DECORATED);
+    resultsStage.setTitle(getTitle());
+
+    fxUtils = FXUtils.getShared();
+    int rowCount = 0;
+
+    resultsPane = new GridPane();
+    fxUtils.applyStyle(resultsPane);
+
+    statusLabel = new Label("");
+    resultsPane.add(statusLabel, 0, rowCount, 2, 1);
+    statusLabel.setMaxWidth(Double.MAX_VALUE);
+    GridPane.setHgrow(statusLabel, Priority.ALWAYS);
+
+    rowCount++;
+
+    resultsList = new ListView<SearchResult>(results);
+    resultsList.setCellFactory(list -> new ListCell<SearchResult>() {
+      @Override
+      protected void updateItem(SearchResult result, boolean empty) {
+        super.updateItem(result, empty);
+        if (empty || result == null) {
+          setText(null);
+        } else {
+          String prefix = "";
+          if (result.hasCollection()) {
+            prefix = result.getCollection().getCollectionTitle() + ": ";
+          }
+          setText(prefix + result.getTitle()
+              + System.lineSeparator()
+              + "    " + result.getSnippet());
+        }
+      }
+    });
+    resultsList.setOnMouseClicked(new EventHandler<MouseEvent>() {
+      @Override
+      public void handle(MouseEvent evt) {
+        if (evt.getClickCount() > 1) {
+          showSelected();
+        }
+      } // end handle method
+    }); // end event handler
+    resultsPane.add(resultsList, 0, rowCount, 2, 1);
+    resultsList.setMaxWidth(Double.MAX_VALUE);
+    resultsList.setPrefHeight(360);
+    GridPane.setHgrow(resultsList, Priority.ALWAYS);
+    GridPane.setVgrow(resultsList, Priority.ALWAYS);
+
+    rowCount++;
+
+    progressBar = new ProgressBar(0);
+    resultsPane.add(progressBar, 0, rowCount, 2, 1);
+    progressBar.setMaxWidth(Double.MAX_VALUE);
+    GridPane.setHgrow(progressBar, Priority.ALWAYS);
+
+    rowCount++;
+
+    showButton = new Button("Show Note");
+    showButton.setOnAction(new EventHandler<ActionEvent>() {
+      @Override
+      public void handle(ActionEvent evt) {
+        showSelected();
+      } // end handle method
+    }); // end event handler
+    resultsPane.add(showButton, 0, rowCount, 1, 1);
+    showButton.setMaxWidth(Double.MAX_VALUE);
+    GridPane.setHgrow(showButton, Priority.SOMETIMES);
+
+    cancelButton = new Button("Cancel Search");
+    cancelButton.setOnAction(new EventHandler<ActionEvent>() {
+      @Override
+      public void handle(ActionEvent evt) {
+        cancelSearch();
+      } // end handle method
+    }); // end event handler
+    resultsPane.add(cancelButton, 1, rowCount, 1, 1);
+    cancelButton.setMaxWidth(Double.MAX_VALUE);
+    GridPane.setHgrow(cancelButton, Priority.SOMETIMES);
+
+    rowCount++;
+
+    resultsScene = new Scene(resultsPane);
+    resultsStage.setScene(resultsScene);
+    resultsStage.setMinWidth(480);
+  } // end method buildUI
+
+  /**
+   Start displaying the results of a new search, cancelling any search
+   that is still running.
+
+   @param task       The search task that will supply the results.
+   @param findString The string being searched for.
+  */
+  public void startSearch(Task<Integer> task, String findString) {
+    cancelSearch();
+    this.currentTask = task;
+    this.findString = findString;
+    results.clear();
+    statusLabel.setText("Searching for \"" + findString + "\"...");
+    progressBar.progressProperty().bind(task.progressProperty());
+    cancelButton.setDisable(false);
+  }
+
+  /**
+   Add a batch of results found by a search.
+
+   @param task  The search that found them.
+   @param batch The results found.
+  */
+  public void addResults(Task<Integer> task, List<SearchResult> batch) {
+    if (task == currentTask) {
+      results.addAll(batch);
+      statusLabel.setText("Searching for \"" + findString + "\" -- "
+          + String.valueOf(results.size()) + " found so far");
+    }
+  }
+
+  /**
+   The current search has run to completion.
+
+   @param task The search that completed.
+  */
+  public void searchComplete(Task<Integer> task) {
+    if (task == currentTask) {
+      Collections.sort(results, (a, b) -> {
+        int compare = Integer.compare(
+            a.getCollectionIndex(), b.getCollectionIndex());
+        if (compare == 0) {
+          compare = Integer.compare(a.getPosition(), b.getPosition());
+        }
+        return compare;
+      });
+      statusLabel.setText(String.valueOf(results.size())
+          + " Notes found containing \"" + findString + "\"");
+      searchStopped(1);
+    }
+  }
+
+  /**
+   Cancel the current search, if one is running.
+  */
+  public void cancelSearch() {
+    if (currentTask != null && (! currentTask.isDone())) {
+      currentTask.cancel();
+      statusLabel.setText("Search cancelled after finding "
+          + String.valueOf(results.size()) + " Notes");
+    }
+    searchStopped(0);
+  }
+
+  /**
+   Is a search still running?
+
+   @return True if a search is in progress.
+  */
+  public boolean isSearching() {
+    return (currentTask != null && (! currentTask.isDone()));
+  }
+
+  private void searchStopped(double progress) {
+    progressBar.progressProperty().unbind();
+    progressBar.setProgress(progress);
+    cancelButton.setDisable(true);
+    currentTask = null;
+  }
+
+  /**
+   Show the note selected by the user.
+  */
+  private void showSelected() {
+    SearchResult result = resultsList.getSelectionModel().getSelectedItem();
+    if (result != null) {
+      notenik.showSearchResult(result);
+    }
+  }
+
+  public String getTitle() {
+    return WINDOW_TITLE;
+  }
+
+  public void setVisible (boolean visible) {
+    if (visible) {
+      resultsStage.show();
+    } else {
+      resultsStage.hide();
+    }
+  }
+
+  public void toFront() {
+    resultsStage.toFront();
+  }
+
+  public double getWidth() {
+    return resultsStage.getWidth();
+  }
+
+  public double getHeight() {
+    return resultsStage.getHeight();
+  }
+
+  public void setLocation(double x, double y) {
+    resultsStage.setX(x);
+    resultsStage.setY(y);
+  }
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.powersurgepub.psutils2.notenik.*;
+  import com.powersurgepub.psutils2.tags.*;
+
+  import java.util.*;
+
+/**
+ An index of the notes carrying each tag word, so that operations on
+ particular tags need only visit the notes actually carrying them. Each
+ word within a tag (so "work" and "projects" within "work.projects") is
+ converted to lower case and interned as an integer ID, and the IDs are
+ mapped to the notes carrying them. The index also tracks the notes having
+ tags with more than one level, and those having tags with upper case
+ letters.
+
+ Matching is ultimately left to the Tags class: the notes returned by
+ this index are candidates that must still be checked.
+ */
+public class TagIndex {
+
+  /** The ID assigned to each word, in lower case. */
+  private     HashMap<String, Integer>    wordIds
+      = new HashMap<String, Integer>();
+
+  /** The notes carrying each word, indexed by word ID. */
+  private     ArrayList<Set<Note>>        postings
+      = new ArrayList<Set<Note>>();
+
+  /** The IDs of the words last indexed for each note. */
+  private     IdentityHashMap<Note, int[]> noteWords
+      = new IdentityHashMap<Note, int[]>();
+
+  private     Set<Note>                   multiLevelNotes = newNoteSet();
+  private     Set<Note>                   upperCaseNotes = newNoteSet();
+
+  public TagIndex() {
+
+  }
+
+  /**
+   Empty the index.
+  */
+  public void clear() {
+    wordIds.clear();
+    postings.clear();
+    noteWords.clear();
+    multiLevelNotes.clear();
+    upperCaseNotes.clear();
+  }
+
+  /**
+   Add a note to the index, or re-index it if it is already present.
+
+   @param note The note to be indexed.
+  */
+  public void add(Note note) {
+    if (note == null) {
+      return;
+    }
+    remove(note);
+    String tagsString = note.getTagsAsString();
+    if (! tagsString.equals(tagsString.toLowerCase())) {
+      upperCaseNotes.add(note);
+    }
+    TreeSet<Integer> ids = new TreeSet<Integer>();
+    TagsIterator iterator = new TagsIterator(note.getTags());
+    while (iterator.hasNextWord()) {
+      String word = iterator.nextWord();
+      if (word != null && word.length() > 0) {
+        ids.add(intern(word));
+        if (! iterator.isEndOfTag()) {
+          multiLevelNotes.add(note);
+        }
+      }
+    }
+    int[] wordArray = new int[ids.size()];
+    int i = 0;
+    for (Integer id : ids) {
+      wordArray[i] = id;
+      i++;
+      postings.get(id).add(note);
+    }
+    noteWords.put(note, wordArray);
+  }
+
+  /**
+   Re-index a note whose tags may have changed.
+
+   @param note The note that was modified.
+  */
+  public void update(Note note) {
+    add(note);
+  }
+
+  /**
+   Remove a note from the index.
+
+   @param note The note to be removed.
+  */
+  public void remove(Note note) {
+    if (note == null) {
+      return;
+    }
+    int[] ids = noteWords.remove(note);
+    if (ids != null) {
+      for (int id : ids) {
+        postings.get(id).remove(note);
+      }
+    }
+    multiLevelNotes.remove(note);
+    upperCaseNotes.remove(note);
+  }
+
+  /**
+   Has this note been indexed?
+
+   @param note The note in question.
+
+   @return True if the note is known to the index.
+  */
+  public boolean contains(Note note) {
+    return noteWords.containsKey(note);
+  }
+
+  /**
+   Return the number of notes in the index.
+
+   @return The number of notes indexed.
+  */
+  public int size() {
+    return noteWords.size();
+  }
+
+  /**
+   Find the notes that might carry any of the given tags. A note is a
+   candidate for a tag if it carries every word within that tag.
+
+   @param tags The tags of interest.
+
+   @return The candidate notes, or null if no tags were specified, in which
+           case every note must be treated as a candidate.
+  */
+  public Set<Note> getCandidates(Tags tags) {
+    if (tags == null) {
+      return null;
+    }
+    Set<Note> candidates = newNoteSet();
+    boolean anyTags = false;
+    ArrayList<Set<Note>> lists = new ArrayList<Set<Note>>();
+    boolean missing = false;
+    TagsIterator iterator = new TagsIterator(tags);
+    while (iterator.hasNextWord()) {
+      String word = iterator.nextWord();
+      if (word != null && word.length() > 0) {
+        anyTags = true;
+        Integer id = wordIds.get(word.toLowerCase());
+        if (id == null) {
+          missing = true;
+        } else {
+          lists.add(postings.get(id));
+        }
+        if (iterator.isEndOfTag()) {
+          if (! missing) {
+            candidates.addAll(intersect(lists));
+          }
+          lists.clear();
+          missing = false;
+        }
+      }
+    }
+    if (lists.size() > 0 && (! missing)) {
+      candidates.addAll(intersect(lists));
+    }
+    if (anyTags) {
+      return candidates;
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   Find the notes that might carry any of the given tags.
+
+   @param tagsString The tags of interest, as a string.
+
+   @return The candidate notes, or null if no tags were specified.
+  */
+  public Set<Note> getCandidates(String tagsString) {
+    if (tagsString == null || tagsString.trim().length() == 0) {
+      return null;
+    }
+    return getCandidates(new Tags(tagsString));
+  }
+
+  /**
+   Return the notes having at least one tag with more than one level.
+
+   @return The notes whose tags could be flattened.
+  */
+  public Set<Note> getMultiLevelNotes() {
+    return multiLevelNotes;
+  }
+
+  /**
+   Return the notes having tags containing upper case letters.
+
+   @return The notes whose tags could be lower-cased.
+  */
+  public Set<Note> getUpperCaseNotes() {
+    return upperCaseNotes;
+  }
+
+  /**
+   Should the given note be checked?
+
+   @param note       The note to be checked.
+   @param candidates The candidates returned by getCandidates.
+
+   @return True if the note is a candidate, or if the note has not been
+           indexed, and so must be checked the hard way.
+  */
+  public boolean isCandidate(Note note, Set<Note> candidates) {
+    return (candidates == null
+        || candidates.contains(note)
+        || (! noteWords.containsKey(note)));
+  }
+
+  /**
+   Return the notes from the collection that should be checked. If every
+   note has been indexed, then only the candidates are returned; otherwise
+   the whole collection is scanned. The list is a copy, so the notes may
+   safely be modified while it is being traversed.
+
+   @param model      The collection.
+   @param candidates The candidates returned by one of this index's methods.
+
+   @return The notes to be checked.
+  */
+  public List<Note> select(NoteCollectionModel model, Set<Note> candidates) {
+    if (candidates != null && size() >= model.size()) {
+      return new ArrayList<Note>(candidates);
+    }
+    ArrayList<Note> selected = new ArrayList<Note>();
+    for (int workIndex = 0; workIndex < model.size(); workIndex++) {
+      Note workNote = model.get(workIndex);
+      if (workNote != null && isCandidate(workNote, candidates)) {
+        selected.add(workNote);
+      }
+    }
+    return selected;
+  }
+
+  private int intern(String word) {
+    String key = word.toLowerCase();
+    Integer id = wordIds.get(key);
+    if (id == null) {
+      id = postings.size();
+      wordIds.put(key, id);
+      postings.add(newNoteSet());
+    }
+    return id;
+  }
+
+  private static Set<Note> intersect(ArrayList<Set<Note>> lists) {
+    Set<Note> result = newNoteSet();
+    if (lists.isEmpty()) {
+      return result;
+    }
+    ArrayList<Set<Note>> sorted = new ArrayList<Set<Note>>(lists);
+    Collections.sort(sorted, (a, b) -> Integer.compare(a.size(), b.size()));
+    result.addAll(sorted.get(0));
+    for (int i = 1; i < sorted.size() && result.size() > 0; i++) {
+      result.retainAll(sorted.get(i));
+    }
+    return result;
+  }
+
+  private static Set<Note> newNoteSet() {
+    return Collections.newSetFromMap(new IdentityHashMap<Note, Boolean>());
+  }
+
+}
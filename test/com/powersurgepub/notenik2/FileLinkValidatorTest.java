@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import java.io.*;
+  import java.util.*;
+
+  import javafx.embed.swing.*;
+
+  import org.junit.*;
+  import org.junit.rules.*;
+  import static org.junit.Assert.*;
+
+/**
+ Checks links to local files against a temporary folder.
+ */
+public class FileLinkValidatorTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @BeforeClass
+  public static void startToolkit() {
+    // The task reports its progress through the FX thread
+    new JFXPanel();
+  }
+
+  @Test
+  public void findsBrokenLinksWithSuggestions() throws Exception {
+    File folder = temp.getRoot();
+    new File(folder, "Annual Report.txt").createNewFile();
+    new File(folder, "photo.jpg").createNewFile();
+    new File(folder, "Archive").mkdir();
+
+    List<FileLinkValidator.FileLink> links
+        = new ArrayList<FileLinkValidator.FileLink>();
+    links.add(new FileLinkValidator.FileLink(null,
+        new File(folder, "Annual Report.txt")));
+    links.add(new FileLinkValidator.FileLink(null,
+        new File(folder, "Archive")));
+    FileLinkValidator.FileLink misspelt = new FileLinkValidator.FileLink(null,
+        new File(folder, "Anual Report.txt"));
+    links.add(misspelt);
+    FileLinkValidator.FileLink unknown = new FileLinkValidator.FileLink(null,
+        new File(folder, "nothing-like-it.xyz"));
+    links.add(unknown);
+    links.add(new FileLinkValidator.FileLink(null,
+        new File(new File(folder, "No Such Folder"), "photo.jpg")));
+
+    FileLinkValidator validator = new FileLinkValidator(links);
+    validator.run();
+    List<FileLinkValidator.FileLink> broken = validator.get();
+
+    assertEquals(3, broken.size());
+    assertSame(misspelt, broken.get(0));
+    assertEquals(new File(folder, "Annual Report.txt"),
+        misspelt.getSuggestion());
+    assertSame(unknown, broken.get(1));
+    assertNull(unknown.getSuggestion());
+    assertNull(broken.get(2).getSuggestion());
+  }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import com.sun.net.httpserver.*;
+
+  import java.io.*;
+  import java.net.*;
+  import java.nio.charset.*;
+  import java.util.concurrent.*;
+
+  import org.junit.*;
+  import static org.junit.Assert.*;
+
+/**
+ Checks links against a small HTTP server started on the loopback address
+ for the purpose, with one path for each kind of response the validator
+ has to deal with.
+ */
+public class LinkValidatorTest {
+
+  /** Milliseconds the slow path waits before answering. */
+  private static final int    SLOW_RESPONSE = 3000;
+
+  /** Milliseconds the validator waits for a response. */
+  private static final int    READ_TIMEOUT = 500;
+
+  private static HttpServer       server;
+  private static ExecutorService  serverThreads;
+  private static String           base;
+
+  private     LinkValidator       validator;
+
+  @BeforeClass
+  public static void startServer() throws IOException {
+    server = HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/ok", exchange -> respond(exchange, 200, null));
+    server.createContext("/missing", exchange -> respond(exchange, 404, null));
+    server.createContext("/busy", exchange -> respond(exchange, 503, null));
+    server.createContext("/moved", exchange -> respond(exchange, 301, "/ok"));
+    server.createContext("/gone", exchange -> respond(exchange, 302, "/missing"));
+    server.createContext("/no-head", exchange -> {
+      if (exchange.getRequestMethod().equals("HEAD")) {
+        respond(exchange, 405, null);
+      } else {
+        respond(exchange, 200, null);
+      }
+    });
+    server.createContext("/slow", exchange -> {
+      try {
+        Thread.sleep(SLOW_RESPONSE);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      respond(exchange, 200, null);
+    });
+    // A thread per request, so that the slow path holds up nothing else
+    serverThreads = Executors.newCachedThreadPool();
+    server.setExecutor(serverThreads);
+    server.start();
+    base = "http://" + InetAddress.getLoopbackAddress().getHostAddress()
+        + ":" + String.valueOf(server.getAddress().getPort());
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    server.stop(0);
+    serverThreads.shutdownNow();
+  }
+
+  @Before
+  public void setUp() {
+    validator = new LinkValidator(4, 2, 2000, READ_TIMEOUT);
+  }
+
+  @Test
+  public void reachableLinkIsValid() {
+    assertEquals(LinkValidator.VALID, validator.check(base + "/ok"));
+  }
+
+  @Test
+  public void missingPageIsInvalid() {
+    assertEquals(LinkValidator.INVALID, validator.check(base + "/missing"));
+  }
+
+  @Test
+  public void slowServerIsInvalid() {
+    long start = System.currentTimeMillis();
+    assertEquals(LinkValidator.INVALID, validator.check(base + "/slow"));
+    assertTrue("Gave up after the read timeout, not the response",
+        System.currentTimeMillis() - start < SLOW_RESPONSE);
+  }
+
+  @Test
+  public void busyServerIsUnknown() {
+    assertEquals(LinkValidator.UNKNOWN, validator.check(base + "/busy"));
+  }
+
+  @Test
+  public void refusedHeadFallsBackToGet() {
+    assertEquals(LinkValidator.VALID, validator.check(base + "/no-head"));
+  }
+
+  @Test
+  public void redirectsAreFollowed() {
+    assertEquals(LinkValidator.VALID, validator.check(base + "/moved"));
+    assertEquals(LinkValidator.INVALID, validator.check(base + "/gone"));
+  }
+
+  @Test
+  public void unreachablePortIsInvalid() throws IOException {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0, 1,
+        InetAddress.getLoopbackAddress())) {
+      port = socket.getLocalPort();
+    }
+    assertEquals(LinkValidator.INVALID, validator.check(
+        "http://" + InetAddress.getLoopbackAddress().getHostAddress()
+          + ":" + String.valueOf(port) + "/ok"));
+  }
+
+  @Test
+  public void malformedLinkIsInvalid() {
+    assertEquals(LinkValidator.INVALID, validator.check("http//no colon"));
+  }
+
+  /**
+   Send a response, with a short body unless it's for a HEAD request.
+  */
+  private static void respond(HttpExchange exchange, int code, String location)
+      throws IOException {
+    if (location != null) {
+      exchange.getResponseHeaders().set("Location", location);
+    }
+    byte[] body = ("Status " + String.valueOf(code))
+        .getBytes(StandardCharsets.UTF_8);
+    if (exchange.getRequestMethod().equals("HEAD")) {
+      exchange.sendResponseHeaders(code, -1);
+    } else {
+      exchange.sendResponseHeaders(code, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+    exchange.close();
+  }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2018 - 2018 Herb Bowie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.powersurgepub.notenik2;
+
+  import java.io.*;
+  import java.nio.charset.*;
+  import java.nio.file.*;
+  import java.util.*;
+
+  import org.junit.*;
+  import org.junit.rules.*;
+  import static org.junit.Assert.*;
+
+/**
+ Crawls a synthetic tree of app bundles, built in a temporary folder, so
+ that the crawler can be tested anywhere, not just on a Mac.
+ */
+public class MacAppCrawlerTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private     File                top;
+  private     Map<String, MacAppCrawler.AppInfo> found;
+
+  @Before
+  public void setUp() throws Exception {
+    top = temp.getRoot();
+
+    File foo = makeApp(top, "Foo.app", "2.1.0", "10.12",
+        "Copyright 2018 Foo Inc.");
+    // An app within an app is part of its bundle, and not listed separately
+    makeApp(new File(foo, "Contents/Helpers"), "Foo Helper.app", "2.1.0",
+        "10.12", "");
+    makeApp(new File(top, "Utilities/Graphics"), "Bar.app", "0.9",
+        "10.9", "Copyright 2017 Bar Ltd.");
+    makeApp(new File(top, ".hidden"), "Secret.app", "1.0", "10.9", "");
+
+    File broken = new File(top, "Broken.app/Contents");
+    broken.mkdirs();
+    write(new File(broken, "Info.plist"), "<?xml version=\"1.0\"?><plist><dict><key>");
+    new File(top, "Empty.app").mkdirs();
+
+    new File(top, "Tools").mkdirs();
+    write(new File(top, "Tools/tool.jar"), "not really a jar");
+
+    found = new HashMap<String, MacAppCrawler.AppInfo>();
+    for (MacAppCrawler.AppInfo app : new MacAppCrawler().crawl(top)) {
+      found.put(app.getFile().getName(), app);
+    }
+  }
+
+  @Test
+  public void readsAppInfo() {
+    MacAppCrawler.AppInfo foo = found.get("Foo.app");
+    assertNotNull(foo);
+    assertTrue(foo.isMacApp());
+    assertEquals("Foo", foo.getAppName());
+    assertEquals("2.1.0", foo.getVersion());
+    assertEquals("10.12", foo.getMinSysVersion());
+    assertEquals("Copyright 2018 Foo Inc.", foo.getCopyright());
+    assertTrue(foo.getFileLink().length() > 0);
+  }
+
+  @Test
+  public void findsNestedApps() {
+    MacAppCrawler.AppInfo bar = found.get("Bar.app");
+    assertNotNull(bar);
+    assertEquals("0.9", bar.getVersion());
+    assertEquals("10.9", bar.getMinSysVersion());
+  }
+
+  @Test
+  public void skipsBundleContentsAndHiddenFolders() {
+    assertFalse(found.containsKey("Foo Helper.app"));
+    assertFalse(found.containsKey("Secret.app"));
+  }
+
+  @Test
+  public void survivesMalformedBundles() {
+    // A bundle with a broken or missing Info.plist may be listed with what
+    // little can be found out about it, or left out, but without any version
+    for (String name : new String[] {"Broken.app", "Empty.app"}) {
+      MacAppCrawler.AppInfo app = found.get(name);
+      if (app != null) {
+        assertTrue(app.isMacApp());
+        assertEquals("", nonNull(app.getVersion()));
+      }
+    }
+    assertTrue(found.containsKey("Foo.app"));
+    assertTrue(found.containsKey("Bar.app"));
+  }
+
+  @Test
+  public void listsJarFiles() {
+    MacAppCrawler.AppInfo tool = found.get("tool.jar");
+    assertNotNull(tool);
+    assertFalse(tool.isMacApp());
+    assertEquals("tool", tool.getAppName());
+    assertTrue(tool.getLastModDate().matches("\\d{4}-\\d{2}-\\d{2}"));
+  }
+
+  @Test
+  public void findsNothingInAnEmptyFolder() throws Exception {
+    File empty = temp.newFolder("Nothing Here");
+    assertTrue(new MacAppCrawler().crawl(empty).isEmpty());
+  }
+
+  /**
+   Build an app bundle with an Info.plist giving the usual keys.
+  */
+  private static File makeApp(
+      File parent,
+      String name,
+      String version,
+      String minSysVersion,
+      String copyright)
+        throws IOException {
+
+    File app = new File(parent, name);
+    File contents = new File(app, "Contents");
+    contents.mkdirs();
+    String bundleName = name.substring(0, name.length() - 4);
+    write(new File(contents, "Info.plist"),
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" "
+        + "\"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n"
+        + "<plist version=\"1.0\">\n"
+        + "<dict>\n"
+        + "  <key>CFBundleName</key>\n"
+        + "  <string>" + bundleName + "</string>\n"
+        + "  <key>CFBundleShortVersionString</key>\n"
+        + "  <string>" + version + "</string>\n"
+        + "  <key>LSMinimumSystemVersion</key>\n"
+        + "  <string>" + minSysVersion + "</string>\n"
+        + "  <key>NSHumanReadableCopyright</key>\n"
+        + "  <string>" + copyright + "</string>\n"
+        + "</dict>\n"
+        + "</plist>\n");
+    return app;
+  }
+
+  private static void write(File file, String text) throws IOException {
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String nonNull(String text) {
+    return (text == null) ? "" : text;
+  }
+
+}